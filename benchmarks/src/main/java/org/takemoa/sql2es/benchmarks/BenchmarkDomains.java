@@ -0,0 +1,238 @@
+package org.takemoa.sql2es.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.h2.tools.SimpleResultSet;
+import org.takemoa.sql2es.definition.DomainDefinition;
+import org.takemoa.sql2es.definition.FieldDefinition;
+import org.takemoa.sql2es.definition.FieldType;
+import org.takemoa.sql2es.definition.RowExtractor;
+import org.takemoa.sql2es.definition.TypeDefinition;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic domains and result sets for the benchmarks: an "item" root type with MANY child types
+ * ("item.children0", "item.children1", ...), each joined to the root, and in memory result sets of such a
+ * query, as returned by the database.
+ *
+ * @author Take Moa
+ */
+public class BenchmarkDomains {
+
+    private static ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+
+    /**
+     * A domain definition, as read from a domain YAML file
+     *
+     * @param childTypes number of MANY child types of the root
+     */
+    public static DomainDefinition domain(int childTypes) {
+        StringBuilder yaml = new StringBuilder();
+        yaml.append("item:\n")
+                .append("  idField: id\n")
+                .append("  refField: id\n")
+                .append("  tables:\n")
+                .append("    items:\n")
+                .append("      as: \"it\"\n")
+                .append("  fields:\n");
+        appendField(yaml, "id", "it.id", FieldType.LONG);
+        appendField(yaml, "name", "it.name", FieldType.STRING);
+        appendField(yaml, "price", "it.price", FieldType.DOUBLE);
+        appendField(yaml, "created", "it.created", FieldType.DATETIME);
+        appendField(yaml, "active", "it.active", FieldType.BOOLEAN);
+        for (int childIndex = 0; childIndex < childTypes; ++childIndex) {
+            String alias = "c" + childIndex;
+            yaml.append("item.children").append(childIndex).append(":\n")
+                    .append("  parentRelation: MANY\n")
+                    .append("  idField: id\n")
+                    .append("  tables:\n")
+                    .append("    children").append(childIndex).append(":\n")
+                    .append("      as: \"").append(alias).append("\"\n")
+                    .append("      join:\n")
+                    .append("        type: \"LEFT_OUTER\"\n")
+                    .append("        parentColumns:\n")
+                    .append("        - \"it.id\"\n")
+                    .append("        childColumns:\n")
+                    .append("        - \"").append(alias).append(".item_id\"\n")
+                    .append("  fields:\n");
+            appendField(yaml, "id", alias + ".id", FieldType.STRING);
+            appendField(yaml, "amount", alias + ".amount", FieldType.FLOAT);
+            appendField(yaml, "quantity", alias + ".quantity", FieldType.INTEGER);
+            appendField(yaml, "fromDate", alias + ".from_date", FieldType.DATE);
+        }
+
+        try {
+            LinkedHashMap<String, TypeDefinition> typesMap = mapper.readValue(yaml.toString(),
+                    new TypeReference<LinkedHashMap<String, TypeDefinition>>() {
+                    });
+            return new DomainDefinition(typesMap);
+        } catch (IOException e) {
+            throw new RuntimeException("Invalid benchmark domain:\n" + yaml, e);
+        }
+    }
+
+    private static void appendField(StringBuilder yaml, String fieldName, String sqlExpression,
+                                    FieldType fieldType) {
+        yaml.append("    ").append(fieldName).append(":\n")
+                .append("      sqlExpression: \"").append(sqlExpression).append("\"\n")
+                .append("      type: ").append(fieldType).append("\n");
+    }
+
+    /**
+     * Rows of the domain main query, sorted by root ID: each root object has <code>fanOut</code> children of
+     * each child type, the child types being joined together as by the database (fanOut^childTypes rows per
+     * root object)
+     *
+     * @param rootCount number of root objects
+     */
+    public static ResultSet resultSet(DomainDefinition domainDefinition, int rootCount, int fanOut) {
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.setAutoClose(false);
+        List<TypeDefinition> childTypeDefs = new ArrayList<TypeDefinition>();
+        for (TypeDefinition typeDef : domainDefinition.getAllTypeDefs()) {
+            for (FieldDefinition fieldDef : typeDef.getFieldsMap().values()) {
+                rs.addColumn(typeDef.fieldAsSelectItem(fieldDef.getFieldName()), sqlType(fieldDef.getFieldType()),
+                        0, 0);
+            }
+            if (typeDef != domainDefinition.getRootTypeDef()) {
+                childTypeDefs.add(typeDef);
+            }
+        }
+
+        int rowsPerRoot = 1;
+        for (int i = 0; i < childTypeDefs.size(); ++i) {
+            rowsPerRoot *= fanOut;
+        }
+        for (long rootId = 1; rootId <= rootCount; ++rootId) {
+            for (int rowIndex = 0; rowIndex < rowsPerRoot; ++rowIndex) {
+                List<Object> row = new ArrayList<Object>();
+                for (TypeDefinition typeDef : domainDefinition.getAllTypeDefs()) {
+                    // Index of the child of this row, for each child type: digits of rowIndex in base fanOut
+                    int childIndex = 0;
+                    int childTypeIndex = childTypeDefs.indexOf(typeDef);
+                    if (childTypeIndex >= 0) {
+                        int divisor = 1;
+                        for (int i = 0; i < childTypeIndex; ++i) {
+                            divisor *= fanOut;
+                        }
+                        childIndex = (rowIndex / divisor) % fanOut;
+                    }
+                    for (FieldDefinition fieldDef : typeDef.getFieldsMap().values()) {
+                        row.add(value(fieldDef, rootId, childIndex));
+                    }
+                }
+                rs.addRow(row.toArray());
+            }
+        }
+        return rs;
+    }
+
+    /**
+     * Rows of one column of the given type
+     */
+    public static ResultSet columnResultSet(FieldType fieldType, int rowCount) {
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.setAutoClose(false);
+        rs.addColumn("value", sqlType(fieldType), 0, 0);
+        for (int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+            rs.addRow(value(fieldType, rowIndex));
+        }
+        return rs;
+    }
+
+    /**
+     * Reset a result set returned by this class, so that it can be read again
+     */
+    public static void rewind(ResultSet rs) throws SQLException {
+        rs.beforeFirst();
+    }
+
+    private static Object value(FieldDefinition fieldDef, long rootId, int childIndex) {
+        if ("id".equals(fieldDef.getFieldName())) {
+            return fieldDef.getFieldType() == FieldType.LONG ? (Object) rootId : rootId + "-" + childIndex;
+        }
+        return value(fieldDef.getFieldType(), rootId * 31 + childIndex);
+    }
+
+    private static Object value(FieldType fieldType, long seed) {
+        switch (fieldType) {
+            case STRING:
+                return "value " + seed;
+            case DATE:
+                return new Date(1400000000000L + seed * 86400000L);
+            case DATETIME:
+                return new Timestamp(1400000000000L + seed * 1000L);
+            case FLOAT:
+                return seed / 4.0f;
+            case DOUBLE:
+                return seed / 8.0;
+            case INTEGER:
+                return (int) seed;
+            case LONG:
+                return seed;
+            case SHORT:
+                return (short) seed;
+            case BOOLEAN:
+                return seed % 2 == 0;
+        }
+        return null;
+    }
+
+    private static int sqlType(FieldType fieldType) {
+        switch (fieldType) {
+            case STRING:
+                return Types.VARCHAR;
+            case DATE:
+                return Types.DATE;
+            case DATETIME:
+                return Types.TIMESTAMP;
+            case FLOAT:
+                return Types.REAL;
+            case DOUBLE:
+                return Types.DOUBLE;
+            case INTEGER:
+                return Types.INTEGER;
+            case LONG:
+                return Types.BIGINT;
+            case SHORT:
+                return Types.SMALLINT;
+            case BOOLEAN:
+                return Types.BOOLEAN;
+        }
+        return Types.OTHER;
+    }
+
+    /**
+     * Assemble the domain objects of a result set of the main query, as the SQL fetcher does
+     */
+    public static LinkedHashMap<String, Map<String, Object>> assemble(DomainDefinition domainDefinition,
+                                                                     ResultSet rs) throws SQLException {
+        LinkedHashMap<String, Map<String, Object>> domainObjectMap =
+                new LinkedHashMap<String, Map<String, Object>>();
+        RowExtractor rowExtractor = null;
+        while (rs.next()) {
+            if (rowExtractor == null) {
+                rowExtractor = domainDefinition.compileRowExtractor(rs, null);
+            }
+            String rootId = rowExtractor.readRootId(rs);
+            Map<String, Object> rootValues = domainObjectMap.get(rootId);
+            if (rootValues == null) {
+                domainObjectMap.put(rootId, rowExtractor.mergeRow(rs, null));
+            } else {
+                rowExtractor.mergeRow(rs, rootValues);
+            }
+        }
+        return domainObjectMap;
+    }
+}
@@ -0,0 +1,91 @@
+package org.takemoa.sql2es.benchmarks;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.takemoa.sql2es.definition.DocumentWriter;
+import org.takemoa.sql2es.definition.DomainDefinition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build of the bulk request body of one batch of assembled domain objects: JSon serialization (DocumentWriter,
+ * as done by the channel, or the ES map serialization) and bulk request serialization.
+ *
+ * @author Take Moa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkBodyBenchmark {
+
+    private static final String ES_INDEX = "items";
+    private static final String ES_TYPE = "item";
+
+    // Children of each child type, per domain object
+    @Param({"1", "4", "16"})
+    private int fanOut;
+
+    // Domain objects per batch
+    @Param({"100", "1000"})
+    private int batchSize;
+
+    private LinkedHashMap<String, Map<String, Object>> domainObjectMap;
+    private DocumentWriter documentWriter;
+
+    @Setup
+    public void setUp() throws SQLException {
+        DomainDefinition domainDefinition = BenchmarkDomains.domain(2);
+        domainObjectMap = BenchmarkDomains.assemble(domainDefinition,
+                BenchmarkDomains.resultSet(domainDefinition, batchSize, fanOut));
+        documentWriter = domainDefinition.compileDocumentWriter();
+    }
+
+    @Benchmark
+    public BytesStreamOutput documentWriter() throws IOException {
+        BulkRequest bulkRequest = new BulkRequest();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        for (Map.Entry<String, Map<String, Object>> entry : domainObjectMap.entrySet()) {
+            bulkRequest.add(new IndexRequest(ES_INDEX, ES_TYPE, entry.getKey())
+                    .source(documentWriter.write(entry.getValue(), buffer)));
+        }
+        return writeBody(bulkRequest);
+    }
+
+    @Benchmark
+    public BytesStreamOutput xContentMap() throws IOException {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (Map.Entry<String, Map<String, Object>> entry : domainObjectMap.entrySet()) {
+            bulkRequest.add(new IndexRequest(ES_INDEX, ES_TYPE, entry.getKey()).source(entry.getValue()));
+        }
+        return writeBody(bulkRequest);
+    }
+
+    /**
+     * Serialize the bulk request as sent to ES
+     */
+    private static BytesStreamOutput writeBody(BulkRequest bulkRequest) throws IOException {
+        BytesStreamOutput body = new BytesStreamOutput();
+        bulkRequest.writeTo(body);
+        return body;
+    }
+}
@@ -0,0 +1,66 @@
+package org.takemoa.sql2es.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.takemoa.sql2es.definition.FieldType;
+import org.takemoa.sql2es.util.Conversions;
+import org.takemoa.sql2es.util.SqlValueReader;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of the column values of one batch to ES values, per field type (Conversions.sqlValueReader),
+ * with and without a database time zone.
+ *
+ * @author Take Moa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"STRING", "DATE", "DATETIME", "FLOAT", "DOUBLE", "INTEGER", "LONG", "SHORT", "BOOLEAN"})
+    private FieldType fieldType;
+
+    // Rows per batch
+    @Param({"1000", "10000"})
+    private int batchSize;
+
+    // Database time zone, empty for none
+    @Param({"", "America/New_York"})
+    private String dbTimeZone;
+
+    private ResultSet rs;
+    private SqlValueReader valueReader;
+
+    @Setup
+    public void setUp() {
+        rs = BenchmarkDomains.columnResultSet(fieldType, batchSize);
+        valueReader = Conversions.sqlValueReader(fieldType,
+                dbTimeZone.isEmpty() ? null : TimeZone.getTimeZone(dbTimeZone));
+    }
+
+    @Benchmark
+    public void readBatch(Blackhole blackhole) throws SQLException {
+        BenchmarkDomains.rewind(rs);
+        while (rs.next()) {
+            blackhole.consume(valueReader.read(rs, 1));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.takemoa.sql2es.benchmarks;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * The employees sample database (as altered by tutorial/sql/alter_employees_db.sql), generated in an in memory
+ * H2 database in MySQL mode, with the row counts of the tutorial domain main query.
+ *
+ * <p>Each employee has one or two departments, 1 to 17 salaries, one or two titles and, for one in a thousand,
+ * a managed department; the main query joins them all, i.e. departments x salaries x titles x managers rows
+ * per employee.</p>
+ *
+ * @author Take Moa
+ */
+public class EmployeeDatabase {
+
+    public static final String URL = "jdbc:h2:mem:employees;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    public static final String DRIVER_CLASS_NAME = "org.h2.Driver";
+
+    private static final int FIRST_EMP_NO = 10001;
+    private static final int DEPARTMENT_COUNT = 9;
+    private static final long DAY_MILLIS = 86400000L;
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE departments (dept_no CHAR(4) NOT NULL, dept_name VARCHAR(40) NOT NULL, "
+                    + "PRIMARY KEY (dept_no))",
+            "CREATE TABLE employees (emp_no INT NOT NULL, birth_date DATE NOT NULL, first_name VARCHAR(14) NOT NULL, "
+                    + "last_name VARCHAR(16) NOT NULL, gender CHAR(1) NOT NULL, hire_date DATE NOT NULL, "
+                    + "last_update_date TIMESTAMP NULL, PRIMARY KEY (emp_no))",
+            "CREATE TABLE dept_emp (emp_no INT NOT NULL, dept_no CHAR(4) NOT NULL, from_date DATE NOT NULL, "
+                    + "to_date DATE NOT NULL, PRIMARY KEY (emp_no, dept_no))",
+            "CREATE TABLE dept_manager (emp_no INT NOT NULL, dept_no CHAR(4) NOT NULL, from_date DATE NOT NULL, "
+                    + "to_date DATE NOT NULL, PRIMARY KEY (emp_no, dept_no))",
+            "CREATE TABLE salaries (emp_no INT NOT NULL, salary INT NOT NULL, from_date DATE NOT NULL, "
+                    + "to_date DATE NOT NULL, PRIMARY KEY (emp_no, from_date))",
+            "CREATE TABLE titles (emp_no INT NOT NULL, title VARCHAR(50) NOT NULL, from_date DATE NOT NULL, "
+                    + "to_date DATE, PRIMARY KEY (emp_no, title, from_date))",
+            "CREATE INDEX dept_emp_dept_no ON dept_emp (dept_no)",
+            "CREATE INDEX dept_manager_dept_no ON dept_manager (dept_no)",
+            "CREATE INDEX employees_last_update_date ON employees (last_update_date)"
+    };
+
+    private static final String[] TITLES = {"Engineer", "Senior Engineer", "Staff", "Senior Staff",
+            "Assistant Engineer", "Technique Leader", "Manager"};
+    private static final String[] FIRST_NAMES = {"Georgi", "Bezalel", "Parto", "Chirstian", "Kyoichi", "Anneke",
+            "Tzvetan", "Saniya", "Sumant", "Duangkaew"};
+    private static final String[] LAST_NAMES = {"Facello", "Simmel", "Bamford", "Koblick", "Maliniak", "Preusig",
+            "Zielinski", "Kalloufi", "Peac", "Piveteau"};
+
+    private final Connection connection;
+
+    // Children per employee, by employee index
+    private int employeeCount = 0;
+    private int[] departmentCounts = new int[0];
+    private int[] salaryCounts = new int[0];
+    private int[] titleCounts = new int[0];
+    private int[] managerCounts = new int[0];
+
+    public EmployeeDatabase() throws SQLException {
+        connection = DriverManager.getConnection(URL);
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                statement.execute(ddl);
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO departments (dept_no, dept_name) VALUES (?, ?)")) {
+            for (int deptIndex = 1; deptIndex <= DEPARTMENT_COUNT; ++deptIndex) {
+                insert.setString(1, departmentNo(deptIndex));
+                insert.setString(2, "Department " + deptIndex);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    public int getEmployeeCount() {
+        return employeeCount;
+    }
+
+    /**
+     * Add new employees, with their children
+     *
+     * @return rows of the main query for the new employees
+     */
+    public long addEmployees(int count) throws SQLException {
+        int fromIndex = employeeCount;
+        employeeCount += count;
+        departmentCounts = Arrays.copyOf(departmentCounts, employeeCount);
+        salaryCounts = Arrays.copyOf(salaryCounts, employeeCount);
+        titleCounts = Arrays.copyOf(titleCounts, employeeCount);
+        managerCounts = Arrays.copyOf(managerCounts, employeeCount);
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement employeeInsert = connection.prepareStatement("INSERT INTO employees "
+                + "(emp_no, birth_date, first_name, last_name, gender, hire_date) VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement deptEmpInsert = connection.prepareStatement(
+                     "INSERT INTO dept_emp (emp_no, dept_no, from_date, to_date) VALUES (?, ?, ?, ?)");
+             PreparedStatement deptManagerInsert = connection.prepareStatement(
+                     "INSERT INTO dept_manager (emp_no, dept_no, from_date, to_date) VALUES (?, ?, ?, ?)");
+             PreparedStatement salaryInsert = connection.prepareStatement(
+                     "INSERT INTO salaries (emp_no, salary, from_date, to_date) VALUES (?, ?, ?, ?)");
+             PreparedStatement titleInsert = connection.prepareStatement(
+                     "INSERT INTO titles (emp_no, title, from_date, to_date) VALUES (?, ?, ?, ?)")) {
+            for (int index = fromIndex; index < employeeCount; ++index) {
+                int empNo = FIRST_EMP_NO + index;
+                long hireDay = 5000 + index % 5000;
+                employeeInsert.setInt(1, empNo);
+                employeeInsert.setDate(2, day(hireDay - 9000 - index % 3000));
+                employeeInsert.setString(3, FIRST_NAMES[index % FIRST_NAMES.length]);
+                employeeInsert.setString(4, LAST_NAMES[(index / FIRST_NAMES.length) % LAST_NAMES.length]);
+                employeeInsert.setString(5, index % 2 == 0 ? "M" : "F");
+                employeeInsert.setDate(6, day(hireDay));
+                employeeInsert.addBatch();
+
+                departmentCounts[index] = index % 10 == 0 ? 2 : 1;
+                for (int deptIndex = 0; deptIndex < departmentCounts[index]; ++deptIndex) {
+                    addChild(deptEmpInsert, empNo, departmentNo(1 + (index + deptIndex) % DEPARTMENT_COUNT),
+                            hireDay + deptIndex * 1000, deptIndex + 1 < departmentCounts[index]
+                                    ? hireDay + deptIndex * 1000 + 999 : -1);
+                }
+                managerCounts[index] = index % 1000 == 0 ? 1 : 0;
+                if (managerCounts[index] > 0) {
+                    addChild(deptManagerInsert, empNo, departmentNo(1 + index % DEPARTMENT_COUNT), hireDay, -1);
+                }
+                salaryCounts[index] = 1 + index % 17;
+                for (int salaryIndex = 0; salaryIndex < salaryCounts[index]; ++salaryIndex) {
+                    addChild(salaryInsert, empNo, 40000 + salaryIndex * 1500 + index % 1000,
+                            hireDay + salaryIndex * 365, salaryIndex + 1 < salaryCounts[index]
+                                    ? hireDay + salaryIndex * 365 + 365 : -1);
+                }
+                titleCounts[index] = index % 3 == 0 ? 2 : 1;
+                for (int titleIndex = 0; titleIndex < titleCounts[index]; ++titleIndex) {
+                    addChild(titleInsert, empNo, TITLES[(index + titleIndex) % TITLES.length],
+                            hireDay + titleIndex * 2000, titleIndex + 1 < titleCounts[index]
+                                    ? hireDay + titleIndex * 2000 + 2000 : -1);
+                }
+
+                if ((index - fromIndex + 1) % INSERT_BATCH_SIZE == 0) {
+                    executeBatches(employeeInsert, deptEmpInsert, deptManagerInsert, salaryInsert, titleInsert);
+                }
+            }
+            executeBatches(employeeInsert, deptEmpInsert, deptManagerInsert, salaryInsert, titleInsert);
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return rowCount(fromIndex, employeeCount, 1);
+    }
+
+    /**
+     * Give a raise to one in <code>every</code> employees (a new salary row) and mark them as updated, as
+     * tutorial/sql/update_employee_2.sql does for one employee
+     *
+     * @return rows of the main query for the updated employees
+     */
+    public long updateEmployees(int every) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement salaryInsert = connection.prepareStatement(
+                "INSERT INTO salaries (emp_no, salary, from_date, to_date) VALUES (?, ?, ?, ?)");
+             PreparedStatement employeeUpdate = connection.prepareStatement(
+                     "UPDATE employees SET last_update_date = CURRENT_TIMESTAMP() WHERE emp_no = ?")) {
+            for (int index = 0; index < employeeCount; index += every) {
+                int empNo = FIRST_EMP_NO + index;
+                addChild(salaryInsert, empNo, 90000 + index % 1000, 20000 + salaryCounts[index], -1);
+                ++salaryCounts[index];
+                employeeUpdate.setInt(1, empNo);
+                employeeUpdate.addBatch();
+            }
+            executeBatches(salaryInsert, employeeUpdate);
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return rowCount(0, employeeCount, every);
+    }
+
+    public void close() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+        connection.close();
+    }
+
+    private long rowCount(int fromIndex, int toIndex, int every) {
+        long rowCount = 0;
+        for (int index = fromIndex; index < toIndex; index += every) {
+            rowCount += (long) departmentCounts[index] * salaryCounts[index] * titleCounts[index]
+                    * Math.max(1, managerCounts[index]);
+        }
+        return rowCount;
+    }
+
+    /**
+     * Add a child row: (emp_no, value, from_date, to_date), to_date -1 meaning current
+     */
+    private static void addChild(PreparedStatement insert, int empNo, Object value, long fromDay, long toDay)
+            throws SQLException {
+        insert.setInt(1, empNo);
+        insert.setObject(2, value);
+        insert.setDate(3, day(fromDay));
+        insert.setDate(4, toDay < 0 ? Date.valueOf("9999-01-01") : day(toDay));
+        insert.addBatch();
+    }
+
+    private static void executeBatches(PreparedStatement... statements) throws SQLException {
+        for (PreparedStatement statement : statements) {
+            statement.executeBatch();
+        }
+    }
+
+    private static Date day(long dayNumber) {
+        return new Date(dayNumber * DAY_MILLIS);
+    }
+
+    private static String departmentNo(int deptIndex) {
+        return String.format("d%03d", deptIndex);
+    }
+}
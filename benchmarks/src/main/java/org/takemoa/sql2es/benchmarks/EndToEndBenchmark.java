@@ -0,0 +1,193 @@
+package org.takemoa.sql2es.benchmarks;
+
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.takemoa.sql2es.channel.ChannelManager;
+import org.takemoa.sql2es.config.ConfigManager;
+import org.takemoa.sql2es.es.ESClientManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * End to end throughput of a channel: the tutorial employee domain, from an in memory employees database (H2 in
+ * MySQL mode) to a local ES node in the same JVM, through ChannelManager.execute().
+ *
+ * <p>Three runs are measured: the first load, an incremental run after new employees are added and an update
+ * sweep after some employees are updated. Each reports rows/s (rows of the main query), docs/s, bytes/s (JSon
+ * sources), the heap high-water mark and the GC time.</p>
+ *
+ * <p>Usage: <code>EndToEndBenchmark [employees [increment% [updated%]]]</code>, defaults 10000 employees,
+ * 10% new and 10% updated employees.</p>
+ *
+ * @author Take Moa
+ */
+public class EndToEndBenchmark {
+
+    private static final String CLUSTER_NAME = "sql2es-benchmark";
+    private static final String DOMAIN_FILE = "employee.yaml";
+
+    public static void main(String[] args) throws Exception {
+        int employees = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int incrementPercent = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int updatePercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Path homeFolder = Files.createTempDirectory("sql2es-benchmark");
+        writeConfig(homeFolder);
+        System.setProperty("sql2es.path.home", homeFolder.toString());
+
+        EmployeeDatabase database = new EmployeeDatabase();
+        Node node = startNode(homeFolder);
+        ConfigManager configManager = new ConfigManager();
+        try {
+            configManager.setup();
+            ChannelManager channelManager = configManager.getChannelManagers().get(0);
+
+            System.out.println(String.format(Locale.ROOT, "%-12s %10s %10s %12s %10s %10s %12s %10s %8s",
+                    "run", "rows", "docs", "bytes", "rows/s", "docs/s", "bytes/s", "heapMB", "gcMs"));
+
+            long rows = database.addEmployees(employees);
+            measure("first load", channelManager, rows);
+
+            rows = database.addEmployees(Math.max(1, employees * incrementPercent / 100));
+            measure("incremental", channelManager, rows);
+
+            rows = database.updateEmployees(Math.max(1, 100 / Math.max(1, updatePercent)));
+            measure("updates", channelManager, rows);
+        } finally {
+            configManager.closeDatasources();
+            ESClientManager.closeAll();
+            node.close();
+            database.close();
+        }
+    }
+
+    /**
+     * Run the channel once, measuring it
+     *
+     * @param rows rows of the main query expected by the run
+     */
+    private static void measure(String runName, ChannelManager channelManager, long rows) {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            memoryPool.resetPeakUsage();
+        }
+        long gcMillis = gcMillis();
+
+        long startNanos = System.nanoTime();
+        channelManager.execute();
+        double secs = (System.nanoTime() - startNanos) / 1e9;
+
+        gcMillis = gcMillis() - gcMillis;
+        long heapPeakBytes = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                heapPeakBytes += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        long docs = channelManager.getInsertedCount() + channelManager.getUpdatedCount()
+                + channelManager.getDeletedCount();
+        long bytes = channelManager.getIndexedBytes();
+
+        System.out.println(String.format(Locale.ROOT, "%-12s %10d %10d %12d %10.0f %10.0f %12.0f %10d %8d",
+                runName, rows, docs, bytes, rows / secs, docs / secs, bytes / secs, heapPeakBytes >> 20, gcMillis));
+    }
+
+    private static long gcMillis() {
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(0, collector.getCollectionTime());
+        }
+        return gcMillis;
+    }
+
+    /**
+     * A local data node, the only node of the cluster the channel writes to
+     */
+    private static Node startNode(Path homeFolder) {
+        Node node = NodeBuilder.nodeBuilder().local(true).settings(ImmutableSettings.builder()
+                .put("cluster.name", CLUSTER_NAME)
+                .put("path.home", homeFolder.resolve("es").toString())
+                .put("http.enabled", false)
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)).node();
+        ClusterHealthStatus status = node.client().admin().cluster().prepareHealth().setWaitForYellowStatus()
+                .execute().actionGet().getStatus();
+        if (status == ClusterHealthStatus.RED) {
+            throw new IllegalStateException("Local ES node not started");
+        }
+        return node;
+    }
+
+    /**
+     * Main config file and tutorial domain file, into the config folder of the home folder
+     */
+    private static void writeConfig(Path homeFolder) throws IOException {
+        Path configFolder = Files.createDirectories(homeFolder.resolve("config"));
+        String config = "---\n"
+                + "runIntervalMins: 0\n"
+                + "esClusters:\n"
+                + "  " + CLUSTER_NAME + ":\n"
+                + "    node.local: true\n"
+                + "    http.enabled: false\n"
+                + "    path.home: \"" + homeFolder.resolve("es-client") + "\"\n"
+                + "    sql2es.healthCheckSecs: 0\n"
+                + "datasources:\n"
+                + "  employeesDS:\n"
+                + "    driverClassName: " + EmployeeDatabase.DRIVER_CLASS_NAME + "\n"
+                + "    url: \"" + EmployeeDatabase.URL + "\"\n"
+                + "    username: sa\n"
+                + "    password:\n"
+                + "sqlTemplates:\n"
+                + "  " + EmployeeDatabase.DRIVER_CLASS_NAME + ":\n"
+                + "    templateSelectClause: \"SELECT ${select_list}\"\n"
+                + "    templateOrderByClause: \"  ORDER BY ${order_by_list} LIMIT :limit\"\n"
+                + "    templateTableInFromClause: \"${table_name} AS ${alias}\"\n"
+                + "    templateColumnInSelectList: \"${column_name} AS ${alias}\"\n"
+                + "channels:\n"
+                + "  employees:\n"
+                + "    esCluster: " + CLUSTER_NAME + "\n"
+                + "    esIndex: employees\n"
+                + "    esType: employee\n"
+                + "    datasource: employeesDS\n"
+                + "    domainDefinitionFile: " + DOMAIN_FILE + "\n"
+                + "    batchSize: 5000\n"
+                + "    maxRecords: " + Integer.MAX_VALUE + "\n";
+        Files.write(configFolder.resolve("sql2es.yaml"), config.getBytes(StandardCharsets.UTF_8));
+
+        // Packaged from tutorial/config
+        InputStream domainFile = EndToEndBenchmark.class.getResourceAsStream("/e2e/" + DOMAIN_FILE);
+        if (domainFile == null) {
+            throw new IllegalStateException("Tutorial domain file not packaged: e2e/" + DOMAIN_FILE);
+        }
+        String domain;
+        try {
+            domain = new String(readAll(domainFile), StandardCharsets.UTF_8);
+        } finally {
+            domainFile.close();
+        }
+        // H2 types COALESCE(<date>, '') as a date, MySQL as a string
+        domain = domain.replaceAll("COALESCE\\(([\\w.]+), *''\\)", "COALESCE(CAST($1 AS VARCHAR), '')");
+        Files.write(configFolder.resolve(DOMAIN_FILE), domain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,58 @@
+package org.takemoa.sql2es.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.takemoa.sql2es.definition.DomainDefinition;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembly of one batch of domain objects from the rows of the main query (RowExtractor.readRootId and
+ * mergeRow): two MANY child types joined to the root, i.e. fanOut^2 rows per domain object.
+ *
+ * @author Take Moa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowAssemblyBenchmark {
+
+    // Children of each child type, per domain object
+    @Param({"1", "4", "16"})
+    private int fanOut;
+
+    // Domain objects per batch
+    @Param({"100", "1000"})
+    private int batchSize;
+
+    private DomainDefinition domainDefinition;
+    private ResultSet rs;
+
+    @Setup
+    public void setUp() {
+        domainDefinition = BenchmarkDomains.domain(2);
+        rs = BenchmarkDomains.resultSet(domainDefinition, batchSize, fanOut);
+    }
+
+    @Benchmark
+    public LinkedHashMap<String, Map<String, Object>> assembleBatch() throws SQLException {
+        BenchmarkDomains.rewind(rs);
+        return BenchmarkDomains.assemble(domainDefinition, rs);
+    }
+}
@@ -0,0 +1,62 @@
+package org.takemoa.sql2es.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.takemoa.sql2es.definition.DomainDefinition;
+import org.takemoa.sql2es.sql.SelectBuilder;
+import org.takemoa.sql2es.sql.SqlTemplates;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build of the main query of a domain (DomainDefinition.buildSelect and SelectBuilder.buildSelectQuery),
+ * as done by the fetchers, by number of joined child types.
+ *
+ * @author Take Moa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectBuilderBenchmark {
+
+    // MANY child types joined to the root
+    @Param({"1", "4", "16"})
+    private int childTypes;
+
+    private DomainDefinition domainDefinition;
+    private SelectBuilder mainSelectBuilder;
+
+    @Setup
+    public void setUp() {
+        domainDefinition = BenchmarkDomains.domain(childTypes);
+        mainSelectBuilder = domainDefinition.buildSelect(new SelectBuilder(SqlTemplates.DEFAULT));
+    }
+
+    @Benchmark
+    public String buildMainQuery() {
+        SelectBuilder selectBuilder = domainDefinition.buildSelect(new SelectBuilder(SqlTemplates.DEFAULT));
+        domainDefinition.addRefSort(selectBuilder);
+        domainDefinition.addIdSort(selectBuilder);
+        domainDefinition.addRefKeysetFilter(selectBuilder);
+        return selectBuilder.buildSelectQuery();
+    }
+
+    @Benchmark
+    public String buildFromClone() {
+        SelectBuilder selectBuilder = mainSelectBuilder.clone();
+        domainDefinition.addRefFilter(selectBuilder);
+        return selectBuilder.buildSelectQuery();
+    }
+}
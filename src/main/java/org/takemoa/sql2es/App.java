@@ -5,10 +5,15 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.takemoa.sql2es.channel.ChannelManager;
+import org.takemoa.sql2es.channel.ChannelScheduler;
 import org.takemoa.sql2es.config.ConfigManager;
 import org.takemoa.sql2es.es.ESClientManager;
+import org.takemoa.sql2es.metrics.ChannelMetrics;
+import org.takemoa.sql2es.metrics.MetricsExporter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -23,6 +28,8 @@ public class App implements Runnable {
     private static final Logger logger = LogManager.getLogger(App.class);
 
     private ConfigManager configManager = null;
+    private ChannelScheduler channelScheduler = null;
+    private MetricsExporter metricsExporter = null;
 
     public static void main(String[] args) throws JsonParseException,
 		JsonMappingException, IOException {
@@ -33,7 +40,17 @@ public class App implements Runnable {
 
         if (runIntervalMins <= 0) {
             logger.info("Running application only once");
-            app.run();
+            try {
+                app.run();
+                // Continuous channels, if any, run until the process is stopped
+                app.channelScheduler.awaitContinuous();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                app.metricsExporter.stop();
+                app.configManager.closeDatasources();
+                ESClientManager.closeAll();
+            }
         } else {
             logger.info("Running application every {} mins", runIntervalMins);
             ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
@@ -49,20 +66,25 @@ public class App implements Runnable {
         // 1. Load and validate application config file
         configManager = new ConfigManager();
         configManager.setup();
+        channelScheduler = new ChannelScheduler(configManager);
+
+        // 2. Expose the channel metrics
+        List<ChannelMetrics> channelMetricsList = new ArrayList<ChannelMetrics>();
+        for (ChannelManager channelManager : configManager.getChannelManagers()) {
+            channelMetricsList.add(channelManager.getMetrics());
+        }
+        metricsExporter = new MetricsExporter(configManager.getMetricsDefinition(), channelMetricsList);
+        metricsExporter.start();
     }
 
     public void run() {
         try {
-            // 2. Process/execute each channel
-            for (ChannelManager channelManager : configManager.getChannelManagers()) {
-                channelManager.execute();
-            }
+            // 3. Process/execute each channel
+            channelScheduler.executeAll(configManager.getChannelManagers());
         } catch (Exception e) {
             logger.error("App level error", e);
             throw new RuntimeException(e);
-        } finally {
-            // 3. Cleanup
-            ESClientManager.closeAll();
         }
+        // ES clients are kept for the next run, they are closed at exit
     }
 }
@@ -0,0 +1,60 @@
+package org.takemoa.sql2es.cdc;
+
+import java.util.Map;
+
+/**
+ * One changed table row, as read from a change data capture source.
+ *
+ * @author Take Moa
+ */
+public class ChangeEvent {
+
+    private final String tableName;
+    private final ChangeOperation operation;
+    // Column values after the change (before it for deletes); may hold the key columns only
+    private final Map<String, Object> values;
+    // Column values before an update, if known
+    private final Map<String, Object> oldValues;
+    // Position of the source right after this event
+    private final Object position;
+
+    public ChangeEvent(String tableName, ChangeOperation operation, Map<String, Object> values,
+                       Map<String, Object> oldValues, Object position) {
+        this.tableName = tableName;
+        this.operation = operation;
+        this.values = values;
+        this.oldValues = oldValues;
+        this.position = position;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public ChangeOperation getOperation() {
+        return operation;
+    }
+
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    public Map<String, Object> getOldValues() {
+        return oldValues;
+    }
+
+    public Object getPosition() {
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "tableName='" + tableName + '\'' +
+                ", operation=" + operation +
+                ", values=" + values +
+                ", oldValues=" + oldValues +
+                ", position=" + position +
+                '}';
+    }
+}
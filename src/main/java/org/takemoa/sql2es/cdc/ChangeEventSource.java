@@ -0,0 +1,27 @@
+package org.takemoa.sql2es.cdc;
+
+import java.util.List;
+
+/**
+ * A stream of table row changes (change data capture). Positions are opaque values, persisted with the
+ * channel checkpoints; they must survive a JSon round trip.
+ *
+ * @author Take Moa
+ */
+public interface ChangeEventSource {
+
+    /**
+     * @return the current end of the stream, e.g. to start from once a full load is done
+     */
+    Object getCurrentPosition();
+
+    /**
+     * Read the next changes.
+     *
+     * @param fromPosition position after the last processed change
+     * @param maxEvents    max number of changes to return; a source may return more to keep the changes of one
+     *                     transaction together
+     * @return the changes in stream order, empty if none
+     */
+    List<ChangeEvent> read(Object fromPosition, int maxEvents);
+}
@@ -0,0 +1,10 @@
+package org.takemoa.sql2es.cdc;
+
+/**
+ * Kind of change of a table row
+ */
+public enum ChangeOperation {
+    INSERT,
+    UPDATE,
+    DELETE
+}
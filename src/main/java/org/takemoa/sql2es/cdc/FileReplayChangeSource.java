@@ -0,0 +1,174 @@
+package org.takemoa.sql2es.cdc;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays row changes from a file of JSon lines, in the format produced by binlog readers such as Maxwell:
+ * <pre>
+ * {"database":"employees","table":"salaries","type":"update","data":{"emp_no":10001,...},"old":{...}}
+ * </pre>
+ * The position is the number of lines read. The file can be appended to between reads, e.g. by a binlog reader
+ * writing MySQL changes; it is also handy for local tests. Only complete (newline terminated) lines are read.
+ * The byte offset of the last position read is kept, so that the next read seeks to it instead of reading the
+ * file again from its start.
+ *
+ * @author Take Moa
+ */
+public class FileReplayChangeSource implements ChangeEventSource {
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private final Path file;
+
+    // Last known position (line count) and the byte offset of the line following it
+    private long knownPosition = 0;
+    private long knownOffset = 0;
+
+    public FileReplayChangeSource(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public Object getCurrentPosition() {
+        if (!Files.exists(file)) {
+            return 0L;
+        }
+        LineReader reader = openAt(Long.MAX_VALUE);
+        try {
+            while (reader.next() != null) {
+                remember(reader);
+            }
+        } finally {
+            reader.close();
+        }
+        return reader.lineNumber;
+    }
+
+    @Override
+    public List<ChangeEvent> read(Object fromPosition, int maxEvents) {
+        List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+        if (!Files.exists(file)) {
+            return events;
+        }
+        long skipCount = ((Number) fromPosition).longValue();
+        LineReader reader = openAt(skipCount);
+        try {
+            String line;
+            while (events.size() < maxEvents && (line = reader.next()) != null) {
+                if (reader.lineNumber < skipCount) {
+                    continue;
+                }
+                if (reader.lineNumber == skipCount) {
+                    remember(reader);
+                    continue;
+                }
+                if (!line.trim().isEmpty()) {
+                    events.add(parseEvent(line, reader.lineNumber));
+                    remember(reader);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read change file " + file + " at line " + reader.lineNumber, e);
+        } finally {
+            reader.close();
+        }
+        return events;
+    }
+
+    /**
+     * A reader at the known position if it is not after the given one, else at the start of the file
+     */
+    private synchronized LineReader openAt(long position) {
+        boolean fromKnown = knownPosition <= position;
+        return new LineReader(fromKnown ? knownOffset : 0, fromKnown ? knownPosition : 0);
+    }
+
+    private synchronized void remember(LineReader reader) {
+        knownPosition = reader.lineNumber;
+        knownOffset = reader.offset;
+    }
+
+    /**
+     * Reads the complete lines of the file from a byte offset, tracking the line number and offset
+     */
+    private class LineReader {
+        private final InputStream in;
+        private final ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+        // Line number of the last line read and byte offset of the next one
+        private long lineNumber;
+        private long offset;
+
+        LineReader(long offset, long lineNumber) {
+            this.offset = offset;
+            this.lineNumber = lineNumber;
+            try {
+                SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ);
+                channel.position(offset);
+                in = new BufferedInputStream(Channels.newInputStream(channel));
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot read change file " + file, e);
+            }
+        }
+
+        /**
+         * @return the next complete line, null at the end of the file or before an incomplete last line
+         */
+        String next() {
+            lineBytes.reset();
+            try {
+                int b;
+                while ((b = in.read()) >= 0) {
+                    if (b == '\n') {
+                        offset += lineBytes.size() + 1;
+                        ++lineNumber;
+                        return new String(lineBytes.toByteArray(), StandardCharsets.UTF_8);
+                    }
+                    lineBytes.write(b);
+                }
+                return null;
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot read change file " + file + " after line " + lineNumber, e);
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore, read only
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeEvent parseEvent(String line, long lineNumber) throws IOException {
+        Map<String, Object> entry = mapper.readValue(line, new TypeReference<Map<String, Object>>() {
+        });
+        String type = String.valueOf(entry.get("type"));
+        ChangeOperation operation;
+        if ("insert".equalsIgnoreCase(type)) {
+            operation = ChangeOperation.INSERT;
+        } else if ("delete".equalsIgnoreCase(type)) {
+            operation = ChangeOperation.DELETE;
+        } else {
+            operation = ChangeOperation.UPDATE;
+        }
+        return new ChangeEvent((String) entry.get("table"), operation, (Map<String, Object>) entry.get("data"),
+                (Map<String, Object>) entry.get("old"), lineNumber);
+    }
+}
@@ -0,0 +1,148 @@
+package org.takemoa.sql2es.cdc;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the row changes of a set of tables from SQL Server Change Tracking. Change tracking must be enabled on
+ * the database and the tables; it only records the primary key columns of the changed rows.
+ *
+ * <p>Each read returns the changes of a range of versions starting at the position, at most maxEvents per table:
+ * the range ends at the last version whose changes are all read, in every table, so the position only moves
+ * over fully read versions. The changes of one single version (one transaction) are never split, they may
+ * exceed maxEvents.</p>
+ *
+ * @author Take Moa
+ */
+public class SqlServerChangeTrackingSource implements ChangeEventSource {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String P_FROM_VERSION = "from_version";
+    private static final String P_TO_VERSION = "to_version";
+    private static final String P_TABLE_NAME = "table_name";
+    private static final String P_LIMIT = "limit";
+    private static final String SYS_CHANGE_VERSION = "SYS_CHANGE_VERSION";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Collection<String> tableNames;
+
+    public SqlServerChangeTrackingSource(NamedParameterJdbcTemplate jdbcTemplate, Collection<String> tableNames) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tableNames = tableNames;
+    }
+
+    @Override
+    public Object getCurrentPosition() {
+        return jdbcTemplate.queryForObject("SELECT CHANGE_TRACKING_CURRENT_VERSION()",
+                Collections.<String, Object>emptyMap(), Long.class);
+    }
+
+    @Override
+    public List<ChangeEvent> read(Object fromPosition, int maxEvents) {
+        long fromVersion = ((Number) fromPosition).longValue();
+        long toVersion = (Long) getCurrentPosition();
+        List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+        if (toVersion <= fromVersion) {
+            return events;
+        }
+        int limit = Math.max(1, maxEvents);
+
+        Map<String, Object> paramsMap = new HashMap<String, Object>();
+        paramsMap.put(P_FROM_VERSION, fromVersion);
+        paramsMap.put(P_TO_VERSION, toVersion);
+        paramsMap.put(P_LIMIT, limit + 1);
+        // First changes of each table, one more than the limit to know if there are more
+        Map<String, List<Map<String, Object>>> tablesRows = new LinkedHashMap<String, List<Map<String, Object>>>();
+        long completeVersion = toVersion;
+        for (String tableName : tableNames) {
+            // The changes older than the retention period are lost: a full reload is required
+            paramsMap.put(P_TABLE_NAME, tableName);
+            Long minValidVersion = jdbcTemplate.queryForObject(
+                    "SELECT CHANGE_TRACKING_MIN_VALID_VERSION(OBJECT_ID(:" + P_TABLE_NAME + "))", paramsMap,
+                    Long.class);
+            if (minValidVersion == null) {
+                throw new IllegalStateException("Change tracking is not enabled on table " + tableName);
+            }
+            if (minValidVersion > fromVersion) {
+                throw new IllegalStateException("Changes of table " + tableName + " since version " + fromVersion
+                        + " are no longer tracked (min valid version " + minValidVersion + ")");
+            }
+
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "SELECT TOP (:" + P_LIMIT + ") CT.* FROM CHANGETABLE(CHANGES " + tableName + ", :"
+                            + P_FROM_VERSION + ") AS CT WHERE CT." + SYS_CHANGE_VERSION + " <= :" + P_TO_VERSION
+                            + " ORDER BY CT." + SYS_CHANGE_VERSION, paramsMap);
+            tablesRows.put(tableName, rows);
+            completeVersion = Math.min(completeVersion, getCompleteVersion(getVersions(rows), limit, toVersion));
+        }
+
+        paramsMap.put(P_TO_VERSION, completeVersion);
+        for (Map.Entry<String, List<Map<String, Object>>> entry : tablesRows.entrySet()) {
+            String tableName = entry.getKey();
+            List<Map<String, Object>> rows = entry.getValue();
+            if (rows.size() > limit && getVersion(rows.get(rows.size() - 1)) <= completeVersion) {
+                // One version with more changes than the limit: all of them
+                paramsMap.put(P_TABLE_NAME, tableName);
+                rows = jdbcTemplate.queryForList(
+                        "SELECT CT.* FROM CHANGETABLE(CHANGES " + tableName + ", :" + P_FROM_VERSION + ") AS CT"
+                                + " WHERE CT." + SYS_CHANGE_VERSION + " <= :" + P_TO_VERSION
+                                + " ORDER BY CT." + SYS_CHANGE_VERSION, paramsMap);
+            }
+            for (Map<String, Object> row : rows) {
+                if (getVersion(row) > completeVersion) {
+                    break;
+                }
+                events.add(new ChangeEvent(tableName, toOperation((String) row.get("SYS_CHANGE_OPERATION")), row,
+                        null, completeVersion));
+            }
+        }
+        logger.debug("Change tracking versions {} to {} (current {}): {} changes", fromVersion, completeVersion,
+                toVersion, events.size());
+        return events;
+    }
+
+    /**
+     * @param versions change versions of the first changes of a table, in ascending order, at most limit + 1
+     * @return the last version whose changes are all in the list: the version before the last one listed if the
+     * list was cut by the limit, the last one listed if it is the only version of the list
+     */
+    static long getCompleteVersion(List<Long> versions, int limit, long toVersion) {
+        if (versions.size() <= limit) {
+            return toVersion;
+        }
+        long lastVersion = versions.get(versions.size() - 1);
+        return versions.get(0) == lastVersion ? lastVersion : lastVersion - 1;
+    }
+
+    private static List<Long> getVersions(List<Map<String, Object>> rows) {
+        List<Long> versions = new ArrayList<Long>(rows.size());
+        for (Map<String, Object> row : rows) {
+            versions.add(getVersion(row));
+        }
+        return versions;
+    }
+
+    private static long getVersion(Map<String, Object> row) {
+        return ((Number) row.get(SYS_CHANGE_VERSION)).longValue();
+    }
+
+    private static ChangeOperation toOperation(String changeOperation) {
+        if ("I".equals(changeOperation)) {
+            return ChangeOperation.INSERT;
+        }
+        if ("D".equals(changeOperation)) {
+            return ChangeOperation.DELETE;
+        }
+        return ChangeOperation.UPDATE;
+    }
+}
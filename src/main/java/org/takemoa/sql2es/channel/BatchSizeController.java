@@ -0,0 +1,165 @@
+package org.takemoa.sql2es.channel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.takemoa.sql2es.definition.AdaptiveBatchingDefinition;
+import org.takemoa.sql2es.metrics.ChannelMetrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Adjusts the batch size (rows per SQL page or streamed batch) and the bulk request size of a channel after
+ * each fetched batch, within the bounds of its AdaptiveBatchingDefinition:
+ * - heap above maxHeapPercent or documents rejected by ES since the last batch: both sizes are halved
+ * - otherwise the batch size moves toward targetBatchMillis and the bulk size toward targetBulkMillis, by at
+ * most x1.5 up and /2 down at a time, nothing changing within 25% of the targets
+ * The bulk latencies and rejections are read from the channel metrics. The sizes are kept over the runs.
+ *
+ * @author Take Moa
+ */
+public class BatchSizeController {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    // No change while the observed time is within this ratio of the target
+    private static final double TOLERANCE = 0.25;
+    private static final double MAX_GROWTH = 1.5;
+    private static final double MAX_SHRINK = 0.5;
+
+    private final String channelName;
+    private final AdaptiveBatchingDefinition definition;
+    private final ChannelMetrics metrics;
+    private final long minBulkSizeBytes;
+    private final long maxBulkSizeBytes;
+
+    private volatile int batchSize;
+    private volatile long bulkSizeBytes;
+
+    // Metrics values at the last adjustment
+    private long lastRejectedCount;
+    private long lastBulkCount;
+    private double lastBulkSeconds;
+
+    /**
+     * @param batchSize     starting batch size
+     * @param bulkSizeBytes starting and max bulk request size
+     */
+    public BatchSizeController(String channelName, AdaptiveBatchingDefinition definition, ChannelMetrics metrics,
+                               int batchSize, long bulkSizeBytes) {
+        this.channelName = channelName;
+        this.definition = definition;
+        this.metrics = metrics;
+        this.maxBulkSizeBytes = bulkSizeBytes;
+        this.minBulkSizeBytes = Math.min(bulkSizeBytes, Math.max(1, definition.getMinBulkSizeMb()) * 1024L * 1024L);
+        this.batchSize = clampBatchSize(batchSize);
+        this.bulkSizeBytes = maxBulkSizeBytes;
+        this.lastRejectedCount = metrics.bulkItemsRejected.getCount();
+        this.lastBulkCount = metrics.bulkSeconds.getCount();
+        this.lastBulkSeconds = metrics.bulkSeconds.getSum();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getBulkSizeBytes() {
+        return bulkSizeBytes;
+    }
+
+    /**
+     * Adjust the sizes after a batch
+     *
+     * @param rowCount   rows of the batch
+     * @param fetchNanos database and assembly time of the batch
+     */
+    public synchronized void batchFetched(int rowCount, long fetchNanos) {
+        long rejectedCount = metrics.bulkItemsRejected.getCount();
+        long rejected = rejectedCount - lastRejectedCount;
+        lastRejectedCount = rejectedCount;
+
+        long bulkCount = metrics.bulkSeconds.getCount();
+        double bulkSeconds = metrics.bulkSeconds.getSum();
+        double bulkMillis = bulkCount > lastBulkCount
+                ? (bulkSeconds - lastBulkSeconds) * 1000 / (bulkCount - lastBulkCount) : -1;
+        lastBulkCount = bulkCount;
+        lastBulkSeconds = bulkSeconds;
+
+        int heapPercent = getHeapUsedPercent();
+        if (heapPercent > definition.getMaxHeapPercent() || rejected > 0) {
+            String reason = rejected > 0 ? rejected + " documents rejected by ES" : "heap " + heapPercent + "% used";
+            setBatchSize(batchSize * MAX_SHRINK, reason);
+            setBulkSizeBytes(bulkSizeBytes * MAX_SHRINK, reason);
+            return;
+        }
+
+        double fetchMillis = fetchNanos / 1e6;
+        // A short batch (end of the data) tells nothing about a larger one
+        if (rowCount >= batchSize || fetchMillis > definition.getTargetBatchMillis()) {
+            setBatchSize(batchSize * getFactor(fetchMillis, definition.getTargetBatchMillis()),
+                    String.format("%.0f ms per batch", fetchMillis));
+        }
+        if (bulkMillis >= 0) {
+            setBulkSizeBytes(bulkSizeBytes * getFactor(bulkMillis, definition.getTargetBulkMillis()),
+                    String.format("%.0f ms per bulk request", bulkMillis));
+        }
+    }
+
+    /**
+     * @return factor moving the size toward the target time, assuming the time is proportional to the size
+     */
+    private static double getFactor(double millis, int targetMillis) {
+        if (targetMillis <= 0 || Math.abs(millis - targetMillis) <= targetMillis * TOLERANCE) {
+            return 1;
+        }
+        return millis <= 0 ? MAX_GROWTH : Math.max(MAX_SHRINK, Math.min(MAX_GROWTH, targetMillis / millis));
+    }
+
+    private void setBatchSize(double newBatchSize, String reason) {
+        int clampedBatchSize = clampBatchSize((long) newBatchSize);
+        if (clampedBatchSize != batchSize) {
+            logger.info("Channel '{}': batch size {} -> {} ({})", channelName, batchSize, clampedBatchSize, reason);
+            batchSize = clampedBatchSize;
+        }
+    }
+
+    private void setBulkSizeBytes(double newBulkSizeBytes, String reason) {
+        long clampedBulkSizeBytes = Math.max(minBulkSizeBytes, Math.min(maxBulkSizeBytes, (long) newBulkSizeBytes));
+        if (clampedBulkSizeBytes != bulkSizeBytes) {
+            logger.info("Channel '{}': bulk size {} KB -> {} KB ({})", channelName, bulkSizeBytes / 1024,
+                    clampedBulkSizeBytes / 1024, reason);
+            bulkSizeBytes = clampedBulkSizeBytes;
+        }
+    }
+
+    private int clampBatchSize(long newBatchSize) {
+        int minBatchSize = Math.max(1, definition.getMinBatchSize());
+        int maxBatchSize = Math.max(minBatchSize, definition.getMaxBatchSize());
+        return (int) Math.max(minBatchSize, Math.min(maxBatchSize, newBatchSize));
+    }
+
+    /**
+     * @return heap in use, in percent of the max: the old generation after its last collection (the live data),
+     * or the whole heap as currently used if it is not known
+     */
+    static int getHeapUsedPercent() {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // The old generation is the only heap pool with a usage threshold
+            if (memoryPool.getType() != MemoryType.HEAP || !memoryPool.isUsageThresholdSupported()) {
+                continue;
+            }
+            MemoryUsage usage = memoryPool.getCollectionUsage();
+            if (usage == null || usage.getUsed() == 0) {
+                usage = memoryPool.getUsage();
+            }
+            long max = usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+            if (max > 0) {
+                return (int) (usage.getUsed() * 100 / max);
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return (int) ((runtime.totalMemory() - runtime.freeMemory()) * 100 / runtime.maxMemory());
+    }
+}
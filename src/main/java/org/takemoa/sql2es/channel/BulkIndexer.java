@@ -0,0 +1,532 @@
+package org.takemoa.sql2es.channel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.takemoa.sql2es.metrics.ChannelMetrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends documents to ES as bulk requests limited by number of documents and size, with a max number of
+ * requests in flight. Checkpoints can be marked between documents: the listener is notified once all the
+ * documents added before a checkpoint are indexed, always in the order the checkpoints were marked.
+ *
+ * <p>Documents rejected because ES is overloaded are sent again with an exponential backoff; when the
+ * retries are exhausted the indexer fails and the following checkpoints are never notified. Documents
+ * refused for any other reason (e.g. mapping errors) go to the dead letter writer, if any, otherwise the
+ * indexer fails as well.</p>
+ *
+ * <p>Documents can be added from several threads, checkpoints from a single one. Checkpoint notifications
+ * run on the thread calling {@link #markCheckpoint(Object)}, {@link #add(ActionRequest)} or the flush
+ * methods, never on ES threads.</p>
+ *
+ * @author Take Moa
+ */
+public class BulkIndexer {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 60000;
+
+    /**
+     * Receives the checkpoints whose documents are all indexed
+     */
+    public interface Listener {
+        void onCheckpoint(Object checkpoint);
+    }
+
+    private final Client client;
+    private final String name;
+    private final int bulkActions;
+    private volatile long bulkSizeBytes;
+    private final int concurrentRequests;
+    private final Semaphore semaphore;
+    private final Listener listener;
+    // Periodic flush and delayed retries
+    private final ScheduledExecutorService scheduler;
+
+    private int maxRetries = 0;
+    private long retryBackoffMillis = 0;
+    private DeadLetterWriter deadLetterWriter = null;
+    private ChannelMetrics metrics = null;
+
+    private final Object lock = new Object();
+    // Current bulk request and its sequence number
+    private BulkRequest bulkRequest = new BulkRequest();
+    private long currentSequence = 1;
+    // All the bulk requests up to this sequence number are completed
+    private long completedSequence = 0;
+    private final TreeSet<Long> completedOutOfOrder = new TreeSet<Long>();
+    // Checkpoints waiting for their bulk requests, in marking order
+    private final LinkedList<PendingCheckpoint> pendingCheckpoints = new LinkedList<PendingCheckpoint>();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    /**
+     * @param client               the ES client
+     * @param name                 name used in logs and thread names, e.g. the channel name
+     * @param bulkActions          max documents per bulk request
+     * @param bulkSizeBytes        max estimated size of a bulk request
+     * @param flushIntervalMillis  interval to send the pending documents; 0 means no periodic flush
+     * @param concurrentRequests   max requests in flight; 0 means the caller waits for each request
+     * @param listener             receives the completed checkpoints, can be null
+     */
+    public BulkIndexer(Client client, final String name, int bulkActions, long bulkSizeBytes,
+                       long flushIntervalMillis, int concurrentRequests, Listener listener) {
+        this.client = client;
+        this.name = name;
+        this.bulkActions = Math.max(1, bulkActions);
+        this.bulkSizeBytes = bulkSizeBytes;
+        this.concurrentRequests = Math.max(0, concurrentRequests);
+        this.semaphore = new Semaphore(Math.max(1, this.concurrentRequests));
+        this.listener = listener;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-bulk-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (flushIntervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendCurrent();
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Retry the documents rejected by an overloaded ES up to maxRetries times, waiting retryBackoffMillis
+     * before the first retry and twice as long before each of the next ones.
+     */
+    public void setRetryPolicy(int maxRetries, long retryBackoffMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBackoffMillis = Math.max(0, retryBackoffMillis);
+    }
+
+    /**
+     * Receives the documents ES refuses to index; if not set, such documents make the indexer fail.
+     */
+    public void setDeadLetterWriter(DeadLetterWriter deadLetterWriter) {
+        this.deadLetterWriter = deadLetterWriter;
+    }
+
+    /**
+     * Change the max estimated size of the next bulk requests.
+     */
+    public void setBulkSizeBytes(long bulkSizeBytes) {
+        this.bulkSizeBytes = bulkSizeBytes;
+    }
+
+    /**
+     * Receives the bulk request latencies, sizes and item failures, if set.
+     */
+    public void setMetrics(ChannelMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return number of bulk requests in flight
+     */
+    public int getInFlightRequests() {
+        return Math.max(1, concurrentRequests) - semaphore.availablePermits();
+    }
+
+    /**
+     * @return number of checkpoints waiting for their documents to be indexed
+     */
+    public int getPendingCheckpointCount() {
+        synchronized (lock) {
+            return pendingCheckpoints.size();
+        }
+    }
+
+    /**
+     * @return milliseconds since the oldest pending checkpoint was marked, 0 if none
+     */
+    public long getCheckpointLagMillis() {
+        synchronized (lock) {
+            return pendingCheckpoints.isEmpty() ? 0
+                    : System.currentTimeMillis() - pendingCheckpoints.getFirst().markTimeMillis;
+        }
+    }
+
+    /**
+     * Add one document request; sends the current bulk request if it is full.
+     */
+    public void add(ActionRequest<?> request) {
+        checkFailure();
+        SequencedBulk fullBulk = null;
+        boolean full;
+        synchronized (lock) {
+            bulkRequest.add(request);
+            full = bulkRequest.numberOfActions() >= bulkActions
+                    || (bulkSizeBytes > 0 && bulkRequest.estimatedSizeInBytes() >= bulkSizeBytes);
+            if (full && concurrentRequests > 0) {
+                fullBulk = detachCurrent();
+            }
+        }
+        if (fullBulk != null) {
+            execute(fullBulk);
+        } else if (full) {
+            sendCurrent();
+        }
+        fireCheckpoints();
+    }
+
+    /**
+     * Mark a checkpoint after the documents added so far.
+     */
+    public void markCheckpoint(Object checkpoint) {
+        checkFailure();
+        synchronized (lock) {
+            long sequence = bulkRequest.numberOfActions() > 0 ? currentSequence : currentSequence - 1;
+            pendingCheckpoints.add(new PendingCheckpoint(sequence, checkpoint));
+        }
+        fireCheckpoints();
+    }
+
+    /**
+     * Send the pending documents, without waiting for the response.
+     */
+    public void flush() {
+        checkFailure();
+        sendCurrent();
+        fireCheckpoints();
+    }
+
+    /**
+     * Send the pending documents and wait for all the requests in flight, including a synchronous request
+     * sent by the periodic flush.
+     *
+     * @throws RuntimeException if any bulk request failed
+     */
+    public void flushAndWait() {
+        flush();
+        int permits = Math.max(1, concurrentRequests);
+        acquirePermits(permits);
+        semaphore.release(permits);
+        checkFailure();
+        fireCheckpoints();
+    }
+
+    /**
+     * Stop the periodic flush and the pending retries. Pending documents are not sent.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void sendCurrent() {
+        if (concurrentRequests == 0) {
+            // Synchronous: one request at a time, the permit taken before detaching keeps them in order
+            acquirePermits(1);
+            try {
+                SequencedBulk bulk = null;
+                synchronized (lock) {
+                    if (bulkRequest.numberOfActions() > 0) {
+                        bulk = detachCurrent();
+                    }
+                }
+                if (bulk != null) {
+                    executeAndWait(bulk);
+                }
+            } finally {
+                semaphore.release();
+            }
+            return;
+        }
+
+        SequencedBulk bulk = null;
+        synchronized (lock) {
+            if (bulkRequest.numberOfActions() > 0) {
+                bulk = detachCurrent();
+            }
+        }
+        if (bulk != null) {
+            execute(bulk);
+        }
+    }
+
+    private SequencedBulk detachCurrent() {
+        SequencedBulk bulk = new SequencedBulk(currentSequence++, bulkRequest);
+        bulkRequest = new BulkRequest();
+        return bulk;
+    }
+
+    /**
+     * Asynchronous execution, once a request slot is free.
+     */
+    private void execute(SequencedBulk bulk) {
+        acquirePermits(1);
+        try {
+            send(bulk, bulk.request, 0);
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            semaphore.release();
+            throw e;
+        }
+    }
+
+    private void acquirePermits(int permits) {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Bulk indexer '" + name + "' interrupted", ie);
+        }
+    }
+
+    /**
+     * Synchronous execution, including the retries; the caller holds the only permit.
+     */
+    private void executeAndWait(SequencedBulk bulk) {
+        BulkRequest request = bulk.request;
+        try {
+            for (int attempt = 0; request != null; ++attempt) {
+                if (attempt > 0) {
+                    Thread.sleep(getRetryDelay(attempt));
+                }
+                long startTime = System.currentTimeMillis();
+                try {
+                    recordRequest(request);
+                    request = processResponse(bulk, request, client.bulk(request).actionGet(), attempt, startTime);
+                } catch (RuntimeException e) {
+                    if (!isRetryable(e, attempt)) {
+                        throw e;
+                    }
+                    recordRejected(request.numberOfActions());
+                    logger.warn("Bulk indexer '{}' request {} rejected, retry {} of {}", name, bulk.sequence,
+                            attempt + 1, maxRetries);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            RuntimeException e = new RuntimeException("Bulk indexer '" + name + "' interrupted", ie);
+            failure.compareAndSet(null, e);
+            throw e;
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous execution; the permit is released once the bulk request and its retries are done.
+     */
+    private void send(final SequencedBulk bulk, final BulkRequest request, final int attempt) {
+        final long startTime = System.currentTimeMillis();
+        recordRequest(request);
+        client.bulk(request, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse bulkResponse) {
+                BulkRequest retryRequest = null;
+                try {
+                    retryRequest = processResponse(bulk, request, bulkResponse, attempt, startTime);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+                if (retryRequest == null) {
+                    semaphore.release();
+                } else {
+                    scheduleRetry(bulk, retryRequest, attempt + 1);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (isRetryable(e, attempt)) {
+                    recordRejected(request.numberOfActions());
+                    logger.warn("Bulk indexer '{}' request {} rejected, retry {} of {}", name, bulk.sequence,
+                            attempt + 1, maxRetries);
+                    scheduleRetry(bulk, request, attempt + 1);
+                } else {
+                    failure.compareAndSet(null, e);
+                    semaphore.release();
+                }
+            }
+        });
+    }
+
+    private void scheduleRetry(final SequencedBulk bulk, final BulkRequest request, final int attempt) {
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        send(bulk, request, attempt);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        semaphore.release();
+                    }
+                }
+            }, getRetryDelay(attempt), TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // Indexer closed
+            failure.compareAndSet(null, e);
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Handle the item failures of a bulk response.
+     *
+     * @return the rejected documents to be sent again, null if the bulk request is done
+     * @throws RuntimeException if documents are still rejected after the last retry or a refused document
+     *                          cannot be dead lettered
+     */
+    private BulkRequest processResponse(SequencedBulk bulk, BulkRequest request, BulkResponse bulkResponse,
+                                        int attempt, long startTime) {
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+        logger.debug("Bulk indexer '{}' request {} took {} ms to store {} documents", name, bulk.sequence,
+                elapsedMillis, request.numberOfActions());
+        if (metrics != null) {
+            metrics.bulkSeconds.record(elapsedMillis / 1000.0);
+        }
+
+        BulkRequest retryRequest = null;
+        if (bulkResponse.hasFailures()) {
+            for (BulkItemResponse item : bulkResponse.getItems()) {
+                if (!item.isFailed()) {
+                    continue;
+                }
+                ActionRequest<?> itemRequest = request.requests().get(item.getItemId());
+                if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                    if (retryRequest == null) {
+                        retryRequest = new BulkRequest();
+                    }
+                    retryRequest.add(itemRequest);
+                    recordRejected(1);
+                } else if (deadLetterWriter != null) {
+                    deadLetterWriter.write(itemRequest, item.getFailureMessage());
+                    if (metrics != null) {
+                        metrics.bulkItemsFailed.increment();
+                    }
+                } else {
+                    throw new RuntimeException("Bulk indexer '" + name + "' document " + item.getId()
+                            + " refused: " + item.getFailureMessage());
+                }
+            }
+        }
+
+        if (retryRequest != null) {
+            if (attempt >= maxRetries) {
+                throw new RuntimeException("Bulk indexer '" + name + "' request " + bulk.sequence + ": "
+                        + retryRequest.numberOfActions() + " documents still rejected after " + maxRetries
+                        + " retries");
+            }
+            logger.warn("Bulk indexer '{}' request {}: {} documents rejected, retry {} of {}", name, bulk.sequence,
+                    retryRequest.numberOfActions(), attempt + 1, maxRetries);
+            return retryRequest;
+        }
+
+        synchronized (lock) {
+            completedOutOfOrder.add(bulk.sequence);
+            while (completedOutOfOrder.remove(completedSequence + 1)) {
+                ++completedSequence;
+            }
+        }
+        return null;
+    }
+
+    private void recordRequest(BulkRequest request) {
+        if (metrics != null) {
+            metrics.bulkRequests.increment();
+            metrics.bulkBytes.record(request.estimatedSizeInBytes());
+        }
+    }
+
+    private void recordRejected(int itemCount) {
+        if (metrics != null) {
+            metrics.bulkItemsRejected.add(itemCount);
+        }
+    }
+
+    private boolean isRetryable(Throwable e, int attempt) {
+        return attempt < maxRetries && ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException;
+    }
+
+    private long getRetryDelay(int attempt) {
+        return Math.min(MAX_RETRY_BACKOFF_MILLIS, retryBackoffMillis << Math.min(attempt - 1, 20));
+    }
+
+    private void fireCheckpoints() {
+        List<Object> completedCheckpoints = null;
+        synchronized (lock) {
+            Iterator<PendingCheckpoint> it = pendingCheckpoints.iterator();
+            while (it.hasNext()) {
+                PendingCheckpoint pendingCheckpoint = it.next();
+                if (pendingCheckpoint.sequence > completedSequence) {
+                    break;
+                }
+                it.remove();
+                if (completedCheckpoints == null) {
+                    completedCheckpoints = new ArrayList<Object>();
+                }
+                completedCheckpoints.add(pendingCheckpoint.checkpoint);
+            }
+        }
+        if (completedCheckpoints != null && listener != null) {
+            for (Object checkpoint : completedCheckpoints) {
+                listener.onCheckpoint(checkpoint);
+            }
+        }
+    }
+
+    private void checkFailure() {
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw new RuntimeException("Bulk indexer '" + name + "' failed", t);
+        }
+    }
+
+    private static class SequencedBulk {
+        private final long sequence;
+        private final BulkRequest request;
+
+        SequencedBulk(long sequence, BulkRequest request) {
+            this.sequence = sequence;
+            this.request = request;
+        }
+    }
+
+    private static class PendingCheckpoint {
+        private final long sequence;
+        private final Object checkpoint;
+        private final long markTimeMillis = System.currentTimeMillis();
+
+        PendingCheckpoint(long sequence, Object checkpoint) {
+            this.sequence = sequence;
+            this.checkpoint = checkpoint;
+        }
+    }
+}
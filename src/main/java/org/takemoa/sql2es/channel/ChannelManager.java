@@ -3,14 +3,11 @@ package org.takemoa.sql2es.channel;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.get.GetRequestBuilder;
-import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.index.IndexRequestBuilder;
-import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
@@ -19,19 +16,55 @@ import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.indices.IndexMissingException;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.metrics.max.Max;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.takemoa.sql2es.cdc.ChangeEvent;
+import org.takemoa.sql2es.cdc.ChangeEventSource;
+import org.takemoa.sql2es.cdc.FileReplayChangeSource;
+import org.takemoa.sql2es.cdc.SqlServerChangeTrackingSource;
 import org.takemoa.sql2es.config.ChannelConfigData;
+import org.takemoa.sql2es.config.CheckpointStore;
+import org.takemoa.sql2es.config.ConfigException;
 import org.takemoa.sql2es.config.ConfigManager;
+import org.takemoa.sql2es.config.EsCheckpointStore;
+import org.takemoa.sql2es.config.FileCheckpointStore;
 import org.takemoa.sql2es.definition.*;
 import org.takemoa.sql2es.es.ESClientManager;
+import org.takemoa.sql2es.metrics.ChannelMetrics;
+import org.takemoa.sql2es.metrics.Gauge;
 import org.takemoa.sql2es.sql.SelectBuilder;
 import org.takemoa.sql2es.sql.SqlTemplates;
 import org.takemoa.sql2es.util.Conversions;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages a single channel data into Elastic Search
@@ -42,16 +75,51 @@ public class ChannelManager {
     // Automatic field to be added to any domain object
     public static final String FIELD_CHANNEL = "channel_";
     private static final Logger logger = LogManager.getLogger();
+    // Pipeline end marker
+    private static final DomainObjectBatch END_OF_BATCHES = new DomainObjectBatch(
+            new LinkedHashMap<String, Map<String, Object>>(), 0, false, null, null);
+    private static final long PIPELINE_POLL_MILLIS = 500;
+    // Wait before restarting a failed continuous channel, doubled after each consecutive failure
+    private static final long CONTINUOUS_MIN_RETRY_MILLIS = 1000;
+    private static final long CONTINUOUS_MAX_RETRY_MILLIS = 300000;
+    // ES documents read per scroll page while reconciling
+    private static final int RECONCILE_SCROLL_SIZE = 1000;
+    // Initial size of the JSon serialization buffer
+    private static final int DOCUMENT_BUFFER_SIZE = 8192;
     private String channelName;
     private ConfigManager configManager;
     private ChannelDefinition channelDefinition;
     private DomainDefinition domainDefinition;
+    // JSon serialization plan of the domain objects
+    private DocumentWriter documentWriter;
     // Calculated/initialized values
     private int batchSize;
     private int maxRecords;
     private String esClusterName = null;
     // For reporting only
-    private int insertedCount, updatedCount;
+    private final AtomicInteger insertedCount = new AtomicInteger();
+    private final AtomicInteger updatedCount = new AtomicInteger();
+    private final AtomicInteger deletedCount = new AtomicInteger();
+    // JSon bytes of the indexed documents
+    private final AtomicLong indexedBytes = new AtomicLong();
+    // Per stage metrics, over all runs
+    private final ChannelMetrics metrics;
+    // Adjusts the batch and bulk sizes, over all runs; null means fixed sizes
+    private BatchSizeController batchSizeController = null;
+
+    // ES client of the current run, during execute() only
+    private volatile Client esClient = null;
+    // Sends the documents to ES, during execute() only
+    private volatile BulkIndexer bulkIndexer = null;
+    // Pipeline queues, during pipelined execution only
+    private volatile BlockingQueue<DomainObjectBatch> fetchedQueue = null;
+    private volatile BlockingQueue<DomainObjectBatch> builtQueue = null;
+    // Persists the channel config data, during execute() only
+    private CheckpointStore checkpointStore = null;
+    // Update definitions whose ES max reference value was looked up during the current run
+    private final Set<String> esMaxUpdateRefLookups = new HashSet<String>();
+    // Queries of the separately loaded types, if any
+    private Map<TypeDefinition, String> separateQueries = new LinkedHashMap<TypeDefinition, String>();
 
     public ChannelManager(String channelName, ConfigManager configManager,
                           ChannelDefinition channelDefinition,
@@ -61,8 +129,11 @@ public class ChannelManager {
         this.configManager = configManager;
         this.channelDefinition = channelDefinition;
         this.domainDefinition = domainDefinition;
+        this.documentWriter = domainDefinition.compileDocumentWriter();
+        this.metrics = new ChannelMetrics(channelName);
 
         init();
+        addGauges();
     }
 
     private void init() {
@@ -71,14 +142,114 @@ public class ChannelManager {
             batchSize = configManager.getDefaultBatchSize();
         }
         maxRecords = channelDefinition.getMaxRecords();
+        AdaptiveBatchingDefinition adaptiveBatching = configManager.getAdaptiveBatchingDefinition(channelDefinition);
+        if (adaptiveBatching != null) {
+            batchSizeController = new BatchSizeController(channelName, adaptiveBatching, metrics, batchSize,
+                    channelDefinition.getBulkSizeMb() * 1024L * 1024L);
+        }
         esClusterName = channelDefinition.getEsClusterName();
         assert (StringUtils.isNotEmpty(esClusterName));
     }
 
+    /**
+     * Gauges of the current run state: bulk requests in flight, checkpoints and pipeline queues
+     */
+    private void addGauges() {
+        metrics.add(new Gauge("bulk_in_flight", "ES bulk requests in flight") {
+            @Override
+            public double getValue() {
+                BulkIndexer currentBulkIndexer = bulkIndexer;
+                return currentBulkIndexer != null ? currentBulkIndexer.getInFlightRequests() : 0;
+            }
+        });
+        metrics.add(new Gauge("checkpoints_pending", "Checkpoints waiting for their documents to be indexed") {
+            @Override
+            public double getValue() {
+                BulkIndexer currentBulkIndexer = bulkIndexer;
+                return currentBulkIndexer != null ? currentBulkIndexer.getPendingCheckpointCount() : 0;
+            }
+        });
+        metrics.add(new Gauge("checkpoint_lag_seconds", "Age of the oldest checkpoint not persisted yet") {
+            @Override
+            public double getValue() {
+                BulkIndexer currentBulkIndexer = bulkIndexer;
+                return currentBulkIndexer != null ? currentBulkIndexer.getCheckpointLagMillis() / 1000.0 : 0;
+            }
+        });
+        metrics.add(new Gauge("fetch_queue_depth", "Fetched batches waiting for serialization (pipelined)") {
+            @Override
+            public double getValue() {
+                BlockingQueue<DomainObjectBatch> queue = fetchedQueue;
+                return queue != null ? queue.size() : 0;
+            }
+        });
+        metrics.add(new Gauge("build_queue_depth", "Serialized batches waiting for indexing (pipelined)") {
+            @Override
+            public double getValue() {
+                BlockingQueue<DomainObjectBatch> queue = builtQueue;
+                return queue != null ? queue.size() : 0;
+            }
+        });
+        addPoolGauges();
+        if (batchSizeController != null) {
+            metrics.add(new Gauge("batch_size", "Rows per batch, as adjusted by the adaptive batching") {
+                @Override
+                public double getValue() {
+                    return batchSizeController.getBatchSize();
+                }
+            });
+            metrics.add(new Gauge("bulk_size_bytes", "Max bulk request size, as adjusted by the adaptive batching") {
+                @Override
+                public double getValue() {
+                    return batchSizeController.getBulkSizeBytes();
+                }
+            });
+        }
+    }
+
+    /**
+     * Gauges of the connection pool of the channel data source, shared with the other channels using it
+     */
+    private void addPoolGauges() {
+        metrics.add(new Gauge("pool_active_connections", "Connections of the data source pool in use") {
+            @Override
+            public double getValue() {
+                DatasourceDefinition dataSourceDef = getDatasourceDefinition();
+                return dataSourceDef != null ? dataSourceDef.getPoolActive() : 0;
+            }
+        });
+        metrics.add(new Gauge("pool_idle_connections", "Idle connections of the data source pool") {
+            @Override
+            public double getValue() {
+                DatasourceDefinition dataSourceDef = getDatasourceDefinition();
+                return dataSourceDef != null ? dataSourceDef.getPoolIdle() : 0;
+            }
+        });
+        metrics.add(new Gauge("pool_waiting_threads", "Threads waiting for a connection of the data source pool") {
+            @Override
+            public double getValue() {
+                DatasourceDefinition dataSourceDef = getDatasourceDefinition();
+                return dataSourceDef != null ? dataSourceDef.getPoolWaiting() : 0;
+            }
+        });
+    }
+
+    private DatasourceDefinition getDatasourceDefinition() {
+        return configManager.getDatasourceDef(channelDefinition.getDatasourceName());
+    }
+
     public String getChannelName() {
         return channelName;
     }
 
+    /**
+     * @return the ES client of the current run, or the current client of the cluster outside of a run
+     */
+    private Client getEsClient() {
+        Client runEsClient = esClient;
+        return runEsClient != null ? runEsClient : ESClientManager.get(esClusterName);
+    }
+
     public ConfigManager getConfigManager() {
         return configManager;
     }
@@ -87,14 +258,106 @@ public class ChannelManager {
         return channelDefinition;
     }
 
+    /**
+     * @return number of documents inserted by the current or last run
+     */
+    public int getInsertedCount() {
+        return insertedCount.get();
+    }
+
+    /**
+     * @return number of documents updated by the current or last run
+     */
+    public int getUpdatedCount() {
+        return updatedCount.get();
+    }
+
+    /**
+     * @return number of documents deleted by the current or last run
+     */
+    public int getDeletedCount() {
+        return deletedCount.get();
+    }
+
+    /**
+     * @return JSon bytes of the documents indexed by the current or last run
+     */
+    public long getIndexedBytes() {
+        return indexedBytes.get();
+    }
+
     public DomainDefinition getDomainDefinition() {
         return domainDefinition;
     }
 
     /**
-     * Does the actual processing, load from database, store data into ElasticSearch.
+     * @return the metrics of the channel, over all runs
+     */
+    public ChannelMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the queries of the types loaded separately from the main query, by type
+     */
+    public Map<TypeDefinition, String> getSeparateQueries() {
+        return separateQueries;
+    }
+
+    /**
+     * Does the actual processing, load from database, store data into ElasticSearch. A continuous channel
+     * returns only once interrupted: after a failure it starts again from its last checkpoint, waiting
+     * longer after each consecutive failure.
      */
     public void execute() {
+        if (!channelDefinition.isContinuous()) {
+            executeRun();
+            return;
+        }
+        long minRetryDelayMillis = Math.max(CONTINUOUS_MIN_RETRY_MILLIS, channelDefinition.getTailMaxDelayMillis());
+        long retryDelayMillis = minRetryDelayMillis;
+        while (!Thread.currentThread().isInterrupted()) {
+            long startTime = System.currentTimeMillis();
+            try {
+                executeRun();
+                return;
+            } catch (RuntimeException e) {
+                if (System.currentTimeMillis() - startTime > CONTINUOUS_MAX_RETRY_MILLIS) {
+                    // Ran fine for a while: not the same failure again
+                    retryDelayMillis = minRetryDelayMillis;
+                }
+                logger.error("Channel '" + channelName + "' continuous mode failed, restarting from the last "
+                        + "checkpoint in " + retryDelayMillis + " ms", e);
+            }
+            try {
+                Thread.sleep(retryDelayMillis);
+            } catch (InterruptedException ie) {
+                logger.info("Channel '{}' continuous mode interrupted", channelName);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            retryDelayMillis = Math.min(retryDelayMillis * 2, CONTINUOUS_MAX_RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * One run of the channel, with its own use of the ES client
+     */
+    private void executeRun() {
+        esClient = ESClientManager.acquire(esClusterName);
+        try {
+            executePasses();
+        } finally {
+            Client runEsClient = esClient;
+            esClient = null;
+            ESClientManager.release(runEsClient);
+        }
+    }
+
+    /**
+     * The passes of a run: one, or in continuous mode as many as possible until interrupted
+     */
+    private void executePasses() {
 
         // Init variables
         // JDBC DATA SOURCE
@@ -102,11 +365,14 @@ public class ChannelManager {
         // SQL TEMPLATES (per jdbc driver)
         SqlTemplates sqlTemplates = configManager.getSqlTemplates(dataSourceDef.getJdbcDriverClassName());
         // Previously persisted config data
-        ChannelConfigData configData = lookupConfigData();
-        // Reference field
-        FieldDefinition refFieldDef = domainDefinition.getRefFieldDef();
-        insertedCount = 0;
-        updatedCount = 0;
+        checkpointStore = createCheckpointStore();
+        esMaxUpdateRefLookups.clear();
+        ChannelConfigData configData = checkpointStore.load(domainDefinition);
+        insertedCount.set(0);
+        updatedCount.set(0);
+        deletedCount.set(0);
+        indexedBytes.set(0);
+        metrics.runStarted();
 
         logger.info("Process channel {}\n\t- esCluster: {}\n\t- esIndex: {}\n" +
                         "\t- esType: {}\n\t- maxRecords: {}\n\t- batchSize: {}\n" +
@@ -115,12 +381,20 @@ public class ChannelManager {
 
         // Retrieve lastReferenceValue from ES index directly
         Object lastReferenceValue = null;
+        Object lastIdValue = null;
         boolean veryFirstTime = false;
         if (configData == null) {
             configData = new ChannelConfigData(this.channelName);
             veryFirstTime = true;
         } else {
-            lastReferenceValue = getChannelMaxReferenceValue();
+            // Resume after the last checkpoint: documents stored after it may have been followed by failed ones
+            lastReferenceValue = configData.getLastRefValue();
+            if (lastReferenceValue == null) {
+                lastReferenceValue = getChannelMaxReferenceValue();
+            } else {
+                // Strictly after the last stored domain object, if known
+                lastIdValue = configData.getLastIdValue();
+            }
         }
         // TODO Compare domain and channel def???
         configData.setChannelDef(channelDefinition);
@@ -140,49 +414,755 @@ public class ChannelManager {
         // Save a reference select builder
         SelectBuilder refSelectBuilder = mainSelectBuilder.clone();
         logger.info("Channel {} reference SQL query: \n{}", channelName, refSelectBuilder.buildSelectQuery());
+        for (TypeDefinition separateTypeDef : domainDefinition.getSeparateTypeDefs()) {
+            String separateQuery = domainDefinition.buildSeparateSelect(new SelectBuilder(sqlTemplates),
+                    separateTypeDef).buildSelectQuery();
+            logger.info("Channel {} {} SQL query: \n{}", channelName, separateTypeDef.getTypeName(), separateQuery);
+            separateQueries.put(separateTypeDef, separateQuery);
+        }
 
+        // All the root IDs, for the reconciliation with the ES documents
+        String idQuery = null;
+        if (channelDefinition.getReconcileIntervalSecs() > 0) {
+            idQuery = domainDefinition.buildIdSelect(new SelectBuilder(sqlTemplates)).buildSelectQuery();
+            logger.info("Channel {} reconciliation SQL query: \n{}", channelName, idQuery);
+        }
+
+        // Sort by (refField, idField), the keyset used for paging (reference filters added by the fetcher)
         domainDefinition.addRefSort(mainSelectBuilder);
-        if (lastReferenceValue != null) {
-            domainDefinition.addRefFilter(mainSelectBuilder);
+        domainDefinition.addIdSort(mainSelectBuilder);
+
+        // Fetcher of new data to be inserted; maxRecords is a per run limit, no limit for continuous channels
+        ChannelSqlFetcher newDataSqlFetcher = new ChannelSqlFetcher(this, mainSelectBuilder,
+                createFetchJdbcTemplate(dataSourceDef), batchSize, channelDefinition.isContinuous() ? -1 : maxRecords,
+                null);
+        newDataSqlFetcher.setBatchSizeController(batchSizeController);
+        IndexingBatchHandler indexingBatchHandler = new IndexingBatchHandler(lastReferenceValue, lastIdValue,
+                veryFirstTime, configData, refSelectBuilder, jdbcTemplate);
+        bulkIndexer = createBulkIndexer(indexingBatchHandler);
+        ChangeEventSource changeEventSource = createChangeEventSource(jdbcTemplate);
+        // Continuous mode: the same fetchers, connections and client for all the passes
+        boolean continuous = channelDefinition.isContinuous();
+        long tailDelayMillis = channelDefinition.getTailMinDelayMillis();
+        ChannelSqlFetcher changesSqlFetcher = null;
+        if (changeEventSource != null) {
+            SelectBuilder changesSelectBuilder = domainDefinition.addIdSortFirst(
+                    domainDefinition.addIdInFilter(refSelectBuilder.clone()));
+            changesSqlFetcher = new ChannelSqlFetcher(this, changesSelectBuilder,
+                    createFetchJdbcTemplate(dataSourceDef), batchSize, -1, null);
         }
+        try {
+            while (true) {
+                int indexedCount = insertedCount.get() + updatedCount.get() + deletedCount.get();
+                if (changeEventSource != null && configData.getCdcPosition() != null) {
+                    // Change data capture: only the changed domain objects
+                    executeChanges(changeEventSource, configData, changesSqlFetcher);
+                } else {
+                    // Change data capture starts from the current position once loaded by polling
+                    Object cdcStartPosition = changeEventSource != null ? changeEventSource.getCurrentPosition()
+                            : null;
+
+                    // Reference ranges for a partitioned very first load, if any
+                    List<Object> refRangeBoundaries = null;
+                    if (veryFirstTime && channelDefinition.getInitialLoadPartitions() > 1) {
+                        refRangeBoundaries = getRefRangeBoundaries(sqlTemplates, jdbcTemplate);
+                    }
 
-        boolean moreNewRecords = true;
+                    if (refRangeBoundaries != null) {
+                        RefKeyset lastKeyset = executePartitionedInitialLoad(mainSelectBuilder, dataSourceDef,
+                                refRangeBoundaries);
+                        bulkIndexer.flushAndWait();
+                        lastReferenceValue = lastKeyset.refValue;
+                        if (lastReferenceValue != null) {
+                            persistCheckpoint(configData, lastKeyset, veryFirstTime);
+                        }
+                        indexingBatchHandler.setLastKeyset(lastKeyset);
+                    } else {
+                        if (channelDefinition.isPipelined()) {
+                            executePipelined(newDataSqlFetcher, indexingBatchHandler.getLastReferenceValue(),
+                                    indexingBatchHandler.getLastIdValue(), indexingBatchHandler);
+                        } else {
+                            fetchNewRecords(newDataSqlFetcher, indexingBatchHandler.getLastReferenceValue(),
+                                    indexingBatchHandler.getLastIdValue(), indexingBatchHandler);
+                        }
+                        // Wait for the last bulk requests and their checkpoint
+                        bulkIndexer.flushAndWait();
+                        lastReferenceValue = indexingBatchHandler.getLastReferenceValue();
+                    }
 
-        // Fetcher of new data to be inserted
-        ChannelSqlFetcher newDataSqlFetcher = new ChannelSqlFetcher(this, mainSelectBuilder, jdbcTemplate, batchSize,
-                maxRecords, null);
+                    // One more update here; in continuous mode only if due, new records or not
+                    if (continuous) {
+                        indexingBatchHandler.passFinished();
+                    } else {
+                        indexingBatchHandler.sweepUpdates(true);
+                    }
 
+                    if (changeEventSource != null) {
+                        bulkIndexer.flushAndWait();
+                        configData.setCdcPosition(cdcStartPosition);
+                        persistConfigData(configData, false);
+                    }
+                }
+                if (idQuery != null && isReconcileDue(configData)) {
+                    reconcileIds(idQuery, createFetchJdbcTemplate(dataSourceDef), configData);
+                }
+                veryFirstTime = false;
+
+                if (!continuous) {
+                    break;
+                }
+                // Poll again right away while documents arrive, slow down while idle
+                if (insertedCount.get() + updatedCount.get() + deletedCount.get() > indexedCount) {
+                    tailDelayMillis = channelDefinition.getTailMinDelayMillis();
+                } else {
+                    tailDelayMillis = Math.min(tailDelayMillis * 2, channelDefinition.getTailMaxDelayMillis());
+                }
+                try {
+                    Thread.sleep(tailDelayMillis);
+                } catch (InterruptedException ie) {
+                    logger.info("Channel '{}' continuous mode interrupted", channelName);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            try {
+                bulkIndexer.close();
+                bulkIndexer = null;
+            } finally {
+                // Write the coalesced checkpoints
+                checkpointStore.flush();
+                checkpointStore = null;
+                metrics.runFinished();
+            }
+        }
+
+        logger.info("Channel '{}' inserted {} records, updated {} record, deleted {} records; last ref={}",
+                channelName, insertedCount, updatedCount, deletedCount, lastReferenceValue);
+        String poolStatistics = dataSourceDef.getPoolStatistics();
+        if (poolStatistics != null) {
+            logger.debug("Data source '{}' pool: {}", channelDefinition.getDatasourceName(), poolStatistics);
+        }
+    }
+
+    private boolean isReconcileDue(ChannelConfigData configData) {
+        return configData.getLastReconcileTime() == null || System.currentTimeMillis()
+                - configData.getLastReconcileTime() >= channelDefinition.getReconcileIntervalSecs() * 1000L;
+    }
+
+    /**
+     * Delete the ES documents whose root row is gone, or soft deleted: the root IDs streamed from the database
+     * and the document IDs scrolled from ES, both sorted by ID, are merged (see IdReconciler). A failed
+     * reconciliation, e.g. IDs not sorted by the database as by ES, is logged and counted, not retried before
+     * the next interval: the indexing goes on.
+     *
+     * @param idQuery           the query of all the root IDs (see DomainDefinition.buildIdSelect)
+     * @param fetchJdbcTemplate a template streaming the query rows
+     */
+    private void reconcileIds(String idQuery, NamedParameterJdbcTemplate fetchJdbcTemplate,
+                              ChannelConfigData configData) {
+        long startTime = System.currentTimeMillis();
+        // All the indexed documents must be visible to the scroll
+        bulkIndexer.flushAndWait();
+        Client esClient = getEsClient();
+        esClient.admin().indices().prepareRefresh(channelDefinition.getEsIndex()).execute().actionGet();
+
+        final TypeDefinition rootTypeDef = domainDefinition.getRootTypeDef();
+        final IdReconciler idReconciler = new IdReconciler(esClient, channelDefinition.getEsIndex(),
+                channelDefinition.getEsType(), channelName, rootTypeDef.getIdFieldKey(), RECONCILE_SCROLL_SIZE);
+        List<String> deletedIds;
+        try {
+            fetchJdbcTemplate.query(idQuery, new HashMap<String, Object>(), new RowCallbackHandler() {
+                private RowExtractor.Column idColumn = null;
+                private RowExtractor.Column deletedColumn = null;
+
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    if (idColumn == null) {
+                        TimeZone dbTimeZone = channelDefinition.getDbTimeZone();
+                        idColumn = domainDefinition.compileColumn(rs, rootTypeDef.getTypeName(),
+                                rootTypeDef.getIdFieldKey(), dbTimeZone);
+                        if (domainDefinition.hasDeletedField()) {
+                            deletedColumn = domainDefinition.compileColumn(rs, rootTypeDef.getTypeName(),
+                                    rootTypeDef.getDeletedFieldKey(), dbTimeZone);
+                        }
+                    }
+                    // Soft deleted domain objects are not expected in ES either
+                    if (deletedColumn == null || !DomainDefinition.isDeletedValue(deletedColumn.read(rs))) {
+                        idReconciler.nextDbId(idColumn.read(rs));
+                    }
+                }
+            });
+            deletedIds = idReconciler.finish();
+        } catch (RuntimeException e) {
+            logger.error("Channel '" + channelName + "' reconciliation failed, next attempt in "
+                    + channelDefinition.getReconcileIntervalSecs() + " s", e);
+            metrics.reconcileFailures.increment();
+            configData.setLastReconcileTime(startTime);
+            persistConfigData(configData, false);
+            return;
+        } finally {
+            idReconciler.close();
+        }
+
+        for (String deletedId : deletedIds) {
+            bulkIndexer.add(new DeleteRequest(channelDefinition.getEsIndex(), channelDefinition.getEsType(),
+                    deletedId));
+        }
+        bulkIndexer.flushAndWait();
+        deletedCount.addAndGet(deletedIds.size());
+        metrics.documentsDeleted.add(deletedIds.size());
+
+        configData.setLastReconcileTime(startTime);
+        persistConfigData(configData, false);
+        logger.info("Channel '{}' reconciliation deleted {} documents in {} ms; {} domain objects not indexed yet",
+                channelName, deletedIds.size(), System.currentTimeMillis() - startTime,
+                idReconciler.getMissingCount());
+    }
+
+    /**
+     * Bulk indexer with the channel limits
+     */
+    private BulkIndexer createBulkIndexer(BulkIndexer.Listener listener) {
+        BulkIndexer channelBulkIndexer = new BulkIndexer(getEsClient(), channelName,
+                channelDefinition.getBulkActions(), channelDefinition.getBulkSizeMb() * 1024L * 1024L,
+                channelDefinition.getBulkFlushIntervalSecs() * 1000L,
+                channelDefinition.getBulkConcurrentRequests(), listener);
+        channelBulkIndexer.setRetryPolicy(channelDefinition.getBulkMaxRetries(),
+                channelDefinition.getBulkRetryBackoffMillis());
+        channelBulkIndexer.setMetrics(metrics);
+        if (batchSizeController != null) {
+            channelBulkIndexer.setBulkSizeBytes(batchSizeController.getBulkSizeBytes());
+        }
+
+        Path deadLetterFile;
+        if (StringUtils.isEmpty(channelDefinition.getDeadLetterFile())) {
+            deadLetterFile = configManager.getHomeFolder().resolve("deadletter").resolve(channelName + ".json");
+        } else {
+            deadLetterFile = Paths.get(channelDefinition.getDeadLetterFile());
+        }
+        channelBulkIndexer.setDeadLetterWriter(new DeadLetterWriter(deadLetterFile));
+        return channelBulkIndexer;
+    }
+
+    /**
+     * Checkpoint store of the channel
+     */
+    private CheckpointStore createCheckpointStore() {
+        long minWriteIntervalMillis = channelDefinition.getCheckpointIntervalSecs() * 1000L;
+        if (channelDefinition.getCheckpointStore() == CheckpointStoreEnum.FILE) {
+            Path checkpointFile;
+            if (StringUtils.isEmpty(channelDefinition.getCheckpointFile())) {
+                checkpointFile = configManager.getHomeFolder().resolve("checkpoints").resolve(channelName + ".json");
+            } else {
+                checkpointFile = Paths.get(channelDefinition.getCheckpointFile());
+            }
+            return new FileCheckpointStore(checkpointFile, minWriteIntervalMillis);
+        }
+        return new EsCheckpointStore(esClusterName, channelName, minWriteIntervalMillis);
+    }
+
+    /**
+     * Change data capture source of the channel, null if none
+     */
+    private ChangeEventSource createChangeEventSource(NamedParameterJdbcTemplate jdbcTemplate) {
+        CdcDefinition cdcDefinition = channelDefinition.getCdc();
+        if (cdcDefinition == null) {
+            return null;
+        }
+        if (cdcDefinition.getTables() == null || cdcDefinition.getTables().isEmpty()) {
+            throw new ConfigException("Channel " + channelName + ": missing cdc tables");
+        }
+        if (cdcDefinition.getSource() == CdcSourceEnum.SQLSERVER_CT) {
+            return new SqlServerChangeTrackingSource(jdbcTemplate, cdcDefinition.getTables().keySet());
+        }
+        if (cdcDefinition.getSource() == CdcSourceEnum.FILE_REPLAY && StringUtils.isNotEmpty(cdcDefinition.getFile())) {
+            return new FileReplayChangeSource(Paths.get(cdcDefinition.getFile()));
+        }
+        throw new ConfigException("Channel " + channelName + ": invalid cdc source " + cdcDefinition);
+    }
+
+    /**
+     * Index the changes read from the change data capture source, up to its current end: the domain objects of
+     * the changed rows are assembled again from the database, or deleted if their root row is gone. The source
+     * position is persisted once the changes are indexed.
+     *
+     * @param fetcher fetcher of the domain objects by root ID
+     */
+    private void executeChanges(ChangeEventSource changeEventSource, ChannelConfigData configData,
+                                ChannelSqlFetcher fetcher) {
+        CdcDefinition cdcDefinition = channelDefinition.getCdc();
+        int chunkSize = Math.max(1, cdcDefinition.getBatchSize());
+        Object position = configData.getCdcPosition();
+
+        List<ChangeEvent> events;
+        while (!(events = changeEventSource.read(position, chunkSize)).isEmpty()) {
+            // IDs of the affected domain objects, by document ID
+            LinkedHashMap<String, Object> rootIds = new LinkedHashMap<String, Object>();
+            for (ChangeEvent event : events) {
+                String rootIdColumn = cdcDefinition.getTables().get(event.getTableName());
+                if (rootIdColumn != null) {
+                    boolean found = addRootId(rootIds, event.getValues(), rootIdColumn);
+                    found |= addRootId(rootIds, event.getOldValues(), rootIdColumn);
+                    if (!found) {
+                        logger.warn("Channel '{}': {} change of table {} at position {} has no {} value, skipped",
+                                channelName, event.getOperation(), event.getTableName(), event.getPosition(),
+                                rootIdColumn);
+                        metrics.changeEventsSkipped.increment();
+                    }
+                }
+            }
+
+            List<Object> rootIdValues = new ArrayList<Object>(rootIds.values());
+            for (int from = 0; from < rootIdValues.size(); from += chunkSize) {
+                List<Object> chunkRootIds = rootIdValues.subList(from, Math.min(from + chunkSize,
+                        rootIdValues.size()));
+                fetcher.processIds(chunkRootIds);
+                for (Object rootId : chunkRootIds) {
+                    if (!fetcher.getDomainObjectMap().containsKey(rootId.toString())) {
+                        bulkIndexer.add(new DeleteRequest(channelDefinition.getEsIndex(),
+                                channelDefinition.getEsType(), rootId.toString()));
+                        deletedCount.incrementAndGet();
+                        metrics.documentsDeleted.increment();
+                    }
+                }
+                if (!fetcher.getDomainObjectMap().isEmpty()) {
+                    DomainObjectBatch batch = fetcher.prepareBatch(true);
+                    buildIndexRequests(batch);
+                    indexBatch(batch);
+                }
+            }
+
+            position = events.get(events.size() - 1).getPosition();
+            bulkIndexer.flushAndWait();
+            configData.setCdcPosition(position);
+            configData.setLastExecutionDate(new Date());
+            persistConfigData(configData, false);
+            logger.debug("Channel '{}': {} changes of {} domain objects indexed, position {}", channelName,
+                    events.size(), rootIds.size(), position);
+        }
+    }
+
+    /**
+     * @return false if the row values have no root ID
+     */
+    private static boolean addRootId(Map<String, Object> rootIds, Map<String, Object> rowValues,
+                                     String rootIdColumn) {
+        Object rootId = rowValues != null ? rowValues.get(rootIdColumn) : null;
+        if (rootId == null) {
+            return false;
+        }
+        rootIds.put(rootId.toString(), rootId);
+        return true;
+    }
+
+    /**
+     * Fetch the new records from the database, as batches of domain objects.
+     *
+     * @param fetcher            the new records fetcher
+     * @param lastReferenceValue last stored reference value or null if none
+     * @param lastIdValue        ID of the last stored domain object or null if unknown, e.g. at start
+     * @param batchHandler       receives the fetched batches
+     */
+    private void fetchNewRecords(ChannelSqlFetcher fetcher, Object lastReferenceValue, Object lastIdValue,
+                                 DomainObjectBatchHandler batchHandler) {
+        if (channelDefinition.getFetchMode() == FetchModeEnum.STREAMING) {
+            fetcher.processAll(lastReferenceValue, lastIdValue, batchHandler);
+            return;
+        }
+
+        boolean moreNewRecords = true;
         while (moreNewRecords) {
+            // Retrieve records (as domain objects) from database
+            moreNewRecords = fetcher.processNewBatch(lastReferenceValue, lastIdValue, null);
+
+            if (!fetcher.getDomainObjectMap().isEmpty()) {
+                DomainObjectBatch batch = fetcher.prepareBatch(!moreNewRecords);
+                if (batch.isEmpty()) {
+                    // One single, possibly incomplete, domain object: bring it again with a larger batch
+                    fetcher.enlargeNextBatch();
+                    continue;
+                }
+                // The next batch starts right after the last stored domain object
+                lastReferenceValue = batch.getLastRefValue();
+                lastIdValue = batch.getLastIdValue();
+                batchHandler.handle(batch);
+            }
+        }
+    }
+
+    /**
+     * @return max partitions of the initial load that can hold their database connections at the same time:
+     * the pool max total, halved if some types are loaded separately (a streaming partition then needs a second
+     * connection); 0 means no limit
+     */
+    public int getMaxInitialLoadPartitions() {
+        DatasourceDefinition dataSourceDef = configManager.getDatasourceDef(channelDefinition.getDatasourceName());
+        PoolDefinition poolDef = dataSourceDef != null ? dataSourceDef.getPool() : null;
+        if (poolDef == null || !poolDef.isEnabled() || poolDef.getMaxTotal() <= 0) {
+            return 0;
+        }
+        int connectionsPerPartition = domainDefinition.getSeparateTypeDefs().isEmpty() ? 1 : 2;
+        return Math.max(1, poolDef.getMaxTotal() / connectionsPerPartition);
+    }
+
+    /**
+     * Split the reference values currently in the database into <code>initialLoadPartitions</code> ranges
+     *
+     * @return the ranges boundaries (see RefRangePartitioner) or null if the reference values cannot be
+     * partitioned
+     */
+    private List<Object> getRefRangeBoundaries(SqlTemplates sqlTemplates, NamedParameterJdbcTemplate jdbcTemplate) {
+        FieldDefinition refFieldDef = domainDefinition.getRefFieldDef();
+        if (refFieldDef == null || !RefRangePartitioner.canPartition(refFieldDef.getFieldType())) {
+            logger.warn("Channel '{}': initial load cannot be partitioned by reference field {}", channelName,
+                    refFieldDef);
+            return null;
+        }
+
+        String query = domainDefinition.buildRefRangeSelect(new SelectBuilder(sqlTemplates)).buildSelectQuery();
+        Map<String, Object> jdbcParamsMap = new HashMap<String, Object>();
+        jdbcParamsMap.put(SelectBuilder.P_LIMIT, 1);
+        logger.debug("Channel '{}' reference range query:\n{}", channelName, query);
+        Map<String, Object> refRange = jdbcTemplate.queryForMap(query, jdbcParamsMap);
+
+        Object minValue = refRange.get(TypeDefinition.REF_MIN);
+        Object maxValue = refRange.get(TypeDefinition.REF_MAX);
+        if (minValue == null || maxValue == null) {
+            return null; // no data
+        }
+        List<Object> boundaries = RefRangePartitioner.split(minValue, maxValue, refFieldDef.getFieldType(),
+                channelDefinition.getInitialLoadPartitions());
+        logger.info("Channel '{}' initial load partitioned by {}: {}", channelName, refFieldDef.getFieldName(),
+                boundaries);
+        return boundaries;
+    }
+
+    /**
+     * Load all data, one reference range per thread, each one with its own fetcher and database connection.
+     * The max records limit does not apply, as all ranges must be complete for the checkpoint to be valid.
+     *
+     * @return the reference and ID values of the last stored domain object (the max over all partitions)
+     */
+    private RefKeyset executePartitionedInitialLoad(SelectBuilder mainSelectBuilder, DatasourceDefinition dataSourceDef,
+                                                 List<Object> boundaries) {
+        final int partitionCount = boundaries.size() - 1;
+        // No more threads than connections, the other partitions wait for a free thread
+        int maxPartitions = getMaxInitialLoadPartitions();
+        int threadCount = maxPartitions > 0 ? Math.min(partitionCount, maxPartitions) : partitionCount;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger partitionNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, channelName + "-partition-" + partitionNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        List<Future<RefKeyset>> futures = new ArrayList<Future<RefKeyset>>(partitionCount);
+        for (int i = 0; i < partitionCount; ++i) {
+            boolean lastPartition = (i == partitionCount - 1);
+            SelectBuilder partitionSelectBuilder = domainDefinition.addRefRangeFilter(mainSelectBuilder.clone(),
+                    lastPartition);
+            final ChannelSqlFetcher partitionFetcher = new ChannelSqlFetcher(this, partitionSelectBuilder,
+                    createFetchJdbcTemplate(dataSourceDef), batchSize, -1, null);
+            partitionFetcher.setBatchSizeController(batchSizeController);
+            partitionFetcher.setParam(SelectBuilder.P_PARTITION_FROM, boundaries.get(i));
+            partitionFetcher.setParam(SelectBuilder.P_PARTITION_TO, boundaries.get(i + 1));
+
+            futures.add(executorService.submit(new Callable<RefKeyset>() {
+                @Override
+                public RefKeyset call() {
+                    final RefKeyset[] partitionLastKeyset = new RefKeyset[1];
+                    fetchNewRecords(partitionFetcher, null, null, new DomainObjectBatchHandler() {
+                        @Override
+                        public void handle(DomainObjectBatch batch) {
+                            buildIndexRequests(batch);
+                            indexBatch(batch);
+                            partitionLastKeyset[0] = new RefKeyset(batch.getLastRefValue(), batch.getLastIdValue());
+                        }
+                    });
+                    return partitionLastKeyset[0];
+                }
+            }));
+        }
+
+        // Merge the partitions checkpoints: ranges are in ascending order
+        RefKeyset lastKeyset = new RefKeyset(null, null);
+        try {
+            for (Future<RefKeyset> future : futures) {
+                RefKeyset partitionLastKeyset = future.get();
+                if (partitionLastKeyset != null) {
+                    lastKeyset = partitionLastKeyset;
+                }
+            }
+        } catch (ExecutionException ee) {
+            throw new RuntimeException("Channel '" + channelName + "' partitioned initial load failed", ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Channel '" + channelName + "' partitioned initial load interrupted", ie);
+        } finally {
+            executorService.shutdownNow();
+        }
+        return lastKeyset;
+    }
+
+    /**
+     * JDBC template for fetching new records, using the channel fetch size if any
+     */
+    private NamedParameterJdbcTemplate createFetchJdbcTemplate(DatasourceDefinition dataSourceDef) {
+        JdbcTemplate fetchJdbcTemplate = new JdbcTemplate(dataSourceDef.getDataSource());
+        if (channelDefinition.getFetchSize() > 0) {
+            fetchJdbcTemplate.setFetchSize(channelDefinition.getFetchSize());
+        }
+        return new NamedParameterJdbcTemplate(fetchJdbcTemplate);
+    }
+
+    /**
+     * Reference and ID values of the last stored domain object: the checkpoint, and the keyset to resume after
+     */
+    private static class RefKeyset {
+        private final Object refValue;
+        // null if unknown
+        private final Object idValue;
+
+        RefKeyset(Object refValue, Object idValue) {
+            this.refValue = refValue;
+            this.idValue = idValue;
+        }
+    }
+
+    /**
+     * Stores the batches into ES: first the updates, then the batch itself. The checkpoint is persisted
+     * once the batch is indexed.
+     */
+    private class IndexingBatchHandler implements DomainObjectBatchHandler, BulkIndexer.Listener {
+        private final ChannelConfigData configData;
+        private final SelectBuilder refSelectBuilder;
+        private final NamedParameterJdbcTemplate jdbcTemplate;
+        private Object lastReferenceValue;
+        // ID of the last stored domain object, null if unknown
+        private Object lastIdValue = null;
+        private boolean veryFirstTime;
+        private final UpdateSweepCadence updateSweepCadence;
+
+        IndexingBatchHandler(Object lastReferenceValue, Object lastIdValue, boolean veryFirstTime,
+                             ChannelConfigData configData, SelectBuilder refSelectBuilder,
+                             NamedParameterJdbcTemplate jdbcTemplate) {
+            this.lastReferenceValue = lastReferenceValue;
+            this.lastIdValue = lastIdValue;
+            this.veryFirstTime = veryFirstTime;
+            this.configData = configData;
+            this.refSelectBuilder = refSelectBuilder;
+            this.jdbcTemplate = jdbcTemplate;
+            this.updateSweepCadence = new UpdateSweepCadence(channelDefinition.getUpdateEveryBatches(),
+                    channelDefinition.getUpdateIntervalSecs(), System.currentTimeMillis());
+        }
+
+        @Override
+        public void handle(DomainObjectBatch batch) {
             // Execute first the updates so as to update the previous new batches
-            executeUpdate(lastReferenceValue, refSelectBuilder, jdbcTemplate);
+            updateSweepCadence.batchHandled();
+            sweepUpdates(false);
 
-            // Retrieve records (as domain objects) from database
-            moreNewRecords = newDataSqlFetcher.processNewBatch(lastReferenceValue, null);
-
-            LinkedHashMap<String, Map<String, Object>> domainObjectMap = newDataSqlFetcher
-                    .getDomainObjectMap();
-
-            if (!domainObjectMap.isEmpty()) {
-                // Store domain object into ES
-                lastReferenceValue = storeValues(domainObjectMap, newDataSqlFetcher.getBatchCount(),
-                        !moreNewRecords, false);
-                // TODO { replace with audit data
-                if (refFieldDef != null) {
-                    configData.setLastRefValue(refFieldDef.getFieldName(),
-                            lastReferenceValue);
+            // Store domain object into ES
+            if (batch.getIndexRequests() == null) {
+                buildIndexRequests(batch);
+            }
+            indexBatch(batch);
+            lastReferenceValue = batch.getLastRefValue();
+            lastIdValue = batch.getLastIdValue();
+            bulkIndexer.markCheckpoint(new RefKeyset(lastReferenceValue, lastIdValue));
+        }
+
+        /**
+         * Execute the updates, if due (see updateEveryBatches and updateIntervalSecs) or forced
+         */
+        void sweepUpdates(boolean force) {
+            if (force || updateSweepCadence.isDue(System.currentTimeMillis())) {
+                executeUpdate(lastReferenceValue, refSelectBuilder, jdbcTemplate, configData);
+                updateSweepCadence.swept(System.currentTimeMillis());
+            }
+        }
+
+        /**
+         * Execute the updates at the end of a continuous pass, if due
+         */
+        void passFinished() {
+            if (updateSweepCadence.passFinished(System.currentTimeMillis())) {
+                sweepUpdates(true);
+            }
+        }
+
+        @Override
+        public void onCheckpoint(Object checkpoint) {
+            persistCheckpoint(configData, (RefKeyset) checkpoint, veryFirstTime);
+            veryFirstTime = false;
+        }
+
+        Object getLastReferenceValue() {
+            return lastReferenceValue;
+        }
+
+        Object getLastIdValue() {
+            return lastIdValue;
+        }
+
+        /**
+         * Continue after documents stored by other means, e.g. a partitioned load
+         */
+        void setLastKeyset(RefKeyset lastKeyset) {
+            this.lastReferenceValue = lastKeyset.refValue;
+            this.lastIdValue = lastKeyset.idValue;
+        }
+    }
+
+    /**
+     * Pipelined variant of the insert loop: the SQL fetch, the bulk request build and the ES indexing run as
+     * separate stages, connected by bounded queues. A stage blocks when its output queue is full, so at most
+     * <code>pipelineQueueSize</code> batches wait between two stages.
+     */
+    private void executePipelined(final ChannelSqlFetcher newDataSqlFetcher, final Object startReferenceValue,
+                                  final Object startIdValue, DomainObjectBatchHandler indexingBatchHandler) {
+        int queueSize = Math.max(1, channelDefinition.getPipelineQueueSize());
+        final BlockingQueue<DomainObjectBatch> fetchedQueue = new ArrayBlockingQueue<DomainObjectBatch>(queueSize);
+        final BlockingQueue<DomainObjectBatch> builtQueue = new ArrayBlockingQueue<DomainObjectBatch>(queueSize);
+        // Queue depth gauges
+        this.fetchedQueue = fetchedQueue;
+        this.builtQueue = builtQueue;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        // 1. Fetch stage: SQL query and domain object assembly
+        Thread fetchThread = new Thread(new PipelineStage(fetchedQueue, failure) {
+            @Override
+            protected void runStage() {
+                fetchNewRecords(newDataSqlFetcher, startReferenceValue, startIdValue, new DomainObjectBatchHandler() {
+                    @Override
+                    public void handle(DomainObjectBatch batch) {
+                        try {
+                            fetchedQueue.put(batch);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException("Channel '" + channelName + "' fetch interrupted", ie);
+                        }
+                    }
+                });
+            }
+        }, channelName + "-fetch");
+
+        // 2. Build stage: ES bulk requests (JSon serialization)
+        Thread buildThread = new Thread(new PipelineStage(builtQueue, failure) {
+            @Override
+            protected void runStage() throws InterruptedException {
+                DomainObjectBatch batch;
+                while ((batch = takeBatch(fetchedQueue, failure)) != END_OF_BATCHES) {
+                    buildIndexRequests(batch);
+                    builtQueue.put(batch);
                 }
-                configData.setLastExecutionDate(new Date());
-                persistConfigData(configData, veryFirstTime);
-                // } replace with audit data
-                veryFirstTime = false;
             }
+        }, channelName + "-build");
+
+        fetchThread.setDaemon(true);
+        buildThread.setDaemon(true);
+        fetchThread.start();
+        buildThread.start();
+
+        // 3. Index stage (current thread): updates, ES bulk requests and checkpoints
+        try {
+            DomainObjectBatch batch;
+            while ((batch = takeBatch(builtQueue, failure)) != END_OF_BATCHES) {
+                indexingBatchHandler.handle(batch);
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            // Unblock the other stages in case of failure and wait for them
+            fetchThread.interrupt();
+            buildThread.interrupt();
+            try {
+                fetchThread.join();
+                buildThread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            this.fetchedQueue = null;
+            this.builtQueue = null;
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw new RuntimeException("Channel '" + channelName + "' pipelined execution failed", t);
+        }
+    }
+
+    /**
+     * Wait for the next batch in the queue. Returns END_OF_BATCHES if any of the pipeline stages failed.
+     */
+    private static DomainObjectBatch takeBatch(BlockingQueue<DomainObjectBatch> queue,
+                                               AtomicReference<Throwable> failure) throws InterruptedException {
+        while (failure.get() == null) {
+            DomainObjectBatch batch = queue.poll(PIPELINE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch != null) {
+                return batch;
+            }
+        }
+        return END_OF_BATCHES;
+    }
+
+    /**
+     * A pipeline stage running on its own thread. It records the first failure and always signals the end of
+     * its output to the next stage.
+     */
+    private static abstract class PipelineStage implements Runnable {
+        private final BlockingQueue<DomainObjectBatch> outQueue;
+        private final AtomicReference<Throwable> failure;
+
+        PipelineStage(BlockingQueue<DomainObjectBatch> outQueue, AtomicReference<Throwable> failure) {
+            this.outQueue = outQueue;
+            this.failure = failure;
         }
 
-        // One more update here
-        executeUpdate(lastReferenceValue, refSelectBuilder, jdbcTemplate);
+        protected abstract void runStage() throws InterruptedException;
+
+        @Override
+        public void run() {
+            try {
+                runStage();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                if (failure.get() == null) {
+                    try {
+                        outQueue.put(END_OF_BATCHES);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else {
+                    // Next stage stops anyways, do not block
+                    outQueue.offer(END_OF_BATCHES);
+                }
+            }
+        }
+    }
 
-        logger.info("Channel '{}' inserted {} records, updated {} record; last ref={}", channelName, insertedCount,
-                updatedCount, lastReferenceValue);
+    /**
+     * Save the reference and ID values of the last stored domain object into the channel config data
+     */
+    private void persistCheckpoint(ChannelConfigData configData, RefKeyset lastKeyset, boolean veryFirstTime) {
+        // TODO { replace with audit data
+        FieldDefinition refFieldDef = domainDefinition.getRefFieldDef();
+        if (refFieldDef != null) {
+            configData.setLastRefValue(refFieldDef.getFieldName(),
+                    lastKeyset.refValue);
+            configData.setLastIdValue(domainDefinition.getRootTypeDef().getIdFieldKey(), lastKeyset.idValue);
+        }
+        configData.setLastExecutionDate(new Date());
+        persistConfigData(configData, veryFirstTime);
+        // } replace with audit data
     }
 
     /**
@@ -191,34 +1171,81 @@ public class ChannelManager {
      * @param lastReferenceValue The max reference value (from data already in the ES)
      * @param refSelectBuilder   Reference select builder as constructed based on type definitions
      * @param jdbcTemplate       The channel JDBC template
+     * @param configData         The channel config data, receiving the update checkpoints
      */
-    private void executeUpdate(Object lastReferenceValue, SelectBuilder refSelectBuilder, NamedParameterJdbcTemplate jdbcTemplate) {
-        if (lastReferenceValue != null) {
+    private void executeUpdate(Object lastReferenceValue, SelectBuilder refSelectBuilder,
+                               NamedParameterJdbcTemplate jdbcTemplate, ChannelConfigData configData) {
+        if (lastReferenceValue != null && hasUpdates()) {
+            // The updated documents must not be overwritten by older bulk requests still in flight
+            bulkIndexer.flushAndWait();
             for (TypeDefinition typeDef : domainDefinition.getAllTypeDefs()) {
                 if (typeDef.hasUpdates()) {
                     for (TypeUpdateDefinition typeUpdateDef : typeDef.getUpdateTypeDefs()) {
-                        Object lastUpdateReferenceValue = getChannelMaxFieldValue(typeUpdateDef.getRefFieldDef());
+                        Object lastUpdateReferenceValue = configData.getLastUpdateRefValue(typeUpdateDef.getName());
+                        if (lastUpdateReferenceValue == null && esMaxUpdateRefLookups.add(typeUpdateDef.getName())) {
+                            // Once per run at most: from now on the update checkpoint is tracked in the config data
+                            lastUpdateReferenceValue = getChannelMaxFieldValue(typeUpdateDef.getRefFieldDef());
+                            if (lastUpdateReferenceValue != null) {
+                                configData.setLastUpdateRefValue(typeUpdateDef.getName(),
+                                        lastUpdateReferenceValue);
+                            }
+                        }
                         ChannelSqlFetcher updateSqlFetcher = createUpdateFetcher(refSelectBuilder, typeDef,
                                 typeUpdateDef,
                                 lastUpdateReferenceValue, jdbcTemplate);
                         logger.debug("Execute update {} - lastUpdateReferenceValue={}", typeUpdateDef.getName(), lastUpdateReferenceValue);
-                        // Bring updated values from database
-                        updateSqlFetcher.processNewBatch(lastReferenceValue, lastUpdateReferenceValue);
-
-                        LinkedHashMap<String, Map<String, Object>> updateDomainObjectMap = updateSqlFetcher
-                                .getDomainObjectMap();
-
-                        // Store into ES
-                        if (!updateDomainObjectMap.isEmpty()) {
-                            Object updateLastReferenceValue = storeValues(updateDomainObjectMap, updateSqlFetcher
-                                    .getBatchCount(), true, true);
+                        // Bring updated values from database and store them into ES
+                        fetchUpdatedRecords(updateSqlFetcher, lastReferenceValue, lastUpdateReferenceValue);
+
+                        // Move the update checkpoint once all the updates are indexed
+                        bulkIndexer.flushAndWait();
+                        if (updateSqlFetcher.getMaxUpdateRefValue() != null) {
+                            configData.setLastUpdateRefValue(typeUpdateDef.getName(),
+                                    updateSqlFetcher.getMaxUpdateRefValue());
+                            persistConfigData(configData, false);
                         }
                     }
                 }
             }
+        }
+
+    }
 
+    /**
+     * Fetch the updated records page by page, in ID order, and index them.
+     */
+    private void fetchUpdatedRecords(ChannelSqlFetcher fetcher, Object lastReferenceValue,
+                                     Object lastUpdateReferenceValue) {
+        Object lastIdValue = null;
+        boolean moreUpdatedRecords = true;
+        while (moreUpdatedRecords) {
+            moreUpdatedRecords = fetcher.processNewBatch(lastReferenceValue, lastIdValue, lastUpdateReferenceValue);
+
+            if (!fetcher.getDomainObjectMap().isEmpty()) {
+                DomainObjectBatch batch = fetcher.prepareBatch(!moreUpdatedRecords);
+                if (batch.isEmpty()) {
+                    // One single, possibly incomplete, domain object: bring it again with a larger batch
+                    fetcher.enlargeNextBatch();
+                    continue;
+                }
+                // The next page starts right after the last stored domain object
+                lastIdValue = batch.getLastIdValue();
+                buildIndexRequests(batch);
+                indexBatch(batch);
+            }
         }
+    }
 
+    /**
+     * @return whether any of the domain types has updates
+     */
+    private boolean hasUpdates() {
+        for (TypeDefinition typeDef : domainDefinition.getAllTypeDefs()) {
+            if (typeDef.hasUpdates()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -234,10 +1261,15 @@ public class ChannelManager {
                                                   TypeUpdateDefinition typeUpdateDef,
                                                   Object lastUpdateReferenceValue, NamedParameterJdbcTemplate
                                                           jdbcTemplate) {
-        SelectBuilder updateSelectBuilder = refSelectBuilder.clone();
+        // The update reference field may belong to a separately loaded type
+        SelectBuilder updateSelectBuilder = domainDefinition.addSeparateTypePath(refSelectBuilder.clone(),
+                typeDefinition);
         typeDefinition.addUpdateFiltersAndSort(updateSelectBuilder, domainDefinition.getRefFieldDef(), typeUpdateDef,
                 (lastUpdateReferenceValue == null));
-        return new ChannelSqlFetcher(this, updateSelectBuilder, jdbcTemplate, Integer.MAX_VALUE,
+        domainDefinition.addIdSortFirst(updateSelectBuilder);
+        int updateBatchSize = channelDefinition.getUpdateBatchSize() > 0 ? channelDefinition.getUpdateBatchSize()
+                : batchSize;
+        return new ChannelSqlFetcher(this, updateSelectBuilder, jdbcTemplate, updateBatchSize,
                 -1, typeUpdateDef);
     }
 
@@ -249,7 +1281,7 @@ public class ChannelManager {
             return; // nothing to do
         }
 
-        Client esClient = ESClientManager.get(esClusterName);
+        Client esClient = getEsClient();
         // Try to create index first - in case this is the first call
         CreateIndexRequest createIndexRequest = new CreateIndexRequest(channelDefinition.getEsIndex());
         try {
@@ -291,7 +1323,7 @@ public class ChannelManager {
             // No reference field, return null
             return null;
         }
-        Client esClient = ESClientManager.get(esClusterName);
+        Client esClient = getEsClient();
         // Create search request
         final String maxRef = "maxRef";
 
@@ -332,92 +1364,103 @@ public class ChannelManager {
     }
 
     /**
-     * Persist values into the ES cluster
+     * Prepare the fetched domain objects for storing.
      *
      * @param domainObjectMap the values to be stored
-     * @param lastBatch       whether this is the last batch
-     * @return
+     * @param lastComplete    whether the last domain object is complete, e.g. this is the last batch
+     * @return the batch to be stored
      */
-    private Object storeValues(LinkedHashMap<String, Map<String, Object>> domainObjectMap, int batchCount,
-                               boolean lastBatch, boolean isUpdate) {
+    DomainObjectBatch prepareBatch(LinkedHashMap<String, Map<String, Object>> domainObjectMap,
+                                   int batchCount, boolean lastComplete, boolean isUpdate) {
         // If not the last batch, do not insert the last domain object as it could
         // be incomplete. Instead make sure it will be part of the next batch.
-        Object lastRefValue = null;
         Map.Entry<String, Map<String, Object>> lastEntry = null;
+        Map.Entry<String, Map<String, Object>> previousEntry = null;
         Iterator<Map.Entry<String, Map<String, Object>>> it = domainObjectMap
                 .entrySet().iterator();
         while (it.hasNext()) {
+            previousEntry = lastEntry;
             lastEntry = it.next();
             // Set the unconditional 'channel' field
             lastEntry.getValue().put(FIELD_CHANNEL, channelName);
         }
-        lastRefValue = domainDefinition.getRefValue(lastEntry.getValue());
 
-        if (!lastBatch) {
+        if (!lastComplete) {
             // Remove the last value from map as the next value will be picked
             // up anyways
             domainObjectMap.remove(lastEntry.getKey());
+            lastEntry = previousEntry;
         }
 
-        long startTime = System.currentTimeMillis();
-        // Do persist into ES here
-        Client esClient = ESClientManager.get(esClusterName);
-        BulkRequestBuilder bulkRequest = esClient.prepareBulk();
-
-        // Prepare BulkRequest
-        for (Map.Entry<String, Map<String, Object>> entry : domainObjectMap
-                .entrySet()) {
-            bulkRequest.add(esClient.prepareIndex(
-                    channelDefinition.getEsIndex(),
-                    channelDefinition.getEsType(), entry.getKey()).setSource(
-                    entry.getValue()));
-        }
-
-        BulkResponse bulkResponse = bulkRequest.execute().actionGet();
-
-        logger.debug("Channel '{}' batch {} took {} ms to store {} domain objects; last ref={} last ID={} update={}",
-                channelName, batchCount, (System.currentTimeMillis() - startTime), domainObjectMap.size(),
-                lastRefValue, lastEntry.getKey(), isUpdate);
-
-        if (bulkResponse.hasFailures()) {
-            // process failures by iterating through each bulk response item
-            logger.debug("Bulk response has failures:\n{}", bulkResponse.buildFailureMessage());
+        Object lastRefValue = null;
+        Object lastIdValue = null;
+        if (lastEntry != null) {
+            lastRefValue = domainDefinition.getRefValue(lastEntry.getValue());
+            lastIdValue = domainDefinition.getIdValue(lastEntry.getValue());
         }
+        return new DomainObjectBatch(domainObjectMap, batchCount, isUpdate, lastRefValue, lastIdValue);
+    }
 
-        if (isUpdate) {
-            updatedCount += domainObjectMap.size();
-        } else {
-            insertedCount += domainObjectMap.size();
+    /**
+     * Create the ES index requests (JSon serialization) for the batch domain objects, or delete requests for
+     * the soft deleted ones.
+     */
+    private void buildIndexRequests(DomainObjectBatch batch) {
+        long startTime = System.nanoTime();
+        List<ActionRequest<?>> indexRequests = new ArrayList<ActionRequest<?>>(batch.size());
+        // One buffer for the batch documents
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(DOCUMENT_BUFFER_SIZE);
+        for (Map.Entry<String, Map<String, Object>> entry : batch.getDomainObjectMap()
+                .entrySet()) {
+            if (domainDefinition.isDeleted(entry.getValue())) {
+                indexRequests.add(new DeleteRequest(channelDefinition.getEsIndex(), channelDefinition.getEsType(),
+                        entry.getKey()));
+                continue;
+            }
+            byte[] source;
+            try {
+                source = documentWriter.write(entry.getValue(), buffer);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot serialize domain object " + entry.getKey(), e);
+            }
+            indexRequests.add(new IndexRequest(channelDefinition.getEsIndex(), channelDefinition.getEsType(),
+                    entry.getKey()).source(source));
         }
-
-        return lastRefValue;
+        batch.setIndexRequests(indexRequests);
+        metrics.serializeSeconds.recordNanos(System.nanoTime() - startTime);
     }
 
     /**
-     * @return previously persisted channel config data.
+     * Hand the (already built) batch index requests to the bulk indexer.
      */
-    private ChannelConfigData lookupConfigData() {
-        Client esClient = ESClientManager.get(esClusterName);
-        GetRequestBuilder getRequestBuilder = esClient.prepareGet(
-                ConfigManager.ES_CONFIG_INDEX, ConfigManager.ES_CONFIG_TYPE,
-                channelName);
-
-        GetResponse getResponse = null;
-
-        try {
-            getResponse = getRequestBuilder.get();
-        } catch (IndexMissingException ime) {
-            return null; // not created yet
+    private void indexBatch(DomainObjectBatch batch) {
+        int batchDeletedCount = 0;
+        long batchBytes = 0;
+        if (batchSizeController != null) {
+            bulkIndexer.setBulkSizeBytes(batchSizeController.getBulkSizeBytes());
         }
-        if (!getResponse.isExists()) {
-            return null;
+        for (ActionRequest<?> indexRequest : batch.getIndexRequests()) {
+            bulkIndexer.add(indexRequest);
+            if (indexRequest instanceof DeleteRequest) {
+                ++batchDeletedCount;
+            } else {
+                batchBytes += ((IndexRequest) indexRequest).source().length();
+            }
         }
+        indexedBytes.addAndGet(batchBytes);
 
-        // Convert ...
-        ChannelConfigData configData = ChannelConfigData.fromMap(getResponse
-                .getSource(), domainDefinition);
+        logger.debug("Channel '{}' batch {} queued {} domain objects for indexing ({} deleted); last ref={} " +
+                        "last ID={} update={}", channelName, batch.getBatchCount(), batch.size(), batchDeletedCount,
+                batch.getLastRefValue(), batch.getLastIdValue(), batch.isUpdate());
 
-        return configData;
+        deletedCount.addAndGet(batchDeletedCount);
+        metrics.documentsDeleted.add(batchDeletedCount);
+        metrics.documentsIndexed.add(batch.size() - batchDeletedCount);
+        if (batch.isUpdate()) {
+            updatedCount.addAndGet(batch.size() - batchDeletedCount);
+        } else {
+            insertedCount.addAndGet(batch.size() - batchDeletedCount);
+        }
     }
 
     private void setConfigDataMapping() {
@@ -470,15 +1513,7 @@ public class ChannelManager {
         }
 
         // Then update data
-        Client esClient = ESClientManager.get(esClusterName);
-        IndexRequestBuilder indexRequestBuilder = esClient.prepareIndex(
-                ConfigManager.ES_CONFIG_INDEX, ConfigManager.ES_CONFIG_TYPE,
-                channelName);
-
-        indexRequestBuilder.setSource(configData.toMap());
-
-        IndexResponse indexResponse = indexRequestBuilder.execute().actionGet();
-        logger.debug("Config data created (updated=false): {}", indexResponse.isCreated());
+        checkpointStore.save(configData);
     }
 
     @Override
@@ -0,0 +1,251 @@
+package org.takemoa.sql2es.channel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.takemoa.sql2es.config.ConfigManager;
+import org.takemoa.sql2es.definition.ChannelDefinition;
+import org.takemoa.sql2es.definition.DatasourceDefinition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the channels on a pool of worker threads. A channel is started only when a worker is free and
+ * neither its data source nor its ES cluster has reached the max number of active channels.
+ *
+ * <p>Continuous channels never finish: each one runs on its own thread, started once, outside of the pool,
+ * the limits and the wait for the other channels.</p>
+ *
+ * @author Take Moa
+ */
+public class ChannelScheduler {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final ConfigManager configManager;
+
+    // Active channels per data source and per ES cluster
+    private final Map<String, Integer> activeByDatasource = new HashMap<String, Integer>();
+    private final Map<String, Integer> activeByEsCluster = new HashMap<String, Integer>();
+    // Thread of each continuous channel, by channel name
+    private final Map<String, Thread> continuousThreads = new LinkedHashMap<String, Thread>();
+
+    public ChannelScheduler(ConfigManager configManager) {
+        this.configManager = configManager;
+    }
+
+    /**
+     * Execute all channels and wait for them to finish, except the continuous ones which are only started if
+     * not running yet. A failing channel does not stop the others.
+     *
+     * @param allChannelManagers channels to be executed, in priority order
+     * @throws RuntimeException if any channel failed
+     */
+    public void executeAll(List<ChannelManager> allChannelManagers) {
+        List<ChannelManager> channelManagers = new ArrayList<ChannelManager>();
+        for (ChannelManager channelManager : allChannelManagers) {
+            if (channelManager.getChannelDefinition().isContinuous()) {
+                startContinuous(channelManager);
+            } else {
+                channelManagers.add(channelManager);
+            }
+        }
+        if (channelManagers.isEmpty()) {
+            return;
+        }
+
+        int threadCount = Math.max(1, Math.min(configManager.getChannelThreads(), channelManagers.size()));
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount, new ChannelThreadFactory());
+        CompletionService<ChannelManager> completionService = new ExecutorCompletionService<ChannelManager>(
+                executorService);
+
+        LinkedList<ChannelManager> pendingChannels = new LinkedList<ChannelManager>(channelManagers);
+        List<String> failedChannels = new ArrayList<String>();
+        Exception firstFailure = null;
+        int runningCount = 0;
+
+        try {
+            while (!pendingChannels.isEmpty() || runningCount > 0) {
+                // 1. Start as many channels as allowed
+                Iterator<ChannelManager> it = pendingChannels.iterator();
+                while (runningCount < threadCount && it.hasNext()) {
+                    ChannelManager channelManager = it.next();
+                    if (tryAcquire(channelManager)) {
+                        it.remove();
+                        completionService.submit(new ChannelTask(channelManager));
+                        ++runningCount;
+                    }
+                }
+
+                // 2. Wait for one of them to finish
+                Future<ChannelManager> future = completionService.take();
+                --runningCount;
+                try {
+                    release(future.get());
+                } catch (ExecutionException ee) {
+                    if (!(ee.getCause() instanceof ChannelExecutionException)) {
+                        // Not an exception, stop everything
+                        throw new RuntimeException(ee.getCause());
+                    }
+                    ChannelExecutionException cee = (ChannelExecutionException) ee.getCause();
+                    release(cee.getChannelManager());
+                    failedChannels.add(cee.getChannelManager().getChannelName());
+                    if (firstFailure == null) {
+                        firstFailure = cee;
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for channels", ie);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        if (firstFailure != null) {
+            throw new RuntimeException("Failed channels: " + failedChannels, firstFailure.getCause());
+        }
+    }
+
+    /**
+     * Wait for the continuous channels to stop, i.e. forever unless interrupted
+     */
+    public void awaitContinuous() throws InterruptedException {
+        List<Thread> threads;
+        synchronized (continuousThreads) {
+            threads = new ArrayList<Thread>(continuousThreads.values());
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Start a continuous channel on its own thread, unless it is already running
+     */
+    private void startContinuous(final ChannelManager channelManager) {
+        synchronized (continuousThreads) {
+            Thread thread = continuousThreads.get(channelManager.getChannelName());
+            if (thread != null && thread.isAlive()) {
+                return;
+            }
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        channelManager.execute();
+                    } catch (Throwable t) {
+                        logger.error("Channel '" + channelManager.getChannelName() + "' stopped", t);
+                    }
+                }
+            }, "channel-" + channelManager.getChannelName());
+            thread.setDaemon(true);
+            continuousThreads.put(channelManager.getChannelName(), thread);
+            thread.start();
+            logger.info("Channel '{}' started in continuous mode", channelManager.getChannelName());
+        }
+    }
+
+    private boolean tryAcquire(ChannelManager channelManager) {
+        ChannelDefinition channelDefinition = channelManager.getChannelDefinition();
+        String datasourceName = channelDefinition.getDatasourceName();
+        String esClusterName = channelDefinition.getEsClusterName();
+        DatasourceDefinition datasourceDef = configManager.getDatasourceDef(datasourceName);
+
+        if (!isAvailable(activeByDatasource, datasourceName,
+                datasourceDef == null ? 0 : datasourceDef.getMaxActiveChannels())
+                || !isAvailable(activeByEsCluster, esClusterName,
+                configManager.getEsClusterMaxActiveChannels(esClusterName))) {
+            logger.debug("Channel '{}' waits for data source '{}' / ES cluster '{}'", channelManager.getChannelName(),
+                    datasourceName, esClusterName);
+            return false;
+        }
+        increment(activeByDatasource, datasourceName, 1);
+        increment(activeByEsCluster, esClusterName, 1);
+        return true;
+    }
+
+    private void release(ChannelManager channelManager) {
+        ChannelDefinition channelDefinition = channelManager.getChannelDefinition();
+        increment(activeByDatasource, channelDefinition.getDatasourceName(), -1);
+        increment(activeByEsCluster, channelDefinition.getEsClusterName(), -1);
+    }
+
+    private static boolean isAvailable(Map<String, Integer> activeMap, String key, int maxActive) {
+        if (maxActive <= 0) {
+            return true; // no limit
+        }
+        Integer active = activeMap.get(key);
+        return active == null || active < maxActive;
+    }
+
+    private static void increment(Map<String, Integer> activeMap, String key, int delta) {
+        Integer active = activeMap.get(key);
+        activeMap.put(key, (active == null ? 0 : active) + delta);
+    }
+
+    /**
+     * Execute one channel
+     */
+    private static class ChannelTask implements Callable<ChannelManager> {
+        private final ChannelManager channelManager;
+
+        ChannelTask(ChannelManager channelManager) {
+            this.channelManager = channelManager;
+        }
+
+        @Override
+        public ChannelManager call() throws ChannelExecutionException {
+            try {
+                channelManager.execute();
+            } catch (Exception e) {
+                logger.error("Channel '" + channelManager.getChannelName() + "' failed", e);
+                throw new ChannelExecutionException(channelManager, e);
+            }
+            return channelManager;
+        }
+    }
+
+    /**
+     * Keeps track of the failed channel
+     */
+    private static class ChannelExecutionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ChannelManager channelManager;
+
+        ChannelExecutionException(ChannelManager channelManager, Throwable cause) {
+            super(cause);
+            this.channelManager = channelManager;
+        }
+
+        ChannelManager getChannelManager() {
+            return channelManager;
+        }
+    }
+
+    private static class ChannelThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "channel-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
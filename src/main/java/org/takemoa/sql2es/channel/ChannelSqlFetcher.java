@@ -2,19 +2,26 @@ package org.takemoa.sql2es.channel;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowCountCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.takemoa.sql2es.definition.ChannelDefinition;
 import org.takemoa.sql2es.definition.DomainDefinition;
+import org.takemoa.sql2es.definition.RowExtractor;
+import org.takemoa.sql2es.definition.TypeDefinition;
 import org.takemoa.sql2es.definition.TypeUpdateDefinition;
+import org.takemoa.sql2es.metrics.ChannelMetrics;
 import org.takemoa.sql2es.sql.SelectBuilder;
 import org.takemoa.sql2es.util.Conversions;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * The actual SQL data fetcher.
@@ -24,23 +31,53 @@ import java.util.Map;
 public class ChannelSqlFetcher extends RowCountCallbackHandler {
 
     private static final Logger logger = LogManager.getLogger();
+    // Max root IDs in one separate query: keeps the IN list within the database limits
+    private static final int SEPARATE_QUERY_MAX_IDS = 1000;
 
     private ChannelManager channelManager = null;
+    // Select without reference filter
     private SelectBuilder selectBuilder = null;
+    // SQL text of each query shape, built on first use: the statements stay the same for the whole run, so that
+    // their parsed form (NamedParameterJdbcTemplate) and prepared statements (pool) are reused
+    private String query = null;
+    private String refQuery = null;
+    private String keysetQuery = null;
     private NamedParameterJdbcTemplate jdbcTemplate = null;
     private final int batchSize;
     private final int maxSize;
+    // Adjusts the batch size at runtime, if set
+    private BatchSizeController batchSizeController = null;
     private final TypeUpdateDefinition typeUpdateDefinition;
     Map<String, Object> jdbcParamsMap = new HashMap<String, Object>();
 
     // Batch record count
     private int batchRecordCount = 0;
+    // Limit for the next batch, if different from the batch size
+    private int nextBatchLimit = 0;
 
     // Internal value map: ID to name-value pairs (JSon object)
     private LinkedHashMap<String, Map<String, Object>> domainObjectMap = new LinkedHashMap<String, Map<String, Object>>();
 
     private int batchCount = 0;
 
+    // Row extraction plan of the current query, compiled on its first row
+    private RowExtractor rowExtractor = null;
+    // Update reference field of the current query (update fetchers only)
+    private RowExtractor.Column updateRefColumn = null;
+
+    // Max update reference value of the fetched rows (update fetchers only)
+    private Object maxUpdateRefValue = null;
+
+    // Set only while streaming (see processAll)
+    private DomainObjectBatchHandler batchHandler = null;
+
+    // Time spent assembling the rows of the current batch
+    private long assemblyNanos = 0;
+    // Time spent in the current query outside of the database: assembly and streamed batches handling
+    private long queryOverheadNanos = 0;
+    // Start of the current batch: its query or, while streaming, the end of the previous batch handling
+    private long batchStartNanos = 0;
+
     public ChannelSqlFetcher(ChannelManager channelManager, SelectBuilder selectBuilder, NamedParameterJdbcTemplate
             jdbcTemplate, int batchSize, int maxSize, TypeUpdateDefinition typeUpdateDefinition) {
         super();
@@ -50,7 +87,27 @@ public class ChannelSqlFetcher extends RowCountCallbackHandler {
         this.batchSize = batchSize;
         this.maxSize = maxSize;
         this.typeUpdateDefinition = typeUpdateDefinition;
-        jdbcParamsMap.put(SelectBuilder.P_LIMIT, batchSize);
+    }
+
+    /**
+     * Set a fixed query parameter value, used by all the queries of this fetcher
+     */
+    public void setParam(String paramName, Object value) {
+        jdbcParamsMap.put(paramName, value);
+    }
+
+    /**
+     * Take the batch size from the controller, and report each batch to it
+     */
+    public void setBatchSizeController(BatchSizeController batchSizeController) {
+        this.batchSizeController = batchSizeController;
+    }
+
+    /**
+     * @return rows per batch, as currently set by the controller if any
+     */
+    private int getBatchSize() {
+        return batchSizeController != null ? batchSizeController.getBatchSize() : batchSize;
     }
 
     public TypeUpdateDefinition getTypeUpdateDefinition() {
@@ -59,30 +116,32 @@ public class ChannelSqlFetcher extends RowCountCallbackHandler {
 
     /**
      * Bring a new batch of data from database
+     *
+     * @param lastReferenceValue       reference value of the last stored domain object or null if none
+     * @param lastIdValue              ID value of the last stored domain object or null if unknown
+     * @param lastUpdateReferenceValue last update reference value (update fetchers only)
      */
-    public boolean processNewBatch(Object lastReferenceValue, Object lastUpdateReferenceValue) {
+    public boolean processNewBatch(Object lastReferenceValue, Object lastIdValue, Object lastUpdateReferenceValue) {
         ++batchCount;
         boolean done = false;
         ChannelDefinition channelDefinition = channelManager.getChannelDefinition();
         String channelName = channelManager.getChannelName();
         DomainDefinition domainDefinition = channelManager.getDomainDefinition();
 
-        if (lastReferenceValue != null) {
-            jdbcParamsMap.put(SelectBuilder.P_REF_VALUE, lastReferenceValue);
-        }
-
         long startTime = System.currentTimeMillis();
         // a. add conditional placeholder values
-        if (lastReferenceValue != null) {
-            Object lastRefValueSql = Conversions.localToSqlValue(lastReferenceValue, domainDefinition.getRefFieldDef(), channelDefinition.getDbTimeZone());
-            logger.debug("Channel '{}': batch {}, SQL ref value: {}", channelName, batchCount, lastRefValueSql);
-            jdbcParamsMap.put(SelectBuilder.P_REF_VALUE, lastRefValueSql);
+        int batchLimit = getBatchSize();
+        if (nextBatchLimit > 0) {
+            batchLimit = nextBatchLimit;
+            nextBatchLimit = 0;
         }
+        jdbcParamsMap.put(SelectBuilder.P_LIMIT, batchLimit);
+        setRefParams(lastReferenceValue, lastIdValue);
         if (lastUpdateReferenceValue != null) {
             // This is for update
             assert (typeUpdateDefinition != null);
-            Object lastRefUpdateValueSql = Conversions.localToSqlValue(lastUpdateReferenceValue, domainDefinition
-                    .getRefFieldDef(), channelDefinition.getDbTimeZone());
+            Object lastRefUpdateValueSql = Conversions.localToSqlValue(lastUpdateReferenceValue,
+                    typeUpdateDefinition.getRefFieldDef(), channelDefinition.getDbTimeZone());
             logger.debug("Channel '{}': update {}, batch {}, SQL update ref value {}", channelName,
                     typeUpdateDefinition.getName(), batchCount, lastRefUpdateValueSql);
             jdbcParamsMap
@@ -90,25 +149,249 @@ public class ChannelSqlFetcher extends RowCountCallbackHandler {
         }
         // b. Execute the actual query
         this.reset();
-        String query = selectBuilder.buildSelectQuery();
+        String query = getQuery(lastReferenceValue, lastIdValue);
 
         logger.debug("Channel '{}' (for update={}), query:\n{} \nparams:{}", channelName,
                 (typeUpdateDefinition != null), query, jdbcParamsMap);
-        jdbcTemplate.query(query, jdbcParamsMap, this);
-        // Add reference filter to SQL in preparation for next run
-        if (lastReferenceValue == null) {
-            domainDefinition.addRefFilter(selectBuilder);
-        }
+        executeQuery(query);
         logger.debug("Channel '{}': batch {} took {} ms to bring {} records", channelName, batchCount,
                 (System.currentTimeMillis() - startTime), getBatchRecordCount());
 
         // c. Figure out whether it is done or not
-        done = (domainObjectMap.isEmpty() || batchRecordCount < batchSize || (maxSize > 0 && getRowCount() >= maxSize));
+        done = (domainObjectMap.isEmpty() || batchRecordCount < batchLimit || (maxSize > 0 && getRowCount() >= maxSize));
         return !done;
     }
 
+    /**
+     * Bring the domain objects of a list of root IDs, as one batch. The select must be filtered by root ID (see
+     * DomainDefinition.addIdInFilter).
+     */
+    public void processIds(List<Object> rootIds) {
+        ++batchCount;
+        jdbcParamsMap.put(SelectBuilder.P_LIMIT, Integer.MAX_VALUE);
+        jdbcParamsMap.put(SelectBuilder.P_ROOT_IDS, rootIds);
+
+        long startTime = System.currentTimeMillis();
+        this.reset();
+        executeQuery(getQuery(null, null));
+        logger.debug("Channel '{}': batch {} took {} ms to bring {} records of {} root IDs",
+                channelManager.getChannelName(), batchCount, (System.currentTimeMillis() - startTime),
+                getBatchRecordCount(), rootIds.size());
+    }
+
+    /**
+     * Double the limit of the next batch. To be used when the current batch holds one single (and possibly
+     * incomplete) domain object, which could not be completed otherwise.
+     */
+    public void enlargeNextBatch() {
+        int currentLimit = (Integer) jdbcParamsMap.get(SelectBuilder.P_LIMIT);
+        nextBatchLimit = currentLimit > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : currentLimit * 2;
+        logger.warn("Channel '{}': batch {} holds one single domain object, next batch limit is {}",
+                channelManager.getChannelName(), batchCount, nextBatchLimit);
+    }
+
+    /**
+     * Set the reference filter values, converted to database values
+     */
+    private void setRefParams(Object lastReferenceValue, Object lastIdValue) {
+        if (lastReferenceValue != null) {
+            DomainDefinition domainDefinition = channelManager.getDomainDefinition();
+            Object lastRefValueSql = Conversions.localToSqlValue(lastReferenceValue, domainDefinition.getRefFieldDef(),
+                    channelManager.getChannelDefinition().getDbTimeZone());
+            logger.debug("Channel '{}': batch {}, SQL ref value: {}", channelManager.getChannelName(), batchCount,
+                    lastRefValueSql);
+            jdbcParamsMap.put(SelectBuilder.P_REF_VALUE, lastRefValueSql);
+        }
+        if (lastIdValue != null) {
+            jdbcParamsMap.put(SelectBuilder.P_ID_VALUE, lastIdValue);
+        }
+    }
+
+    /**
+     * The SQL of the next query. For new records the reference filter depends on what is known about the last
+     * stored domain object:
+     * - nothing: no filter
+     * - only its reference value: refField >= :last_ref_value
+     * - both its reference and ID values: keyset filter on (refField, idField)
+     * Update fetchers keep their own reference filters and page by ID only.
+     */
+    private String getQuery(Object lastReferenceValue, Object lastIdValue) {
+        DomainDefinition domainDefinition = channelManager.getDomainDefinition();
+        if (lastIdValue == null && (lastReferenceValue == null || typeUpdateDefinition != null)) {
+            if (query == null) {
+                query = selectBuilder.buildSelectQuery();
+            }
+            return query;
+        }
+        if (lastIdValue == null) {
+            if (refQuery == null) {
+                refQuery = domainDefinition.addRefFilter(selectBuilder.clone()).buildSelectQuery();
+            }
+            return refQuery;
+        }
+        if (keysetQuery == null) {
+            SelectBuilder keysetSelectBuilder = selectBuilder.clone();
+            if (typeUpdateDefinition != null) {
+                domainDefinition.addIdKeysetFilter(keysetSelectBuilder);
+            } else {
+                domainDefinition.addRefKeysetFilter(keysetSelectBuilder);
+            }
+            keysetQuery = keysetSelectBuilder.buildSelectQuery();
+        }
+        return keysetQuery;
+    }
+
+    /**
+     * Bring all the new data with one single forward-only query. The rows are consumed as they arrive and cut
+     * into batches of (at least) <code>getBatchSize()</code> rows, each batch holding only complete domain objects.
+     * Requires the query to be sorted so that the rows of a domain object are consecutive.
+     *
+     * @param lastReferenceValue reference value of the last stored domain object or null if none
+     * @param lastIdValue        ID value of the last stored domain object or null if unknown
+     * @param batchHandler       receives the batches, on the current thread
+     */
+    public void processAll(Object lastReferenceValue, Object lastIdValue, DomainObjectBatchHandler batchHandler) {
+        String channelName = channelManager.getChannelName();
+
+        // One single query, limited only by the max size
+        jdbcParamsMap.put(SelectBuilder.P_LIMIT, maxSize > 0 ? maxSize : Integer.MAX_VALUE);
+        setRefParams(lastReferenceValue, lastIdValue);
+
+        long startTime = System.currentTimeMillis();
+        this.reset();
+        String query = getQuery(lastReferenceValue, lastIdValue);
+        logger.debug("Channel '{}' streaming query:\n{} \nparams:{}", channelName, query, jdbcParamsMap);
+
+        this.batchHandler = batchHandler;
+        try {
+            executeQuery(query);
+            // The last domain object is complete unless the query was cut by the max size
+            flushBatch(maxSize <= 0 || getRowCount() < maxSize);
+        } finally {
+            this.batchHandler = null;
+        }
+        logger.debug("Channel '{}': streaming took {} ms to bring {} records in {} batches", channelName,
+                (System.currentTimeMillis() - startTime), getRowCount(), batchCount);
+    }
+
+    /**
+     * Run a query of this fetcher, recording its database time: the time spent assembling the rows and
+     * handling the streamed batches is excluded
+     */
+    private void executeQuery(String query) {
+        rowExtractor = null;
+        queryOverheadNanos = 0;
+        long startTime = System.nanoTime();
+        batchStartNanos = startTime;
+        jdbcTemplate.query(query, jdbcParamsMap, this);
+        channelManager.getMetrics().sqlSeconds.recordNanos(System.nanoTime() - startTime - queryOverheadNanos);
+    }
+
+    /**
+     * Hand over the current domain objects to the batch handler and start a new batch
+     *
+     * @param lastComplete whether the last domain object is complete
+     */
+    private void flushBatch(boolean lastComplete) {
+        if (!domainObjectMap.isEmpty()) {
+            long startTime = System.nanoTime();
+            ++batchCount;
+            DomainObjectBatch batch = prepareBatch(lastComplete);
+            if (!batch.isEmpty()) {
+                batchHandler.handle(batch);
+            }
+            batchStartNanos = System.nanoTime();
+            queryOverheadNanos += batchStartNanos - startTime;
+        }
+        this.reset();
+    }
+
+    /**
+     * Prepare the current domain objects for storing (see ChannelManager.prepareBatch) and load their separately
+     * queried children, if any.
+     *
+     * @param lastComplete whether the last domain object is complete
+     */
+    public DomainObjectBatch prepareBatch(boolean lastComplete) {
+        ChannelMetrics metrics = channelManager.getMetrics();
+        metrics.rows.add(batchRecordCount);
+        if (!domainObjectMap.isEmpty()) {
+            metrics.rowsPerObject.record(batchRecordCount / (double) domainObjectMap.size());
+        }
+        metrics.assemblySeconds.recordNanos(assemblyNanos);
+        assemblyNanos = 0;
+        if (batchSizeController != null) {
+            batchSizeController.batchFetched(batchRecordCount, System.nanoTime() - batchStartNanos);
+        }
+
+        DomainObjectBatch batch = channelManager.prepareBatch(domainObjectMap, batchCount, lastComplete,
+                typeUpdateDefinition != null);
+        metrics.domainObjects.add(batch.size());
+        if (!batch.isEmpty() && !channelManager.getSeparateQueries().isEmpty()) {
+            loadSeparateChildren(batch.getDomainObjectMap());
+        }
+        return batch;
+    }
+
+    /**
+     * Load the children of the separately queried types and merge them into their domain objects, by chunks of
+     * at most SEPARATE_QUERY_MAX_IDS root IDs.
+     */
+    private void loadSeparateChildren(Map<String, Map<String, Object>> domainObjects) {
+        DomainDefinition domainDefinition = channelManager.getDomainDefinition();
+        long startTime = System.currentTimeMillis();
+
+        List<Object> rootIds = new ArrayList<Object>(domainObjects.size());
+        for (Map<String, Object> domainObject : domainObjects.values()) {
+            rootIds.add(domainDefinition.getIdValue(domainObject));
+        }
+        Map<String, Object> paramsMap = new HashMap<String, Object>();
+        paramsMap.put(SelectBuilder.P_LIMIT, Integer.MAX_VALUE);
+        for (Map.Entry<TypeDefinition, String> entry : channelManager.getSeparateQueries().entrySet()) {
+            SeparateChildrenHandler handler = new SeparateChildrenHandler(entry.getKey(), domainObjects);
+            for (int from = 0; from < rootIds.size(); from += SEPARATE_QUERY_MAX_IDS) {
+                paramsMap.put(SelectBuilder.P_ROOT_IDS,
+                        rootIds.subList(from, Math.min(from + SEPARATE_QUERY_MAX_IDS, rootIds.size())));
+                long queryStartTime = System.nanoTime();
+                jdbcTemplate.query(entry.getValue(), paramsMap, handler);
+                channelManager.getMetrics().sqlSeconds.recordNanos(System.nanoTime() - queryStartTime);
+            }
+        }
+        logger.debug("Channel '{}': batch {} took {} ms to load the separate children of {} domain objects",
+                channelManager.getChannelName(), batchCount, (System.currentTimeMillis() - startTime),
+                domainObjects.size());
+    }
+
+    /**
+     * Merges the rows of a separate query into their (existing) domain objects
+     */
+    private class SeparateChildrenHandler implements RowCallbackHandler {
+        private final TypeDefinition separateTypeDef;
+        private final Map<String, Map<String, Object>> domainObjects;
+        private RowExtractor separateRowExtractor = null;
+
+        SeparateChildrenHandler(TypeDefinition separateTypeDef, Map<String, Map<String, Object>> domainObjects) {
+            this.separateTypeDef = separateTypeDef;
+            this.domainObjects = domainObjects;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            if (separateRowExtractor == null) {
+                separateRowExtractor = channelManager.getDomainDefinition().compileSeparateRowExtractor(
+                        separateTypeDef, rs, channelManager.getChannelDefinition().getDbTimeZone());
+            }
+            Map<String, Object> rootValues = domainObjects.get(separateRowExtractor.readRootId(rs));
+            if (rootValues != null) {
+                separateRowExtractor.mergeRow(rs, rootValues);
+            }
+        }
+    }
+
     public void reset() {
         batchRecordCount = 0;
+        // A new map for each batch, as the previous one may still be in use (e.g. pipelined indexing)
+        domainObjectMap = new LinkedHashMap<String, Map<String, Object>>();
     }
 
     public LinkedHashMap<String, Map<String, Object>> getDomainObjectMap() {
@@ -123,25 +406,63 @@ public class ChannelSqlFetcher extends RowCountCallbackHandler {
      */
     @Override
     protected void processRow(ResultSet rs, int rowNum) throws SQLException {
+        long startTime = System.nanoTime();
 
-        if (batchRecordCount == 0) {
-            // prepare for next batch
-            domainObjectMap.clear();
+        if (rowExtractor == null) {
+            compileRowExtractor(rs);
         }
 
-        DomainDefinition domainDefinition = channelManager.getDomainDefinition();
-
-        // 1. Extract values -> each type definition has to extract each own values, as HashMap;
-        // including the ID
-        Map<String, Map<String, Object>> rowValues = domainDefinition.extractRow(rs, rowNum, channelManager.getChannelDefinition().getDbTimeZone());
-
-        // 2. Merge values into the existing map
-        String rootId = domainDefinition.getRootId(rowValues);
+        // 1. Find the domain object of this row
+        String rootId = rowExtractor.readRootId(rs);
         Map<String, Object> rootValues = domainObjectMap.get(rootId);
-        rootValues = domainDefinition.mergeValues(rootValues, rowValues);
-        domainObjectMap.put(rootId, rootValues);
+        if (batchHandler != null && batchRecordCount >= getBatchSize() && rootValues == null) {
+            // Streaming: a new domain object starts, the current ones are complete
+            long rowNanos = System.nanoTime() - startTime;
+            flushBatch(true);
+            // This row belongs to the next batch
+            startTime = System.nanoTime() - rowNanos;
+        }
 
+        // 2. Merge values into the existing domain object, or create it
+        if (rootValues == null) {
+            domainObjectMap.put(rootId, rowExtractor.mergeRow(rs, null));
+        } else {
+            rowExtractor.mergeRow(rs, rootValues);
+        }
+
+        if (updateRefColumn != null) {
+            trackUpdateRefValue(updateRefColumn.read(rs));
+        }
         ++batchRecordCount;
+
+        long rowNanos = System.nanoTime() - startTime;
+        assemblyNanos += rowNanos;
+        queryOverheadNanos += rowNanos;
+    }
+
+    private void compileRowExtractor(ResultSet rs) throws SQLException {
+        DomainDefinition domainDefinition = channelManager.getDomainDefinition();
+        TimeZone dbTimeZone = channelManager.getChannelDefinition().getDbTimeZone();
+        rowExtractor = domainDefinition.compileRowExtractor(rs, dbTimeZone);
+        if (typeUpdateDefinition != null) {
+            updateRefColumn = domainDefinition.compileColumn(rs, typeUpdateDefinition.getTypeName(),
+                    typeUpdateDefinition.getRefFieldDef().getFieldName(), dbTimeZone);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void trackUpdateRefValue(Object updateRefValue) {
+        if (updateRefValue != null && (maxUpdateRefValue == null
+                || ((Comparable<Object>) updateRefValue).compareTo(maxUpdateRefValue) > 0)) {
+            maxUpdateRefValue = updateRefValue;
+        }
+    }
+
+    /**
+     * @return max update reference value of all the rows fetched so far (update fetchers only)
+     */
+    public Object getMaxUpdateRefValue() {
+        return maxUpdateRefValue;
     }
 
     public int getBatchRecordCount() {
@@ -0,0 +1,80 @@
+package org.takemoa.sql2es.channel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.index.IndexRequest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Appends the documents ES refused to index to a local file, one JSon object per line, so they can be
+ * inspected and replayed later.
+ *
+ * @author Take Moa
+ */
+public class DeadLetterWriter {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private final Path file;
+    private int count = 0;
+
+    public DeadLetterWriter(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Append one refused document with its failure message.
+     *
+     * @throws RuntimeException if the file cannot be written, as the document would be lost
+     */
+    public synchronized void write(ActionRequest<?> request, String failureMessage) {
+        Map<String, Object> entry = new LinkedHashMap<String, Object>();
+        entry.put("timestamp", new Date().getTime());
+        entry.put("failure", failureMessage);
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            entry.put("index", indexRequest.index());
+            entry.put("type", indexRequest.type());
+            entry.put("id", indexRequest.id());
+            entry.put("source", indexRequest.source().toUtf8());
+        } else {
+            entry.put("request", String.valueOf(request));
+        }
+
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(mapper.writeValueAsString(entry));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write to dead letter file " + file, e);
+        }
+        if (count++ == 0) {
+            logger.warn("Documents refused by ES are written to {}", file);
+        }
+    }
+
+    /**
+     * @return number of documents written by this writer
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,71 @@
+package org.takemoa.sql2es.channel;
+
+import org.elasticsearch.action.ActionRequest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of domain objects on its way from the SQL fetcher to Elastic Search.
+ *
+ * @author Take Moa
+ */
+public class DomainObjectBatch {
+
+    // Domain objects: ID to name-value pairs (JSon object)
+    private final LinkedHashMap<String, Map<String, Object>> domainObjectMap;
+    private final int batchCount;
+    private final boolean update;
+    // Reference and ID values of the last domain object in this batch
+    private final Object lastRefValue;
+    private final Object lastIdValue;
+
+    // Set once the index requests (delete requests for the soft deleted domain objects) are built
+    private List<ActionRequest<?>> indexRequests = null;
+
+    public DomainObjectBatch(LinkedHashMap<String, Map<String, Object>> domainObjectMap, int batchCount,
+                             boolean update, Object lastRefValue, Object lastIdValue) {
+        this.domainObjectMap = domainObjectMap;
+        this.batchCount = batchCount;
+        this.update = update;
+        this.lastRefValue = lastRefValue;
+        this.lastIdValue = lastIdValue;
+    }
+
+    public LinkedHashMap<String, Map<String, Object>> getDomainObjectMap() {
+        return domainObjectMap;
+    }
+
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public boolean isUpdate() {
+        return update;
+    }
+
+    public Object getLastRefValue() {
+        return lastRefValue;
+    }
+
+    public Object getLastIdValue() {
+        return lastIdValue;
+    }
+
+    public List<ActionRequest<?>> getIndexRequests() {
+        return indexRequests;
+    }
+
+    public void setIndexRequests(List<ActionRequest<?>> indexRequests) {
+        this.indexRequests = indexRequests;
+    }
+
+    public boolean isEmpty() {
+        return domainObjectMap.isEmpty();
+    }
+
+    public int size() {
+        return domainObjectMap.size();
+    }
+}
@@ -0,0 +1,14 @@
+package org.takemoa.sql2es.channel;
+
+/**
+ * Receives the batches of domain objects as they are fetched from the database.
+ *
+ * @author Take Moa
+ */
+public interface DomainObjectBatchHandler {
+
+    /**
+     * @param batch batch of complete domain objects
+     */
+    void handle(DomainObjectBatch batch);
+}
@@ -0,0 +1,205 @@
+package org.takemoa.sql2es.channel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the ES documents whose domain object is gone from the database, by a merge of two sorted streams of
+ * root IDs: the database IDs are pushed one by one (e.g. from a streaming query sorted by ID) while the
+ * documents are read from an ES scroll sorted by the ID field. Neither side is loaded fully into memory.
+ *
+ * <p>Both sides must be sorted the same way. Numbers are compared by value, other IDs by their string value;
+ * a database collation not matching the string order is detected and the reconciliation fails, so the IDs
+ * found so far are only returned at the end.</p>
+ *
+ * @author Take Moa
+ */
+public class IdReconciler {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(5);
+
+    private final Client client;
+    private final int scrollSize;
+
+    // ES cursor: current page and hit
+    private String scrollId = null;
+    private SearchHit[] hits = null;
+    private int hitIndex = 0;
+    private Object lastEsId = null;
+
+    private Object lastDbId = null;
+    private final List<String> deletedIds = new ArrayList<String>();
+    private int missingCount = 0;
+
+    /**
+     * Start the ES scroll of the documents of a channel, sorted by ID field. Only the documents of the channel
+     * are read: other channels may share the same index and type.
+     *
+     * @param channelName the channel of the documents (ChannelManager.FIELD_CHANNEL)
+     * @param idFieldName the ID field of the documents
+     */
+    public IdReconciler(Client client, String esIndex, String esType, String channelName, String idFieldName,
+                        int scrollSize) {
+        this.client = client;
+        this.scrollSize = scrollSize;
+
+        SearchResponse response = client.prepareSearch(esIndex).setTypes(esType)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                        FilterBuilders.termFilter(ChannelManager.FIELD_CHANNEL, channelName)))
+                .addSort(idFieldName, SortOrder.ASC)
+                .setFetchSource(false)
+                .setSize(scrollSize)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .execute().actionGet();
+        setPage(response);
+    }
+
+    /**
+     * Reconcile with the given documents, sorted by ID field, instead of an ES scroll
+     */
+    IdReconciler(SearchHit[] hits) {
+        this.client = null;
+        this.scrollSize = Integer.MAX_VALUE;
+        this.hits = hits.length > 0 ? hits : null;
+    }
+
+    /**
+     * Next database ID, in ascending order
+     */
+    public void nextDbId(Object dbId) {
+        if (lastDbId != null && compareIds(lastDbId, dbId) >= 0) {
+            throw new IllegalStateException("Database IDs not sorted as ES IDs: " + lastDbId + " before " + dbId);
+        }
+        lastDbId = dbId;
+
+        // Documents before the database ID are gone from the database
+        SearchHit hit;
+        int comparison = -1;
+        while ((hit = currentHit()) != null && (comparison = compareIds(esId(hit), dbId)) < 0) {
+            deletedIds.add(hit.getId());
+            nextHit();
+        }
+        if (hit != null && comparison == 0) {
+            nextHit();
+        } else {
+            ++missingCount;
+        }
+    }
+
+    /**
+     * Complete the reconciliation once all the database IDs are pushed
+     *
+     * @return the IDs of the documents to be deleted
+     */
+    public List<String> finish() {
+        SearchHit hit;
+        while ((hit = currentHit()) != null) {
+            // Documents without ID field are left as is
+            if (esId(hit) != null) {
+                deletedIds.add(hit.getId());
+            }
+            nextHit();
+        }
+        return deletedIds;
+    }
+
+    /**
+     * @return number of database IDs without a document
+     */
+    public int getMissingCount() {
+        return missingCount;
+    }
+
+    /**
+     * Release the ES scroll, if still open
+     */
+    public void close() {
+        if (scrollId != null) {
+            try {
+                client.prepareClearScroll().addScrollId(scrollId).execute().actionGet();
+            } catch (RuntimeException e) {
+                logger.warn("Cannot clear scroll: {}", e.getMessage());
+            }
+            scrollId = null;
+        }
+    }
+
+    private SearchHit currentHit() {
+        if (hits == null) {
+            return null;
+        }
+        if (hitIndex >= hits.length) {
+            // Next page, if the current one was full
+            if (hits.length < scrollSize || scrollId == null) {
+                hits = null;
+                return null;
+            }
+            setPage(client.prepareSearchScroll(scrollId).setScroll(SCROLL_KEEP_ALIVE).execute().actionGet());
+            if (hits == null) {
+                return null;
+            }
+        }
+        return hits[hitIndex];
+    }
+
+    private void nextHit() {
+        Object esId = esId(hits[hitIndex]);
+        if (lastEsId != null && esId != null && compareIds(lastEsId, esId) >= 0) {
+            throw new IllegalStateException("ES IDs not sorted: " + lastEsId + " before " + esId);
+        }
+        lastEsId = esId;
+        ++hitIndex;
+    }
+
+    private void setPage(SearchResponse response) {
+        scrollId = response.getScrollId();
+        hits = response.getHits().getHits();
+        hitIndex = 0;
+        if (hits.length == 0) {
+            hits = null;
+            close();
+        }
+    }
+
+    /**
+     * @return the ID field value (sort value) of a document, null if it has none
+     */
+    private static Object esId(SearchHit hit) {
+        Object[] sortValues = hit.getSortValues();
+        return sortValues == null || sortValues.length == 0 ? null : sortValues[0];
+    }
+
+    /**
+     * Compare two IDs, a null ID (document without ID field) coming after all the others, as sorted by ES
+     */
+    static int compareIds(Object id1, Object id2) {
+        if (id1 == null || id2 == null) {
+            return id1 == null ? (id2 == null ? 0 : 1) : -1;
+        }
+        if (id1 instanceof Number && id2 instanceof Number) {
+            if (isIntegral((Number) id1) && isIntegral((Number) id2)) {
+                long value1 = ((Number) id1).longValue();
+                long value2 = ((Number) id2).longValue();
+                return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+            }
+            return Double.compare(((Number) id1).doubleValue(), ((Number) id2).doubleValue());
+        }
+        return id1.toString().compareTo(id2.toString());
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short;
+    }
+}
@@ -0,0 +1,104 @@
+package org.takemoa.sql2es.channel;
+
+import org.takemoa.sql2es.definition.FieldType;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Splits a range of reference values into contiguous partitions.
+ *
+ * @author Take Moa
+ */
+public class RefRangePartitioner {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Check whether values of the input type can be partitioned.
+     */
+    public static boolean canPartition(FieldType fieldType) {
+        return fieldType != null && fieldType != FieldType.STRING && fieldType != FieldType.BOOLEAN;
+    }
+
+    /**
+     * Split [minValue, maxValue] into at most partitionCount ranges of about the same width.
+     *
+     * @param minValue       min value as returned by the database
+     * @param maxValue       max value as returned by the database
+     * @param fieldType      the reference field type
+     * @param partitionCount requested number of partitions
+     * @return the range boundaries, all of one type (Long, Double, java.sql.Date or Timestamp): partition i is
+     * [boundaries[i], boundaries[i + 1]), except for the last one which includes its upper limit (maxValue)
+     */
+    public static List<Object> split(Object minValue, Object maxValue, FieldType fieldType, int partitionCount) {
+        List<Object> boundaries = new ArrayList<Object>(partitionCount + 1);
+
+        switch (fieldType) {
+            case SHORT:
+            case INTEGER:
+            case LONG: {
+                long min = ((Number) minValue).longValue();
+                long max = ((Number) maxValue).longValue();
+                minValue = min;
+                maxValue = max;
+                boundaries.add(minValue);
+                // Double avoids overflows on very wide ranges
+                long step = Math.max(1, (long) Math.ceil(((double) max - min + 1) / partitionCount));
+                for (long value = min + step; value < max && value > min && boundaries.size() < partitionCount;
+                     value += step) {
+                    boundaries.add(value);
+                }
+                break;
+            }
+            case FLOAT:
+            case DOUBLE: {
+                double min = ((Number) minValue).doubleValue();
+                double max = ((Number) maxValue).doubleValue();
+                minValue = min;
+                maxValue = max;
+                boundaries.add(minValue);
+                double step = (max - min) / partitionCount;
+                for (int i = 1; i < partitionCount && step > 0; ++i) {
+                    boundaries.add(min + i * step);
+                }
+                break;
+            }
+            case DATE:
+            case DATETIME: {
+                long min = ((Date) minValue).getTime();
+                long max = ((Date) maxValue).getTime();
+                minValue = toDateValue((Date) minValue, fieldType);
+                maxValue = toDateValue((Date) maxValue, fieldType);
+                boundaries.add(minValue);
+                long step = (max - min) / partitionCount;
+                if (fieldType == FieldType.DATE) {
+                    // Whole days
+                    step = Math.max(DAY_MILLIS, (step / DAY_MILLIS) * DAY_MILLIS);
+                }
+                for (long value = min + step; step > 0 && value < max && boundaries.size() < partitionCount;
+                     value += step) {
+                    boundaries.add(fieldType == FieldType.DATE ? new java.sql.Date(value) : new Timestamp(value));
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Reference type cannot be partitioned: " + fieldType);
+        }
+
+        boundaries.add(maxValue);
+        return boundaries;
+    }
+
+    /**
+     * @return the date as java.sql.Date for DATE, Timestamp for DATETIME; a Timestamp is kept as is (nanos)
+     */
+    private static Date toDateValue(Date value, FieldType fieldType) {
+        if (fieldType == FieldType.DATE) {
+            return value instanceof java.sql.Date ? value : new java.sql.Date(value.getTime());
+        }
+        return value instanceof Timestamp ? value : new Timestamp(value.getTime());
+    }
+}
@@ -0,0 +1,50 @@
+package org.takemoa.sql2es.channel;
+
+/**
+ * When to sweep the updates while loading new records: every <code>updateEveryBatches</code> batches or every
+ * <code>updateIntervalSecs</code> seconds, whichever comes first; 0 disables a trigger.
+ *
+ * @author Take Moa
+ */
+class UpdateSweepCadence {
+
+    private final int everyBatches;
+    private final long intervalMillis;
+
+    private int batchesSinceSweep = 0;
+    private long lastSweepMillis;
+
+    /**
+     * @param nowMillis start time, the interval is counted from it until the first sweep
+     */
+    UpdateSweepCadence(int everyBatches, int intervalSecs, long nowMillis) {
+        this.everyBatches = Math.max(0, everyBatches);
+        this.intervalMillis = Math.max(0, intervalSecs) * 1000L;
+        this.lastSweepMillis = nowMillis;
+    }
+
+    void batchHandled() {
+        ++batchesSinceSweep;
+    }
+
+    boolean isDue(long nowMillis) {
+        return (everyBatches > 0 && batchesSinceSweep >= everyBatches)
+                || (intervalMillis > 0 && nowMillis - lastSweepMillis >= intervalMillis);
+    }
+
+    /**
+     * End of a pass of a continuous channel, counted as a batch so that the updates are swept even while no
+     * new records arrive; with both triggers disabled, at every pass.
+     *
+     * @return true if the sweep is due
+     */
+    boolean passFinished(long nowMillis) {
+        ++batchesSinceSweep;
+        return (everyBatches == 0 && intervalMillis == 0) || isDue(nowMillis);
+    }
+
+    void swept(long nowMillis) {
+        batchesSinceSweep = 0;
+        lastSweepMillis = nowMillis;
+    }
+}
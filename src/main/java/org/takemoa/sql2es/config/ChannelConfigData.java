@@ -6,6 +6,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.takemoa.sql2es.definition.ChannelDefinition;
 import org.takemoa.sql2es.definition.DomainDefinition;
 import org.takemoa.sql2es.definition.FieldType;
+import org.takemoa.sql2es.definition.TypeDefinition;
+import org.takemoa.sql2es.definition.TypeUpdateDefinition;
 import org.takemoa.sql2es.util.Conversions;
 
 import java.util.Date;
@@ -22,6 +24,14 @@ public class ChannelConfigData {
     private String channelName = null;
     private Date lastExecutionDate = null;
     private HashMap<String, Object> lastReference = null;
+    // Root ID of the last stored domain object: with the last reference value, the keyset to resume after
+    private HashMap<String, Object> lastId = null;
+    // Last update reference value, per update definition
+    private HashMap<String, Object> lastUpdateReference = null;
+    // Position of the change data capture source after the last indexed changes
+    private Object cdcPosition = null;
+    // Time (ms) of the last reconciliation of the ES documents with the database IDs
+    private Long lastReconcileTime = null;
     private ChannelDefinition channelDef = null;
 
     public ChannelConfigData() {
@@ -37,6 +47,8 @@ public class ChannelConfigData {
         // Dates are converted to Long by Mapper, change it manually
         thisAsMap.put("lastExecutionDate", lastExecutionDate);
         thisAsMap.put("lastReference", lastReference);
+        thisAsMap.put("lastId", lastId);
+        thisAsMap.put("lastUpdateReference", lastUpdateReference);
 
         return thisAsMap;
     }
@@ -64,6 +76,25 @@ public class ChannelConfigData {
                 configData.updateLastRefValue(Conversions.fromEsValue(refValue, refFieldType));
             }
         }
+        FieldType idFieldType = domainDefinition.getIdFieldType();
+        if (idFieldType != null && configData.lastId != null && !configData.lastId.isEmpty()) {
+            Map.Entry<String, Object> idEntry = configData.lastId.entrySet().iterator().next();
+            idEntry.setValue(Conversions.fromEsValue(idEntry.getValue(), idFieldType));
+        }
+        if (configData.lastUpdateReference != null) {
+            for (TypeDefinition typeDef : domainDefinition.getAllTypeDefs()) {
+                if (!typeDef.hasUpdates()) {
+                    continue;
+                }
+                for (TypeUpdateDefinition typeUpdateDef : typeDef.getUpdateTypeDefs()) {
+                    Object updateRefValue = configData.lastUpdateReference.get(typeUpdateDef.getName());
+                    if (updateRefValue != null) {
+                        configData.lastUpdateReference.put(typeUpdateDef.getName(), Conversions.fromEsValue(
+                                updateRefValue, typeUpdateDef.getRefFieldDef().getFieldType()));
+                    }
+                }
+            }
+        }
 
         return configData;
     }
@@ -110,6 +141,62 @@ public class ChannelConfigData {
         lastReference.entrySet().iterator().next().setValue(fieldValue);
     }
 
+    /**
+     * @return the root ID of the last stored domain object, null if unknown
+     */
+    @JsonIgnore
+    public Object getLastIdValue() {
+        if (lastId == null || lastId.isEmpty()) {
+            return null;
+        }
+        return lastId.values().iterator().next();
+    }
+
+    /**
+     * @param idValue root ID of the last stored domain object, null if unknown
+     */
+    public void setLastIdValue(String idName, Object idValue) {
+        if (lastId == null) {
+            lastId = new HashMap<String, Object>();
+        }
+        lastId.clear();
+        lastId.put(idName, idValue);
+    }
+
+    /**
+     * @param updateName the update definition name
+     * @return the last update reference value stored for the update definition, or null if none
+     */
+    public Object getLastUpdateRefValue(String updateName) {
+        if (lastUpdateReference == null) {
+            return null;
+        }
+        return lastUpdateReference.get(updateName);
+    }
+
+    public void setLastUpdateRefValue(String updateName, Object updateRefValue) {
+        if (lastUpdateReference == null) {
+            lastUpdateReference = new HashMap<String, Object>();
+        }
+        lastUpdateReference.put(updateName, updateRefValue);
+    }
+
+    public Object getCdcPosition() {
+        return cdcPosition;
+    }
+
+    public void setCdcPosition(Object cdcPosition) {
+        this.cdcPosition = cdcPosition;
+    }
+
+    public Long getLastReconcileTime() {
+        return lastReconcileTime;
+    }
+
+    public void setLastReconcileTime(Long lastReconcileTime) {
+        this.lastReconcileTime = lastReconcileTime;
+    }
+
     public ChannelDefinition getChannelDef() {
         return channelDef;
     }
@@ -126,11 +213,31 @@ public class ChannelConfigData {
         this.lastReference = lastReference;
     }
 
+    public HashMap<String, Object> getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(HashMap<String, Object> lastId) {
+        this.lastId = lastId;
+    }
+
+    public HashMap<String, Object> getLastUpdateReference() {
+        return lastUpdateReference;
+    }
+
+    public void setLastUpdateReference(HashMap<String, Object> lastUpdateReference) {
+        this.lastUpdateReference = lastUpdateReference;
+    }
+
     @Override
     public String toString() {
         return "ChannelConfigData [channelName=" + channelName
                 + ", lastExecutionDate=" + lastExecutionDate
-                + ", lastReference=" + lastReference + ", channelDef="
+                + ", lastReference=" + lastReference
+                + ", lastId=" + lastId
+                + ", lastUpdateReference=" + lastUpdateReference + ", cdcPosition=" + cdcPosition
+                + ", lastReconcileTime=" + lastReconcileTime
+                + ", channelDef="
                 + channelDef + "]";
     }
 }
@@ -0,0 +1,26 @@
+package org.takemoa.sql2es.config;
+
+import org.takemoa.sql2es.definition.DomainDefinition;
+
+/**
+ * Persists the config data (checkpoints) of one channel between runs.
+ *
+ * @author Take Moa
+ */
+public interface CheckpointStore {
+
+    /**
+     * @return the previously saved config data, null if none
+     */
+    ChannelConfigData load(DomainDefinition domainDefinition);
+
+    /**
+     * Save the config data. The store may delay the write until the next save or flush.
+     */
+    void save(ChannelConfigData configData);
+
+    /**
+     * Write the last saved config data, if not written yet.
+     */
+    void flush();
+}
@@ -0,0 +1,44 @@
+package org.takemoa.sql2es.config;
+
+/**
+ * Base checkpoint store writing at most once per interval: the saves in between are coalesced into the next
+ * write. The config data only ever holds checkpoints of indexed documents, so writing it late is safe; a crash
+ * only makes the next run resume from an older checkpoint.
+ *
+ * @author Take Moa
+ */
+public abstract class CoalescingCheckpointStore implements CheckpointStore {
+
+    private final long minWriteIntervalMillis;
+    private ChannelConfigData pendingConfigData = null;
+    private long lastWriteTime = 0;
+
+    /**
+     * @param minWriteIntervalMillis min time between two writes, 0 to write on every save
+     */
+    protected CoalescingCheckpointStore(long minWriteIntervalMillis) {
+        this.minWriteIntervalMillis = minWriteIntervalMillis;
+    }
+
+    @Override
+    public synchronized void save(ChannelConfigData configData) {
+        pendingConfigData = configData;
+        if (System.currentTimeMillis() - lastWriteTime >= minWriteIntervalMillis) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (pendingConfigData != null) {
+            write(pendingConfigData);
+            pendingConfigData = null;
+            lastWriteTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Actually write the config data
+     */
+    protected abstract void write(ChannelConfigData configData);
+}
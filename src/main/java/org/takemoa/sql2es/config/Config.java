@@ -1,8 +1,10 @@
 package org.takemoa.sql2es.config;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.takemoa.sql2es.definition.AdaptiveBatchingDefinition;
 import org.takemoa.sql2es.definition.ChannelDefinition;
 import org.takemoa.sql2es.definition.DatasourceDefinition;
+import org.takemoa.sql2es.definition.MetricsDefinition;
 import org.takemoa.sql2es.sql.SqlTemplates;
 
 import java.util.LinkedHashMap;
@@ -18,6 +20,8 @@ public class Config {
 
 	private int runIntervalMins = 30;
 	private int batchSize = 50000;
+	// Number of channels processed in parallel
+	private int channelThreads = 1;
 	
 	// ES cluster custom settings
     @JsonProperty("esClusters")
@@ -34,6 +38,12 @@ public class Config {
 	// The channel list
 	private LinkedHashMap<String, ChannelDefinition> channels;
 
+	// Metrics exposure
+	private MetricsDefinition metrics = new MetricsDefinition();
+
+	// Adaptive batch and bulk sizes of the channels without their own section; null means fixed sizes
+	private AdaptiveBatchingDefinition adaptiveBatching = null;
+
 	public Config() {
 		super();
 
@@ -56,6 +66,14 @@ public class Config {
 		this.batchSize = batchSize;
 	}
 
+	public int getChannelThreads() {
+		return channelThreads;
+	}
+
+	public void setChannelThreads(int channelThreads) {
+		this.channelThreads = channelThreads;
+	}
+
     public Map<String, String> getEsClusterSettings(String clusterName) {
         if (esClusterSettingsMap == null) {
             return null;
@@ -101,6 +119,22 @@ public class Config {
         }
 	}
 	
+	public MetricsDefinition getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(MetricsDefinition metrics) {
+		this.metrics = metrics;
+	}
+
+	public AdaptiveBatchingDefinition getAdaptiveBatching() {
+		return adaptiveBatching;
+	}
+
+	public void setAdaptiveBatching(AdaptiveBatchingDefinition adaptiveBatching) {
+		this.adaptiveBatching = adaptiveBatching;
+	}
+
 	public void validate() throws ConfigException {
 		if (channels == null || channels.isEmpty()) {
 			throw new ConfigException("No channels defined in config");
@@ -114,8 +148,9 @@ public class Config {
 	@Override
 	public String toString() {
 		return "Config [runIntervalMins=" + runIntervalMins + ", batchSize="
-				+ batchSize + ", esClusterSettingsMap=" + esClusterSettingsMap
+				+ batchSize + ", channelThreads=" + channelThreads + ", esClusterSettingsMap=" + esClusterSettingsMap
 				+ ", datasourceMap=" + datasourceMap + ", sqlTemplatesMap="
-				+ sqlTemplatesMap + ", channels=" + channels + "]";
+				+ sqlTemplatesMap + ", channels=" + channels + ", metrics=" + metrics
+				+ ", adaptiveBatching=" + adaptiveBatching + "]";
 	}
 }
@@ -7,9 +7,11 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.util.StringUtils;
 import org.takemoa.sql2es.channel.ChannelManager;
+import org.takemoa.sql2es.definition.AdaptiveBatchingDefinition;
 import org.takemoa.sql2es.definition.ChannelDefinition;
 import org.takemoa.sql2es.definition.DatasourceDefinition;
 import org.takemoa.sql2es.definition.DomainDefinition;
+import org.takemoa.sql2es.definition.MetricsDefinition;
 import org.takemoa.sql2es.definition.TypeDefinition;
 import org.takemoa.sql2es.sql.SqlTemplates;
 
@@ -40,6 +42,20 @@ public class ConfigManager {
 	
 	public static final String ES_CONFIG_INDEX = "ecconfig_";
 	public static final String ES_CONFIG_TYPE = "channels_";
+
+	// Cluster settings prefix reserved for sql2es (not passed to ES)
+	public static final String ES_SQL2ES_SETTINGS_PREFIX = "sql2es.";
+	// Max channels using the same ES cluster at the same time
+	public static final String ES_MAX_ACTIVE_CHANNELS = ES_SQL2ES_SETTINGS_PREFIX + "maxActiveChannels";
+	// ES client type: node (default) or transport
+	public static final String ES_CLIENT_TYPE = ES_SQL2ES_SETTINGS_PREFIX + "client";
+	public static final String ES_CLIENT_NODE = "node";
+	public static final String ES_CLIENT_TRANSPORT = "transport";
+	// Comma separated host:port list used by the transport client
+	public static final String ES_TRANSPORT_ADDRESSES = ES_SQL2ES_SETTINGS_PREFIX + "transport.addresses";
+	// Interval between ES client health checks
+	public static final String ES_HEALTH_CHECK_SECS = ES_SQL2ES_SETTINGS_PREFIX + "healthCheckSecs";
+	public static final int DEFAULT_ES_HEALTH_CHECK_SECS = 60;
 	
 	/**
 	 * Main config file.
@@ -108,6 +124,14 @@ public class ConfigManager {
 
 			logger.debug("\n {}", channelManager);
 
+			int maxPartitions = channelManager.getMaxInitialLoadPartitions();
+			if (maxPartitions > 0 && channelDefinition.getInitialLoadPartitions() > maxPartitions) {
+				throw new ConfigException("Channel " + channelEntry.getKey() + ": initialLoadPartitions "
+						+ channelDefinition.getInitialLoadPartitions() + " exceeds the " + maxPartitions
+						+ " partitions the connection pool of data source "
+						+ channelDefinition.getDatasourceName() + " can hold");
+			}
+
 			channelManagers.add(channelManager);
 		}
 	}
@@ -225,10 +249,27 @@ public class ConfigManager {
 		return sqlTemplates;
 	}
 	
+	public Path getHomeFolder() {
+		return homeFolder;
+	}
+
 	public DatasourceDefinition getDatasourceDef(String dsName) {
 		return config.getDatasourceMap().get(dsName);
 	}
 
+	/**
+	 * Close the connection pools of all data sources
+	 */
+	public void closeDatasources() {
+		for (Map.Entry<String, DatasourceDefinition> dsEntry : config.getDatasourceMap().entrySet()) {
+			try {
+				dsEntry.getValue().close();
+			} catch (ConfigException e) {
+				logger.warn("Failed to close data source " + dsEntry.getKey(), e);
+			}
+		}
+	}
+
 	public int getDefaultBatchSize() {
 		return config.getBatchSize();
 	}
@@ -237,6 +278,80 @@ public class ConfigManager {
         return config.getRunIntervalMins();
     }
 
+	public int getChannelThreads() {
+		return config.getChannelThreads();
+	}
+
+	public MetricsDefinition getMetricsDefinition() {
+		return config.getMetrics() != null ? config.getMetrics() : new MetricsDefinition();
+	}
+
+	/**
+	 * @return the adaptive batching of the channel, its own or the global one; null if disabled
+	 */
+	public AdaptiveBatchingDefinition getAdaptiveBatchingDefinition(ChannelDefinition channelDefinition) {
+		AdaptiveBatchingDefinition adaptiveBatching = channelDefinition.getAdaptiveBatching() != null
+				? channelDefinition.getAdaptiveBatching() : config.getAdaptiveBatching();
+		return adaptiveBatching != null && adaptiveBatching.isEnabled() ? adaptiveBatching : null;
+	}
+
+	/**
+	 * @param esClusterName
+	 * @return Max channels allowed to use the ES cluster at the same time; 0 means no limit
+	 */
+	public int getEsClusterMaxActiveChannels(String esClusterName) {
+		return getEsClusterIntSetting(esClusterName, ES_MAX_ACTIVE_CHANNELS, 0);
+	}
+
+	/**
+	 * @param esClusterName
+	 * @return seconds between two health checks of the cluster client; 0 means no check
+	 */
+	public int getEsClusterHealthCheckSecs(String esClusterName) {
+		return getEsClusterIntSetting(esClusterName, ES_HEALTH_CHECK_SECS, DEFAULT_ES_HEALTH_CHECK_SECS);
+	}
+
+	/**
+	 * @param esClusterName
+	 * @return the client type used to connect to the cluster: node or transport
+	 */
+	public String getEsClusterClientType(String esClusterName) {
+		Map<String, String> esClusterSettings = config.getEsClusterSettings(esClusterName);
+		if (esClusterSettings == null || StringUtils.isEmpty(esClusterSettings.get(ES_CLIENT_TYPE))) {
+			return ES_CLIENT_NODE;
+		}
+		String clientType = esClusterSettings.get(ES_CLIENT_TYPE).trim();
+		if (!ES_CLIENT_NODE.equals(clientType) && !ES_CLIENT_TRANSPORT.equals(clientType)) {
+			throw new ConfigException("Invalid " + ES_CLIENT_TYPE + " value for ES cluster: " + esClusterName);
+		}
+		return clientType;
+	}
+
+	/**
+	 * @param esClusterName
+	 * @return host:port addresses for the transport client
+	 */
+	public String[] getEsClusterTransportAddresses(String esClusterName) {
+		Map<String, String> esClusterSettings = config.getEsClusterSettings(esClusterName);
+		if (esClusterSettings == null || StringUtils.isEmpty(esClusterSettings.get(ES_TRANSPORT_ADDRESSES))) {
+			throw new ConfigException(ES_TRANSPORT_ADDRESSES + " is required by the transport client of ES cluster: "
+					+ esClusterName);
+		}
+		return StringUtils.commaDelimitedListToStringArray(esClusterSettings.get(ES_TRANSPORT_ADDRESSES));
+	}
+
+	private int getEsClusterIntSetting(String esClusterName, String settingName, int defaultValue) {
+		Map<String, String> esClusterSettings = config.getEsClusterSettings(esClusterName);
+		if (esClusterSettings == null || StringUtils.isEmpty(esClusterSettings.get(settingName))) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(esClusterSettings.get(settingName).trim());
+		} catch (NumberFormatException e) {
+			throw new ConfigException("Invalid " + settingName + " value for ES cluster: " + esClusterName, e);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "ConfigManager [homeFolder=" + homeFolder + ", configFolder="
@@ -0,0 +1,53 @@
+package org.takemoa.sql2es.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.indices.IndexMissingException;
+import org.takemoa.sql2es.definition.DomainDefinition;
+import org.takemoa.sql2es.es.ESClientManager;
+
+/**
+ * Stores the channel config data as a document of the ES config index.
+ *
+ * @author Take Moa
+ */
+public class EsCheckpointStore extends CoalescingCheckpointStore {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final String esClusterName;
+    private final String channelName;
+
+    public EsCheckpointStore(String esClusterName, String channelName, long minWriteIntervalMillis) {
+        super(minWriteIntervalMillis);
+        this.esClusterName = esClusterName;
+        this.channelName = channelName;
+    }
+
+    @Override
+    public ChannelConfigData load(DomainDefinition domainDefinition) {
+        Client esClient = ESClientManager.get(esClusterName);
+        GetResponse getResponse = null;
+        try {
+            getResponse = esClient.prepareGet(ConfigManager.ES_CONFIG_INDEX, ConfigManager.ES_CONFIG_TYPE,
+                    channelName).get();
+        } catch (IndexMissingException ime) {
+            return null; // not created yet
+        }
+        if (!getResponse.isExists()) {
+            return null;
+        }
+        return ChannelConfigData.fromMap(getResponse.getSource(), domainDefinition);
+    }
+
+    @Override
+    protected void write(ChannelConfigData configData) {
+        Client esClient = ESClientManager.get(esClusterName);
+        IndexResponse indexResponse = esClient.prepareIndex(ConfigManager.ES_CONFIG_INDEX,
+                ConfigManager.ES_CONFIG_TYPE, channelName).setSource(configData.toMap()).execute().actionGet();
+        logger.debug("Config data created (updated=false): {}", indexResponse.isCreated());
+    }
+}
@@ -0,0 +1,72 @@
+package org.takemoa.sql2es.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.takemoa.sql2es.definition.DomainDefinition;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/**
+ * Stores the channel config data in a local JSon file. The file is replaced atomically: it is written to a
+ * temporary file first, synced, then renamed.
+ *
+ * @author Take Moa
+ */
+public class FileCheckpointStore extends CoalescingCheckpointStore {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private final Path file;
+
+    public FileCheckpointStore(Path file, long minWriteIntervalMillis) {
+        super(minWriteIntervalMillis);
+        this.file = file;
+    }
+
+    @Override
+    public ChannelConfigData load(DomainDefinition domainDefinition) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            HashMap<String, Object> sourceMap = mapper.readValue(file.toFile(),
+                    new TypeReference<HashMap<String, Object>>() {
+                    });
+            return ChannelConfigData.fromMap(sourceMap, domainDefinition);
+        } catch (IOException e) {
+            throw new ConfigException("Cannot read checkpoint file " + file, e);
+        }
+    }
+
+    @Override
+    protected void write(ChannelConfigData configData) {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                mapper.writeValue(outputStream, configData.toMap());
+            }
+            // Make sure the content is on disk before the rename makes it visible
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write checkpoint file " + file, e);
+        }
+        logger.debug("Config data written to {}", file);
+    }
+}
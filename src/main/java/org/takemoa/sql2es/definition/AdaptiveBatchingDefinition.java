@@ -0,0 +1,101 @@
+package org.takemoa.sql2es.definition;
+
+/**
+ * Adaptive sizing of the SQL batches (rows per page) and of the ES bulk requests (bytes), per channel
+ *
+ * @author Take Moa
+ */
+public class AdaptiveBatchingDefinition {
+
+/*
+adaptiveBatching:
+  enabled: true
+  minBatchSize: 1000
+  maxBatchSize: 200000
+  targetBatchMillis: 5000
+  minBulkSizeMb: 1
+  targetBulkMillis: 1000
+  maxHeapPercent: 75
+ */
+
+	// false to keep a channel on its fixed sizes when the section is defined globally
+	private boolean enabled = true;
+	// Bounds of the batch size; the batch size (channel or global) is the starting value
+	private int minBatchSize = 1000;
+	private int maxBatchSize = 500000;
+	// Target database time of a batch, rows transfer and assembly included
+	private int targetBatchMillis = 5000;
+	// Lower bound of the bulk request size; the channel bulkSizeMb is both the starting value and the upper bound
+	private int minBulkSizeMb = 1;
+	// Target latency of the bulk requests
+	private int targetBulkMillis = 1000;
+	// Heap in use after the last GC (old generation), above which the sizes shrink
+	private int maxHeapPercent = 75;
+
+	public AdaptiveBatchingDefinition() {
+		super();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMinBatchSize() {
+		return minBatchSize;
+	}
+
+	public void setMinBatchSize(int minBatchSize) {
+		this.minBatchSize = minBatchSize;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public int getTargetBatchMillis() {
+		return targetBatchMillis;
+	}
+
+	public void setTargetBatchMillis(int targetBatchMillis) {
+		this.targetBatchMillis = targetBatchMillis;
+	}
+
+	public int getMinBulkSizeMb() {
+		return minBulkSizeMb;
+	}
+
+	public void setMinBulkSizeMb(int minBulkSizeMb) {
+		this.minBulkSizeMb = minBulkSizeMb;
+	}
+
+	public int getTargetBulkMillis() {
+		return targetBulkMillis;
+	}
+
+	public void setTargetBulkMillis(int targetBulkMillis) {
+		this.targetBulkMillis = targetBulkMillis;
+	}
+
+	public int getMaxHeapPercent() {
+		return maxHeapPercent;
+	}
+
+	public void setMaxHeapPercent(int maxHeapPercent) {
+		this.maxHeapPercent = maxHeapPercent;
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptiveBatchingDefinition [enabled=" + enabled + ", minBatchSize=" + minBatchSize + ", maxBatchSize="
+				+ maxBatchSize + ", targetBatchMillis=" + targetBatchMillis + ", minBulkSizeMb=" + minBulkSizeMb
+				+ ", targetBulkMillis=" + targetBulkMillis + ", maxHeapPercent=" + maxHeapPercent + "]";
+	}
+}
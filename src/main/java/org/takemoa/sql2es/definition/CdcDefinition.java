@@ -0,0 +1,70 @@
+package org.takemoa.sql2es.definition;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Change data capture settings of a channel
+ *
+ * @author Take Moa
+ */
+public class CdcDefinition {
+
+/*
+  cdc:
+    source: FILE_REPLAY | SQLSERVER_CT
+    # FILE_REPLAY only
+    file: <path>
+    # Changed tables and, for each one, the column holding the ID of the root domain object
+    tables:
+      <table_name>: <root_id_column>
+    # Max changes processed together
+    batchSize: 1000
+ */
+
+	private CdcSourceEnum source = null;
+	private String file = null;
+	private LinkedHashMap<String, String> tables = null;
+	private int batchSize = 1000;
+
+	public CdcDefinition() {
+		super();
+	}
+
+	public CdcSourceEnum getSource() {
+		return source;
+	}
+
+	public void setSource(CdcSourceEnum source) {
+		this.source = source;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public LinkedHashMap<String, String> getTables() {
+		return tables;
+	}
+
+	public void setTables(LinkedHashMap<String, String> tables) {
+		this.tables = tables;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public String toString() {
+		return "CdcDefinition [source=" + source + ", file=" + file + ", tables=" + tables + ", batchSize="
+				+ batchSize + "]";
+	}
+}
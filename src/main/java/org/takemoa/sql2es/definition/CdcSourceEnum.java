@@ -0,0 +1,21 @@
+package org.takemoa.sql2es.definition;
+
+/**
+ * Source of the row changes of a change data capture channel
+ */
+public enum CdcSourceEnum {
+	// JSon lines file of binlog events (e.g. written by Maxwell from the MySQL binlog)
+	FILE_REPLAY(1),
+	// SQL Server Change Tracking
+	SQLSERVER_CT(2);
+
+	private int value;
+
+	private CdcSourceEnum(int value) {
+		this.value = value;
+	}
+
+	public int getValue() {
+		return value;
+	}
+}
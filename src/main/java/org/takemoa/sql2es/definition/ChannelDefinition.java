@@ -35,6 +35,57 @@ public class ChannelDefinition {
 
 	// The batch size
 	private int batchSize = -1;
+	// The batch size of the updates; default is the batch size
+	private int updateBatchSize = -1;
+	// Update sweeps while loading new records: every N batches or every M seconds, whichever comes first;
+	// 0 disables a trigger
+	private int updateEveryBatches = 1;
+	private int updateIntervalSecs = 0;
+
+	// Number of parallel reference ranges for the very first load; 1 means no partitioning
+	private int initialLoadPartitions = 1;
+
+	// Paged (one query per batch) or streaming (one query per run)
+	private FetchModeEnum fetchMode = FetchModeEnum.PAGED;
+	// JDBC driver fetch size; 0 means driver default
+	private int fetchSize = 0;
+
+	// Run SQL fetch, bulk request build and ES indexing as concurrent stages
+	private boolean pipelined = false;
+	// Max number of batches waiting between two pipeline stages
+	private int pipelineQueueSize = 2;
+
+	// ES bulk request limits: documents, size in MB and flush interval (0 means no periodic flush)
+	private int bulkActions = 5000;
+	private int bulkSizeMb = 5;
+	private int bulkFlushIntervalSecs = 0;
+	// Max bulk requests in flight; 0 means synchronous bulk requests
+	private int bulkConcurrentRequests = 1;
+	// Retries of the documents rejected by an overloaded ES, with exponential backoff
+	private int bulkMaxRetries = 8;
+	private long bulkRetryBackoffMillis = 200;
+	// File receiving the documents refused by ES; default is deadletter/<channel name>.json in the home folder
+	private String deadLetterFile = null;
+
+	// Where the checkpoints are stored, and min interval between two writes (0 means every checkpoint)
+	private CheckpointStoreEnum checkpointStore = CheckpointStoreEnum.ES;
+	// Checkpoint file of the FILE store; default is checkpoints/<channel name>.json in the home folder
+	private String checkpointFile = null;
+	private int checkpointIntervalSecs = 5;
+
+	// Change data capture; null means the changes are found by polling the reference fields
+	private CdcDefinition cdc = null;
+
+	// Keep polling after the first run, waiting between min and max delay (doubled while idle)
+	private boolean continuous = false;
+	private long tailMinDelayMillis = 100;
+	private long tailMaxDelayMillis = 5000;
+
+	// Delete the documents whose root row is gone, at most once every N seconds; 0 means never
+	private int reconcileIntervalSecs = 0;
+
+	// Batch and bulk sizes adjusted at runtime; null means the global section, if any
+	private AdaptiveBatchingDefinition adaptiveBatching = null;
 
 	public ChannelDefinition() {
 		super();
@@ -115,6 +166,198 @@ public class ChannelDefinition {
 		this.batchSize = batchSize;
 	}
 	
+	public int getUpdateBatchSize() {
+		return updateBatchSize;
+	}
+
+	public void setUpdateBatchSize(int updateBatchSize) {
+		this.updateBatchSize = updateBatchSize;
+	}
+
+	public int getUpdateEveryBatches() {
+		return updateEveryBatches;
+	}
+
+	public void setUpdateEveryBatches(int updateEveryBatches) {
+		this.updateEveryBatches = updateEveryBatches;
+	}
+
+	public int getUpdateIntervalSecs() {
+		return updateIntervalSecs;
+	}
+
+	public void setUpdateIntervalSecs(int updateIntervalSecs) {
+		this.updateIntervalSecs = updateIntervalSecs;
+	}
+
+	public int getInitialLoadPartitions() {
+		return initialLoadPartitions;
+	}
+
+	public void setInitialLoadPartitions(int initialLoadPartitions) {
+		this.initialLoadPartitions = initialLoadPartitions;
+	}
+
+	public FetchModeEnum getFetchMode() {
+		return fetchMode;
+	}
+
+	public void setFetchMode(FetchModeEnum fetchMode) {
+		this.fetchMode = fetchMode;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	public int getPipelineQueueSize() {
+		return pipelineQueueSize;
+	}
+
+	public void setPipelineQueueSize(int pipelineQueueSize) {
+		this.pipelineQueueSize = pipelineQueueSize;
+	}
+
+	public int getBulkActions() {
+		return bulkActions;
+	}
+
+	public void setBulkActions(int bulkActions) {
+		this.bulkActions = bulkActions;
+	}
+
+	public int getBulkSizeMb() {
+		return bulkSizeMb;
+	}
+
+	public void setBulkSizeMb(int bulkSizeMb) {
+		this.bulkSizeMb = bulkSizeMb;
+	}
+
+	public int getBulkFlushIntervalSecs() {
+		return bulkFlushIntervalSecs;
+	}
+
+	public void setBulkFlushIntervalSecs(int bulkFlushIntervalSecs) {
+		this.bulkFlushIntervalSecs = bulkFlushIntervalSecs;
+	}
+
+	public int getBulkConcurrentRequests() {
+		return bulkConcurrentRequests;
+	}
+
+	public void setBulkConcurrentRequests(int bulkConcurrentRequests) {
+		this.bulkConcurrentRequests = bulkConcurrentRequests;
+	}
+
+	public int getBulkMaxRetries() {
+		return bulkMaxRetries;
+	}
+
+	public void setBulkMaxRetries(int bulkMaxRetries) {
+		this.bulkMaxRetries = bulkMaxRetries;
+	}
+
+	public long getBulkRetryBackoffMillis() {
+		return bulkRetryBackoffMillis;
+	}
+
+	public void setBulkRetryBackoffMillis(long bulkRetryBackoffMillis) {
+		this.bulkRetryBackoffMillis = bulkRetryBackoffMillis;
+	}
+
+	public String getDeadLetterFile() {
+		return deadLetterFile;
+	}
+
+	public void setDeadLetterFile(String deadLetterFile) {
+		this.deadLetterFile = deadLetterFile;
+	}
+
+	public CheckpointStoreEnum getCheckpointStore() {
+		return checkpointStore;
+	}
+
+	public void setCheckpointStore(CheckpointStoreEnum checkpointStore) {
+		this.checkpointStore = checkpointStore;
+	}
+
+	public String getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	public void setCheckpointFile(String checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public int getCheckpointIntervalSecs() {
+		return checkpointIntervalSecs;
+	}
+
+	public void setCheckpointIntervalSecs(int checkpointIntervalSecs) {
+		this.checkpointIntervalSecs = checkpointIntervalSecs;
+	}
+
+	public CdcDefinition getCdc() {
+		return cdc;
+	}
+
+	public void setCdc(CdcDefinition cdc) {
+		this.cdc = cdc;
+	}
+
+	public boolean isContinuous() {
+		return continuous;
+	}
+
+	public void setContinuous(boolean continuous) {
+		this.continuous = continuous;
+	}
+
+	public long getTailMinDelayMillis() {
+		return tailMinDelayMillis;
+	}
+
+	public void setTailMinDelayMillis(long tailMinDelayMillis) {
+		this.tailMinDelayMillis = tailMinDelayMillis;
+	}
+
+	public long getTailMaxDelayMillis() {
+		return tailMaxDelayMillis;
+	}
+
+	public void setTailMaxDelayMillis(long tailMaxDelayMillis) {
+		this.tailMaxDelayMillis = tailMaxDelayMillis;
+	}
+
+	public int getReconcileIntervalSecs() {
+		return reconcileIntervalSecs;
+	}
+
+	public void setReconcileIntervalSecs(int reconcileIntervalSecs) {
+		this.reconcileIntervalSecs = reconcileIntervalSecs;
+	}
+
+	public AdaptiveBatchingDefinition getAdaptiveBatching() {
+		return adaptiveBatching;
+	}
+
+	public void setAdaptiveBatching(AdaptiveBatchingDefinition adaptiveBatching) {
+		this.adaptiveBatching = adaptiveBatching;
+	}
+
 	public String getEsClusterName() {
 		return esClusterName;
 	}
@@ -135,6 +378,30 @@ public class ChannelDefinition {
 				", domainDefinitionFile='" + domainDefinitionFile + '\'' +
 				", maxRecords=" + maxRecords +
 				", batchSize=" + batchSize +
+				", updateBatchSize=" + updateBatchSize +
+				", updateEveryBatches=" + updateEveryBatches +
+				", updateIntervalSecs=" + updateIntervalSecs +
+				", initialLoadPartitions=" + initialLoadPartitions +
+				", fetchMode=" + fetchMode +
+				", fetchSize=" + fetchSize +
+				", pipelined=" + pipelined +
+				", pipelineQueueSize=" + pipelineQueueSize +
+				", bulkActions=" + bulkActions +
+				", bulkSizeMb=" + bulkSizeMb +
+				", bulkFlushIntervalSecs=" + bulkFlushIntervalSecs +
+				", bulkConcurrentRequests=" + bulkConcurrentRequests +
+				", bulkMaxRetries=" + bulkMaxRetries +
+				", bulkRetryBackoffMillis=" + bulkRetryBackoffMillis +
+				", deadLetterFile='" + deadLetterFile + '\'' +
+				", checkpointStore=" + checkpointStore +
+				", checkpointFile='" + checkpointFile + '\'' +
+				", checkpointIntervalSecs=" + checkpointIntervalSecs +
+				", cdc=" + cdc +
+				", continuous=" + continuous +
+				", tailMinDelayMillis=" + tailMinDelayMillis +
+				", tailMaxDelayMillis=" + tailMaxDelayMillis +
+				", reconcileIntervalSecs=" + reconcileIntervalSecs +
+				", adaptiveBatching=" + adaptiveBatching +
 				'}';
 	}
 }
@@ -0,0 +1,21 @@
+package org.takemoa.sql2es.definition;
+
+/**
+ * Where the channel checkpoints (config data) are stored
+ */
+public enum CheckpointStoreEnum {
+	// A document of the ES config index
+	ES(1),
+	// A local JSon file
+	FILE(2);
+
+	private int value;
+
+	private CheckpointStoreEnum(int value) {
+		this.value = value;
+	}
+
+	public int getValue() {
+		return value;
+	}
+}
@@ -1,12 +1,16 @@
 package org.takemoa.sql2es.definition;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.springframework.jdbc.datasource.SimpleDriverDataSource;
 import org.springframework.util.StringUtils;
 import org.takemoa.sql2es.config.ConfigException;
 
 import javax.sql.DataSource;
 import java.sql.Driver;
+import java.sql.SQLException;
 
 /**
  * Describe a JDBC data source
@@ -24,6 +28,12 @@ public class DatasourceDefinition {
 
 	private String username = null;
 	private String password = null;
+
+	// Max channels using this data source at the same time; 0 means no limit
+	private int maxActiveChannels = 0;
+
+	// Connection pool settings
+	private PoolDefinition pool = new PoolDefinition();
 	
 	private DataSource dataSource = null;
 	
@@ -33,7 +43,9 @@ public class DatasourceDefinition {
 
 	public synchronized DataSource getDataSource() {
 
-		if (dataSource == null) {
+		if (dataSource == null && pool != null && pool.isEnabled()) {
+			dataSource = createPooledDataSource();
+		} else if (dataSource == null) {
 			SimpleDriverDataSource simpleDataSource = new SimpleDriverDataSource();
 			try {
 				simpleDataSource
@@ -54,6 +66,97 @@ public class DatasourceDefinition {
 		
 		return dataSource;
 	}
+
+	private BasicDataSource createPooledDataSource() {
+		BasicDataSource pooledDataSource = new StatisticsDataSource();
+		pooledDataSource.setDriverClassName(getJdbcDriverClassName());
+		pooledDataSource.setUrl(getDbUrl());
+		if (!StringUtils.isEmpty(getUsername())) {
+			pooledDataSource.setUsername(getUsername());
+		}
+		if (!StringUtils.isEmpty(getPassword())) {
+			pooledDataSource.setPassword(getPassword());
+		}
+
+		pooledDataSource.setMinIdle(pool.getMinIdle());
+		pooledDataSource.setInitialSize(pool.getMinIdle());
+		pooledDataSource.setMaxTotal(pool.getMaxTotal());
+		pooledDataSource.setMaxIdle(pool.getMaxTotal());
+		pooledDataSource.setMaxWaitMillis(pool.getMaxWaitMillis());
+
+		if (!StringUtils.isEmpty(pool.getValidationQuery())) {
+			pooledDataSource.setValidationQuery(pool.getValidationQuery());
+			pooledDataSource.setTestOnBorrow(true);
+			pooledDataSource.setTestWhileIdle(true);
+		}
+		if (pool.getIdleEvictionSecs() > 0) {
+			pooledDataSource.setTimeBetweenEvictionRunsMillis(pool.getIdleEvictionSecs() * 1000L);
+			pooledDataSource.setMinEvictableIdleTimeMillis(pool.getMaxIdleSecs() * 1000L);
+		}
+		if (pool.getStatementCacheSize() > 0) {
+			pooledDataSource.setPoolPreparedStatements(true);
+			pooledDataSource.setMaxOpenPreparedStatements(pool.getStatementCacheSize());
+		}
+		return pooledDataSource;
+	}
+
+	/**
+	 * @return number of active and idle pooled connections, null if the data source is not pooled or not created yet
+	 */
+	public synchronized String getPoolStatistics() {
+		if (!(dataSource instanceof BasicDataSource)) {
+			return null;
+		}
+		BasicDataSource pooledDataSource = (BasicDataSource) dataSource;
+		return "active=" + pooledDataSource.getNumActive() + ", idle=" + pooledDataSource.getNumIdle()
+				+ ", waiting=" + getPoolWaiting() + ", maxTotal=" + pooledDataSource.getMaxTotal();
+	}
+
+	/**
+	 * @return number of pooled connections in use, 0 if the data source is not pooled or not created yet
+	 */
+	public synchronized int getPoolActive() {
+		return dataSource instanceof BasicDataSource ? ((BasicDataSource) dataSource).getNumActive() : 0;
+	}
+
+	/**
+	 * @return number of idle pooled connections, 0 if the data source is not pooled or not created yet
+	 */
+	public synchronized int getPoolIdle() {
+		return dataSource instanceof BasicDataSource ? ((BasicDataSource) dataSource).getNumIdle() : 0;
+	}
+
+	/**
+	 * @return number of threads waiting for a pooled connection, 0 if the data source is not pooled or not
+	 * created yet
+	 */
+	public synchronized int getPoolWaiting() {
+		return dataSource instanceof StatisticsDataSource ? ((StatisticsDataSource) dataSource).getNumWaiters() : 0;
+	}
+
+	/**
+	 * Pooled data source exposing the threads waiting for a connection
+	 */
+	private static class StatisticsDataSource extends BasicDataSource {
+		int getNumWaiters() {
+			GenericObjectPool<PoolableConnection> connectionPool = getConnectionPool();
+			return connectionPool != null ? connectionPool.getNumWaiters() : 0;
+		}
+	}
+
+	/**
+	 * Close the pooled connections, if any
+	 */
+	public synchronized void close() {
+		if (dataSource instanceof BasicDataSource) {
+			try {
+				((BasicDataSource) dataSource).close();
+			} catch (SQLException e) {
+				throw new ConfigException("Failed to close the data source " + getDbUrl(), e);
+			}
+		}
+		dataSource = null;
+	}
 	
 	public String getJdbcDriverClassName() {
 		return jdbcDriverClassName;
@@ -79,10 +182,23 @@ public class DatasourceDefinition {
 	public void setPassword(String password) {
 		this.password = password;
 	}
+	public int getMaxActiveChannels() {
+		return maxActiveChannels;
+	}
+	public void setMaxActiveChannels(int maxActiveChannels) {
+		this.maxActiveChannels = maxActiveChannels;
+	}
+	public PoolDefinition getPool() {
+		return pool;
+	}
+	public void setPool(PoolDefinition pool) {
+		this.pool = pool;
+	}
 	@Override
 	public String toString() {
 		return "DatasourceDefinition [jdbcDriverClassName="
 				+ jdbcDriverClassName + ", dbUrl=" + dbUrl + ", username="
-				+ username + ", password=" + password + "]";
+				+ username + ", password=" + password + ", maxActiveChannels="
+				+ maxActiveChannels + ", pool=" + pool + "]";
 	}
 }
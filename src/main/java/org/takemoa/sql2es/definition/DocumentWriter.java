@@ -0,0 +1,220 @@
+package org.takemoa.sql2es.definition;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JSon serialization plan of the domain objects: field names encoded once and value writers resolved by field
+ * type, from the type definitions tree. A domain object is written straight to bytes, producing the same JSon
+ * as the ES map serialization (dates as ISO UTC strings) without going through an XContentBuilder.
+ *
+ * <p>The plan is immutable and can be shared by threads; each thread writes into its own buffer.</p>
+ *
+ * @author Take Moa
+ */
+public class DocumentWriter {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final TypeWriter rootTypeWriter;
+
+    DocumentWriter(TypeDefinition rootTypeDef) {
+        rootTypeWriter = new TypeWriter(rootTypeDef);
+    }
+
+    /**
+     * Write a domain object as JSon
+     *
+     * @param buffer reusable buffer, reset before writing
+     * @return the JSon bytes
+     */
+    public byte[] write(Map<String, Object> domainObject, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+        JsonGenerator generator = jsonFactory.createGenerator(buffer);
+        try {
+            writeObject(generator, rootTypeWriter, domainObject);
+        } finally {
+            generator.close();
+        }
+        return buffer.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeObject(JsonGenerator generator, TypeWriter typeWriter, Map<String, Object> values)
+            throws IOException {
+        generator.writeStartObject();
+        int writtenCount = 0;
+        for (int fieldIndex = 0; fieldIndex < typeWriter.fieldKeys.length; ++fieldIndex) {
+            Object value = values.get(typeWriter.fieldKeys[fieldIndex]);
+            if (value == null && !values.containsKey(typeWriter.fieldKeys[fieldIndex])) {
+                continue;
+            }
+            generator.writeFieldName(typeWriter.fieldNames[fieldIndex]);
+            writeValue(generator, typeWriter.fieldTypes[fieldIndex], value);
+            ++writtenCount;
+        }
+
+        for (int childIndex = 0; childIndex < typeWriter.childWriters.length; ++childIndex) {
+            Object childValue = values.get(typeWriter.childKeys[childIndex]);
+            if (childValue == null) {
+                // Not in the object: no child found
+                continue;
+            }
+            TypeWriter childWriter = typeWriter.childWriters[childIndex];
+            generator.writeFieldName(typeWriter.childNames[childIndex]);
+            if (childValue instanceof List) {
+                generator.writeStartArray();
+                for (Object childValues : (List<Object>) childValue) {
+                    writeObject(generator, childWriter, (Map<String, Object>) childValues);
+                }
+                generator.writeEndArray();
+            } else {
+                writeObject(generator, childWriter, (Map<String, Object>) childValue);
+            }
+            ++writtenCount;
+        }
+
+        // Values not part of the definitions, if any
+        if (writtenCount < values.size()) {
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                if (!typeWriter.keys.contains(entry.getKey())) {
+                    generator.writeFieldName(entry.getKey());
+                    writeValue(generator, entry.getValue());
+                }
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Write a value of a known field type, as read by Conversions.sqlValueReader
+     */
+    private static void writeValue(JsonGenerator generator, FieldType fieldType, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+            return;
+        }
+        switch (fieldType) {
+            case STRING:
+                generator.writeString((String) value);
+                return;
+            case DATE:
+            case DATETIME:
+                generator.writeString(XContentBuilder.defaultDatePrinter.print(((Date) value).getTime()));
+                return;
+            case FLOAT:
+                generator.writeNumber((Float) value);
+                return;
+            case DOUBLE:
+                generator.writeNumber((Double) value);
+                return;
+            case INTEGER:
+                generator.writeNumber((Integer) value);
+                return;
+            case LONG:
+                generator.writeNumber((Long) value);
+                return;
+            case SHORT:
+                generator.writeNumber((Short) value);
+                return;
+            case BOOLEAN:
+                generator.writeBoolean((Boolean) value);
+                return;
+        }
+        writeValue(generator, value);
+    }
+
+    /**
+     * Write a value of any type, as XContentBuilder would
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Date) {
+            generator.writeString(XContentBuilder.defaultDatePrinter.print(((Date) value).getTime()));
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object item : (Collection<Object>) value) {
+                writeValue(generator, item);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    /**
+     * Plan of one type: its fields, then its children
+     */
+    private static class TypeWriter {
+        private final String[] fieldKeys;
+        private final SerializedString[] fieldNames;
+        private final FieldType[] fieldTypes;
+        private final String[] childKeys;
+        private final SerializedString[] childNames;
+        private final TypeWriter[] childWriters;
+        // All the keys above
+        private final Set<String> keys = new HashSet<String>();
+
+        TypeWriter(TypeDefinition typeDef) {
+            Collection<FieldDefinition> fieldDefs = typeDef.getFieldsMap() != null
+                    ? typeDef.getFieldsMap().values() : Collections.<FieldDefinition>emptyList();
+            fieldKeys = new String[fieldDefs.size()];
+            fieldNames = new SerializedString[fieldDefs.size()];
+            fieldTypes = new FieldType[fieldDefs.size()];
+            int fieldIndex = 0;
+            for (FieldDefinition fieldDef : fieldDefs) {
+                fieldKeys[fieldIndex] = fieldDef.getFieldName();
+                fieldNames[fieldIndex] = new SerializedString(fieldDef.getFieldName());
+                fieldTypes[fieldIndex] = fieldDef.getFieldType();
+                keys.add(fieldDef.getFieldName());
+                ++fieldIndex;
+            }
+
+            List<TypeDefinition> childTypeDefs = typeDef.getChildTypes();
+            int childCount = childTypeDefs != null ? childTypeDefs.size() : 0;
+            childKeys = new String[childCount];
+            childNames = new SerializedString[childCount];
+            childWriters = new TypeWriter[childCount];
+            for (int childIndex = 0; childIndex < childCount; ++childIndex) {
+                TypeDefinition childTypeDef = childTypeDefs.get(childIndex);
+                childKeys[childIndex] = childTypeDef.getParentFieldName();
+                childNames[childIndex] = new SerializedString(childTypeDef.getParentFieldName());
+                childWriters[childIndex] = new TypeWriter(childTypeDef);
+                keys.add(childTypeDef.getParentFieldName());
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.takemoa.sql2es.definition;
 import org.springframework.util.StringUtils;
 import org.takemoa.sql2es.config.ConfigException;
 import org.takemoa.sql2es.sql.SelectBuilder;
+import org.takemoa.sql2es.util.Conversions;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -20,6 +21,9 @@ public class DomainDefinition {
 
     // Computed field
     HashMap<String, Object> allFieldsMappings = null;
+    // Types of the main query, and types of each separate query by its top type
+    private List<TypeDefinition> joinedTypeDefs = null;
+    private LinkedHashMap<TypeDefinition, List<TypeDefinition>> separateTypeDefsMap = null;
 	
 	public DomainDefinition(LinkedHashMap<String, TypeDefinition> typesMap) {
 		this.typesMap = typesMap;
@@ -59,6 +63,36 @@ public class DomainDefinition {
 		}
 		
 		// TODO check main type required fields
+		for (TypeDefinition typeDefinition: typesMap.values()) {
+			String deletedFieldKey = typeDefinition.getDeletedFieldKey();
+			if (deletedFieldKey != null && (typeDefinition != rootTypeDef || typeDefinition.getFieldsMap() == null
+					|| !typeDefinition.getFieldsMap().containsKey(deletedFieldKey))) {
+				throw new ConfigException("Deleted field " + deletedFieldKey + " of type "
+						+ typeDefinition.getTypeName() + " must be a field of the root type");
+			}
+		}
+
+		// Split the types between the main query and the separate queries (parents come before children)
+		joinedTypeDefs = new ArrayList<TypeDefinition>();
+		separateTypeDefsMap = new LinkedHashMap<TypeDefinition, List<TypeDefinition>>();
+		for (TypeDefinition typeDefinition: typesMap.values()) {
+			if (typeDefinition.isSeparateQuery() && (typeDefinition.getParentRelation() != MultiplicityEnum.MANY
+					|| !rootTypeDef.getTypeName().equals(typeDefinition.getParentTypeName()))) {
+				throw new ConfigException("Separate query type " + typeDefinition.getTypeName()
+						+ " must be a MANY child of the root type");
+			}
+			TypeDefinition separateTypeDef = getSeparateTypeDef(typeDefinition);
+			if (separateTypeDef == null) {
+				joinedTypeDefs.add(typeDefinition);
+			} else {
+				List<TypeDefinition> separateTypeDefs = separateTypeDefsMap.get(separateTypeDef);
+				if (separateTypeDefs == null) {
+					separateTypeDefs = new ArrayList<TypeDefinition>();
+					separateTypeDefsMap.put(separateTypeDef, separateTypeDefs);
+				}
+				separateTypeDefs.add(typeDefinition);
+			}
+		}
 
 		// Collect field mappings
         allFieldsMappings = new HashMap<String, Object>();
@@ -73,112 +107,6 @@ public class DomainDefinition {
         return allFieldsMappings;
     }
 
-	/**
-	 * Merge the values from a single row into the main object (if any) or create a new object
-	 * @param rootValues
-	 * @param rowValues
-	 */
-	public Map<String, Object> mergeValues(Map<String, Object> rootValues, Map<String, Map<String, Object>> rowValues) {
-		assert(rootTypeDef != null);
-		Map<String, Object> rootRowValues = rowValues.get(rootTypeDef.getTypeName());
-		if (rootValues == null) {
-			rootValues = rootRowValues;
-		} else {
-			// TODO verify all values are the same
-			assert(rootValues.get(rootTypeDef.getIdFieldKey()).equals(rootRowValues.get(rootTypeDef.getIdFieldKey())));
-		}
-		List<TypeDefinition> childTypeList = rootTypeDef.getChildTypes();
-		if (childTypeList == null) {
-			return rootValues;
-		}
-		for (TypeDefinition childType: childTypeList) {
-			mergeValuesToParent(rootValues, childType, rowValues);
-		}
-		
-		return rootValues;
-	}
-	
-	private static final String ZERO = "0";
-	
-	/**
-	 * Recursive function to merge the values to the parent
-	 * 
-	 * @param parentValues
-	 * @param childType
-	 * @param rowValues
-	 */
-	@SuppressWarnings("unchecked")
-	private void mergeValuesToParent(Map<String, Object> parentValues,
-			TypeDefinition childType, Map<String, Map<String, Object>> rowValues) {
-		
-		// Values that are coming in the RS record
-		Map<String, Object> childRowValues = rowValues.get(childType.getTypeName());
-		if (childRowValues == null || childRowValues.isEmpty()) {
-			return; // nothing to do
-		}
-		// Check ID is not NULL, or ZERO
-		String idFieldKey = childType.getIdFieldKey();
-		Object idFieldValue = childRowValues.get(idFieldKey);
-		if (idFieldValue == null || idFieldValue.toString().equals(ZERO)) {
-			return; // nothing to do again
-		}
-		
-		// Resulting child values
-		Map<String, Object> childValues = null;
-		
-		if (childType.getParentRelation() == MultiplicityEnum.ONE) {
-			childValues = (Map<String, Object>)parentValues.get(childType.getParentFieldName());
-			if (childValues == null) {
-				childValues = childRowValues;
-				parentValues.put(childType.getParentFieldName(), childValues);
-			} else {
-				// TODO verify they have the same ID and/or values
-				// nothing to do
-			}
-		} else { // MultiplicityEnum.MANY
-			// Add to list only if not empty
-			List<Map<String, Object>> childValuesList = (List<Map<String, Object>>)parentValues.get(childType.getParentFieldName());
-			if (childValuesList == null) { // First time
-				childValuesList = new ArrayList<Map<String, Object>>();
-				childValues = childRowValues;
-				childValuesList.add(childValues);
-				parentValues.put(childType.getParentFieldName(), childValuesList);
-			} else {
-				// Check if already in the list
-				for (Map<String, Object> childValuesObject: childValuesList) {
-					if (idFieldValue.equals(childValuesObject.get(idFieldKey))) {
-						childValues = childValuesObject; // already there
-						break;
-					}
-				}
-				// Add it only if not already there
-				if (childValues == null) {
-					childValues = childRowValues;
-					childValuesList.add(childValues);
-				}
-			}
-		}
-		
-		// Process children
-		List<TypeDefinition> grandChildTypeList = childType.getChildTypes();
-		if (grandChildTypeList != null) {
-			for (TypeDefinition grandChildType: grandChildTypeList) {
-				mergeValuesToParent(childValues, grandChildType, rowValues);
-			}
-		}
-	}
-
-	/**
-	 * @param rowValues
-	 * @return The ID of the actual object
-	 */
-	public String getRootId(Map<String, Map<String, Object>> rowValues) {
-		assert(rootTypeDef != null);
-		Map<String, Object> rootValues = rowValues.get(rootTypeDef.getTypeName());
-		// TODO check it is of type String
-		return rootValues.get(rootTypeDef.getIdFieldKey()).toString();
-	}
-	
 	public TypeDefinition getRootTypeDef() {
 		return rootTypeDef;
 	}
@@ -188,24 +116,109 @@ public class DomainDefinition {
     }
 
 	/**
-	 * Build a select statement from the table definitions
+	 * Build a select statement from the table definitions, without the separately queried types
 	 * @param selectBuilder
 	 */
 	public SelectBuilder buildSelect(SelectBuilder selectBuilder) {
 		assert(selectBuilder != null);
 		
-		for (TypeDefinition typeDef: typesMap.values()) {
+		for (TypeDefinition typeDef: joinedTypeDefs) {
 			typeDef.addToSelectBuilder(selectBuilder);
 		}
 		return selectBuilder;
 	}
+
+    /**
+     * Build the select statement of a separately queried type and its children, for a list of root IDs
+     * (:root_ids), sorted by root ID
+     * @param separateTypeDef one of getSeparateTypeDefs()
+     */
+    public SelectBuilder buildSeparateSelect(SelectBuilder selectBuilder, TypeDefinition separateTypeDef) {
+        rootTypeDef.addIdToSelectBuilder(selectBuilder);
+        for (TypeDefinition typeDef: separateTypeDefsMap.get(separateTypeDef)) {
+            typeDef.addToSelectBuilder(selectBuilder);
+        }
+        rootTypeDef.addIdInFilter(selectBuilder);
+        rootTypeDef.addIdSortFirst(selectBuilder);
+        return selectBuilder;
+    }
+
+    /**
+     * Add a separately queried type, and its parents up to the main query, to a select built by buildSelect,
+     * e.g. to filter by one of its fields. Nothing is added for a type of the main query.
+     */
+    public SelectBuilder addSeparateTypePath(SelectBuilder selectBuilder, TypeDefinition typeDef) {
+        if (getSeparateTypeDef(typeDef) == null) {
+            return selectBuilder;
+        }
+        LinkedList<TypeDefinition> pathTypeDefs = new LinkedList<TypeDefinition>();
+        for (TypeDefinition pathTypeDef = typeDef; pathTypeDef != rootTypeDef;
+             pathTypeDef = typesMap.get(pathTypeDef.getParentTypeName())) {
+            pathTypeDefs.addFirst(pathTypeDef);
+        }
+        for (TypeDefinition pathTypeDef: pathTypeDefs) {
+            pathTypeDef.addToSelectBuilder(selectBuilder);
+        }
+        return selectBuilder;
+    }
+
+    /**
+     * @return the top type of the separate query the input type belongs to, null if it is part of the main query
+     */
+    private TypeDefinition getSeparateTypeDef(TypeDefinition typeDef) {
+        for (; typeDef != null; typeDef = typesMap.get(typeDef.getParentTypeName())) {
+            if (typeDef.isSeparateQuery()) {
+                return typeDef;
+            }
+            if (typeDef.getParentTypeName() == null) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the types loaded by their own query, empty if none
+     */
+    public Collection<TypeDefinition> getSeparateTypeDefs() {
+        return separateTypeDefsMap.keySet();
+    }
 	
+    /**
+     * Build a select statement of all the root IDs, and soft delete values if any, sorted by ID
+     */
+    public SelectBuilder buildIdSelect(SelectBuilder selectBuilder) {
+        rootTypeDef.addIdsToSelectBuilder(selectBuilder);
+        return selectBuilder;
+    }
+	
+	/**
+	 * Build a select statement of the min and max root reference values
+	 * @param selectBuilder
+	 */
+	public SelectBuilder buildRefRangeSelect(SelectBuilder selectBuilder) {
+		rootTypeDef.addRefRangeToSelectBuilder(selectBuilder);
+		return selectBuilder;
+	}
+
+	public SelectBuilder addRefRangeFilter(SelectBuilder selectBuilder, boolean includeTo) {
+		// Add only for the root
+		rootTypeDef.addRefRangeFilter(selectBuilder, includeTo);
+		return selectBuilder;
+	}
+
 	public SelectBuilder addRefFilter(SelectBuilder selectBuilder) {
 		// Add only for the root
 		rootTypeDef.addRefFilter(selectBuilder);
 		return selectBuilder;
 	}
 
+	public SelectBuilder addRefKeysetFilter(SelectBuilder selectBuilder) {
+		// Add only for the root
+		rootTypeDef.addRefKeysetFilter(selectBuilder);
+		return selectBuilder;
+	}
+
     public Collection<TypeDefinition> getAllTypeDefs() {
         return typesMap.values();
     }
@@ -216,6 +229,30 @@ public class DomainDefinition {
         return selectBuilder;
     }
 
+    public SelectBuilder addIdSort(SelectBuilder selectBuilder) {
+        // Add only for the root
+        rootTypeDef.addIdSort(selectBuilder);
+        return selectBuilder;
+    }
+
+    public SelectBuilder addIdSortFirst(SelectBuilder selectBuilder) {
+        // Add only for the root
+        rootTypeDef.addIdSortFirst(selectBuilder);
+        return selectBuilder;
+    }
+
+    public SelectBuilder addIdInFilter(SelectBuilder selectBuilder) {
+        // Add only for the root
+        rootTypeDef.addIdInFilter(selectBuilder);
+        return selectBuilder;
+    }
+
+    public SelectBuilder addIdKeysetFilter(SelectBuilder selectBuilder) {
+        // Add only for the root
+        rootTypeDef.addIdKeysetFilter(selectBuilder);
+        return selectBuilder;
+    }
+
 	public FieldDefinition getRefFieldDef() {
 		// TODO Auto-generated method stub
 		return rootTypeDef.getRefFieldDef();
@@ -233,14 +270,85 @@ public class DomainDefinition {
 		return domainObject.get(rootTypeDef.getRefFieldKey());
 	}
 
-	public Map<String, Map<String, Object>> extractRow(ResultSet rs, int rowNum, TimeZone dbServerTimeZone) throws SQLException {
-		HashMap<String, Map<String, Object>> rowValues = new HashMap<String, Map<String, Object>>();
-		
-		for (Map.Entry<String, TypeDefinition> entry: typesMap.entrySet()) {
-			Map<String, Object> typeRowValues = entry.getValue().extractRow(rs, rowNum, dbServerTimeZone);
-			rowValues.put(entry.getKey(), typeRowValues);
+	/**
+	 * @return the type of the root ID field, null if it is not one of the root fields
+	 */
+	public FieldType getIdFieldType() {
+		FieldDefinition idFieldDef = rootTypeDef.getFieldsMap() != null
+				? rootTypeDef.getFieldsMap().get(rootTypeDef.getIdFieldKey()) : null;
+		return idFieldDef != null ? idFieldDef.getFieldType() : null;
+	}
+
+	public Object getIdValue(Map<String, Object> domainObject) {
+		return domainObject.get(rootTypeDef.getIdFieldKey());
+	}
+
+	/**
+	 * @return whether the domain object is soft deleted, i.e. its deleted field value is true or not zero
+	 */
+	public boolean isDeleted(Map<String, Object> domainObject) {
+		String deletedFieldKey = rootTypeDef.getDeletedFieldKey();
+		return deletedFieldKey != null && isDeletedValue(domainObject.get(deletedFieldKey));
+	}
+
+	/**
+	 * @param deletedValue a value of the deleted field
+	 */
+	public static boolean isDeletedValue(Object deletedValue) {
+		if (deletedValue instanceof Boolean) {
+			return (Boolean) deletedValue;
+		}
+		if (deletedValue instanceof Number) {
+			return ((Number) deletedValue).doubleValue() != 0;
 		}
-		return rowValues;
+		return false;
+	}
+
+	/**
+	 * @return whether the domain objects can be soft deleted
+	 */
+	public boolean hasDeletedField() {
+		return rootTypeDef.getDeletedFieldKey() != null;
+	}
+
+	/**
+	 * Compile the row extraction plan of a query built by buildSelect
+	 *
+	 * @param rs a result set of the query
+	 */
+	public RowExtractor compileRowExtractor(ResultSet rs, TimeZone dbServerTimeZone) throws SQLException {
+		return new RowExtractor(joinedTypeDefs, rootTypeDef, false, rs, dbServerTimeZone);
+	}
+
+	/**
+	 * Compile the row extraction plan of a query built by buildSeparateSelect
+	 *
+	 * @param rs a result set of the query
+	 */
+	public RowExtractor compileSeparateRowExtractor(TypeDefinition separateTypeDef, ResultSet rs,
+			TimeZone dbServerTimeZone) throws SQLException {
+		List<TypeDefinition> typeDefs = new ArrayList<TypeDefinition>(separateTypeDefsMap.get(separateTypeDef));
+		typeDefs.add(0, rootTypeDef);
+		return new RowExtractor(typeDefs, rootTypeDef, true, rs, dbServerTimeZone);
+	}
+
+	/**
+	 * Compile the JSon serialization plan of the domain objects
+	 */
+	public DocumentWriter compileDocumentWriter() {
+		return new DocumentWriter(rootTypeDef);
+	}
+
+	/**
+	 * Compile a reader of one field of a query, e.g. a field used only for filtering
+	 *
+	 * @param rs a result set of the query
+	 */
+	public RowExtractor.Column compileColumn(ResultSet rs, String typeName, String fieldName,
+			TimeZone dbServerTimeZone) throws SQLException {
+		TypeDefinition typeDef = typesMap.get(typeName);
+		return new RowExtractor.Column(rs.findColumn(typeDef.fieldAsSelectItem(fieldName)),
+				Conversions.sqlValueReader(typeDef.getFieldsMap().get(fieldName).getFieldType(), dbServerTimeZone));
 	}
 
 	@Override
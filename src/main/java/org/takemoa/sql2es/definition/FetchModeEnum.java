@@ -0,0 +1,21 @@
+package org.takemoa.sql2es.definition;
+
+/**
+ * How new records are read from the database
+ */
+public enum FetchModeEnum {
+	// One ORDER BY ... LIMIT query per batch
+	PAGED(1),
+	// One forward-only query, cut into batches as rows arrive
+	STREAMING(2);
+
+	private int value;
+
+	private FetchModeEnum(int value) {
+		this.value = value;
+	}
+
+	public int getValue() {
+		return value;
+	}
+}
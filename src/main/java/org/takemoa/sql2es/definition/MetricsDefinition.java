@@ -0,0 +1,67 @@
+package org.takemoa.sql2es.definition;
+
+/**
+ * Exposure of the channel metrics
+ *
+ * @author Take Moa
+ */
+public class MetricsDefinition {
+
+/*
+metrics:
+  jmx: true
+  prometheusPort: 9464
+  prometheusFile: <path>
+  prometheusFileIntervalSecs: 15
+ */
+
+	// One MBean per channel: org.takemoa.sql2es:type=ChannelMetrics,channel=<channel_name>
+	private boolean jmx = true;
+	// HTTP port of the Prometheus text endpoint (/metrics); 0 means no endpoint
+	private int prometheusPort = 0;
+	// File written in the Prometheus text format, e.g. for the node exporter textfile collector; null means none
+	private String prometheusFile = null;
+	private int prometheusFileIntervalSecs = 15;
+
+	public MetricsDefinition() {
+		super();
+	}
+
+	public boolean isJmx() {
+		return jmx;
+	}
+
+	public void setJmx(boolean jmx) {
+		this.jmx = jmx;
+	}
+
+	public int getPrometheusPort() {
+		return prometheusPort;
+	}
+
+	public void setPrometheusPort(int prometheusPort) {
+		this.prometheusPort = prometheusPort;
+	}
+
+	public String getPrometheusFile() {
+		return prometheusFile;
+	}
+
+	public void setPrometheusFile(String prometheusFile) {
+		this.prometheusFile = prometheusFile;
+	}
+
+	public int getPrometheusFileIntervalSecs() {
+		return prometheusFileIntervalSecs;
+	}
+
+	public void setPrometheusFileIntervalSecs(int prometheusFileIntervalSecs) {
+		this.prometheusFileIntervalSecs = prometheusFileIntervalSecs;
+	}
+
+	@Override
+	public String toString() {
+		return "MetricsDefinition [jmx=" + jmx + ", prometheusPort=" + prometheusPort + ", prometheusFile="
+				+ prometheusFile + ", prometheusFileIntervalSecs=" + prometheusFileIntervalSecs + "]";
+	}
+}
@@ -0,0 +1,114 @@
+package org.takemoa.sql2es.definition;
+
+/**
+ * JDBC connection pool settings of a data source
+ *
+ * @author Take Moa
+ */
+public class PoolDefinition {
+
+/*
+    pool:
+      enabled: true
+      minIdle: 1
+      maxTotal: 8
+      maxWaitMillis: 30000
+      validationQuery: "SELECT 1"
+      idleEvictionSecs: 60
+      maxIdleSecs: 300
+      statementCacheSize: 20
+ */
+
+	// Whether connections are pooled at all
+	private boolean enabled = true;
+	// Min idle and max total (active + idle) connections
+	private int minIdle = 0;
+	private int maxTotal = 8;
+	// Max wait for a free connection; -1 means for ever
+	private long maxWaitMillis = 30000;
+	// Query used to validate connections on borrow and while idle
+	private String validationQuery = null;
+	// Interval between idle connections checks; 0 means no check
+	private int idleEvictionSecs = 60;
+	// Idle time after which a connection is closed
+	private int maxIdleSecs = 300;
+	// Cached prepared statements per connection; 0 means no statement caching
+	private int statementCacheSize = 20;
+
+	public PoolDefinition() {
+		super();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	public String getValidationQuery() {
+		return validationQuery;
+	}
+
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	public int getIdleEvictionSecs() {
+		return idleEvictionSecs;
+	}
+
+	public void setIdleEvictionSecs(int idleEvictionSecs) {
+		this.idleEvictionSecs = idleEvictionSecs;
+	}
+
+	public int getMaxIdleSecs() {
+		return maxIdleSecs;
+	}
+
+	public void setMaxIdleSecs(int maxIdleSecs) {
+		this.maxIdleSecs = maxIdleSecs;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolDefinition [enabled=" + enabled + ", minIdle=" + minIdle
+				+ ", maxTotal=" + maxTotal + ", maxWaitMillis=" + maxWaitMillis
+				+ ", validationQuery=" + validationQuery + ", idleEvictionSecs="
+				+ idleEvictionSecs + ", maxIdleSecs=" + maxIdleSecs
+				+ ", statementCacheSize=" + statementCacheSize + "]";
+	}
+}
@@ -0,0 +1,255 @@
+package org.takemoa.sql2es.definition;
+
+import org.takemoa.sql2es.util.Conversions;
+import org.takemoa.sql2es.util.SqlValueReader;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Row extraction plan of a domain query: column indexes, value readers and field names of each type,
+ * resolved once per query instead of for every row.
+ *
+ * <p>Rows are merged straight into the domain objects: only the IDs are read to find the root and child
+ * objects a row belongs to, the other values are read only when a new object is created.</p>
+ *
+ * @author Take Moa
+ */
+public class RowExtractor {
+
+    private static final String ZERO = "0";
+
+    // Per type; null if the type has no fields
+    private final String[][] fieldNames;
+    private final int[][] columnIndexes;
+    private final SqlValueReader[][] valueReaders;
+
+    // Domain tree, per type
+    private final int rootTypeIndex;
+    // Index of the ID field in the type fields, -1 if none
+    private final int[] idFieldIndexes;
+    private final int[][] childTypeIndexes;
+    private final String[] parentFieldNames;
+    private final boolean[] manyInParent;
+
+    /**
+     * @param typeDefs    the types of the query, parents first
+     * @param rootTypeDef the root type
+     * @param rootIdOnly  whether the query selects only the ID of the root type, i.e. it only adds children to
+     *                    existing root objects
+     * @param rs          a result set of the query, used to resolve the column indexes
+     * @param dbTimeZone  the database time zone, if any
+     */
+    RowExtractor(Collection<TypeDefinition> typeDefs, TypeDefinition rootTypeDef, boolean rootIdOnly, ResultSet rs,
+                 TimeZone dbTimeZone) throws SQLException {
+        int typeCount = typeDefs.size();
+        fieldNames = new String[typeCount][];
+        columnIndexes = new int[typeCount][];
+        valueReaders = new SqlValueReader[typeCount][];
+        idFieldIndexes = new int[typeCount];
+        childTypeIndexes = new int[typeCount][];
+        parentFieldNames = new String[typeCount];
+        manyInParent = new boolean[typeCount];
+
+        Map<String, Integer> typeIndexMap = new HashMap<String, Integer>();
+        int typeIndex = 0;
+        for (TypeDefinition typeDef : typeDefs) {
+            typeIndexMap.put(typeDef.getTypeName(), typeIndex);
+            parentFieldNames[typeIndex] = typeDef.getParentFieldName();
+            manyInParent[typeIndex] = (typeDef.getParentRelation() == MultiplicityEnum.MANY);
+            idFieldIndexes[typeIndex] = -1;
+            if (typeDef.getFieldsMap() != null) {
+                Collection<FieldDefinition> fieldDefs = typeDef.getFieldsMap().values();
+                if (rootIdOnly && typeDef == rootTypeDef) {
+                    fieldDefs = Collections.singletonList(typeDef.getFieldsMap().get(typeDef.getIdFieldKey()));
+                }
+                int fieldCount = fieldDefs.size();
+                fieldNames[typeIndex] = new String[fieldCount];
+                columnIndexes[typeIndex] = new int[fieldCount];
+                valueReaders[typeIndex] = new SqlValueReader[fieldCount];
+
+                int fieldIndex = 0;
+                for (FieldDefinition fieldDef : fieldDefs) {
+                    fieldNames[typeIndex][fieldIndex] = fieldDef.getFieldName();
+                    columnIndexes[typeIndex][fieldIndex] = rs.findColumn(
+                            typeDef.fieldAsSelectItem(fieldDef.getFieldName()));
+                    valueReaders[typeIndex][fieldIndex] = Conversions.sqlValueReader(fieldDef.getFieldType(),
+                            dbTimeZone);
+                    if (fieldDef.getFieldName().equals(typeDef.getIdFieldKey())) {
+                        idFieldIndexes[typeIndex] = fieldIndex;
+                    }
+                    ++fieldIndex;
+                }
+            }
+            ++typeIndex;
+        }
+
+        // Children which are part of the query
+        for (TypeDefinition typeDef : typeDefs) {
+            List<Integer> childIndexes = new ArrayList<Integer>();
+            if (typeDef.getChildTypes() != null) {
+                for (TypeDefinition childTypeDef : typeDef.getChildTypes()) {
+                    Integer childIndex = typeIndexMap.get(childTypeDef.getTypeName());
+                    if (childIndex != null) {
+                        childIndexes.add(childIndex);
+                    }
+                }
+            }
+            int[] childIndexArray = new int[childIndexes.size()];
+            for (int i = 0; i < childIndexArray.length; ++i) {
+                childIndexArray[i] = childIndexes.get(i);
+            }
+            childTypeIndexes[typeIndexMap.get(typeDef.getTypeName())] = childIndexArray;
+        }
+        rootTypeIndex = typeIndexMap.get(rootTypeDef.getTypeName());
+    }
+
+    /**
+     * @return The ID of the root object of the current row
+     */
+    public String readRootId(ResultSet rs) throws SQLException {
+        // TODO check it is of type String
+        return readField(rs, rootTypeIndex, idFieldIndexes[rootTypeIndex]).toString();
+    }
+
+    /**
+     * Merge the values of the current row into the root object, or create a new root object.
+     *
+     * @param rootValues the root object the row belongs to, null if not created yet
+     * @return the root object
+     */
+    public Map<String, Object> mergeRow(ResultSet rs, Map<String, Object> rootValues) throws SQLException {
+        if (rootValues == null) {
+            rootValues = readObject(rs, rootTypeIndex);
+        }
+        mergeChildren(rs, rootTypeIndex, rootValues);
+        return rootValues;
+    }
+
+    /**
+     * Recursive function to merge the children values of the current row to their parent
+     */
+    @SuppressWarnings("unchecked")
+    private void mergeChildren(ResultSet rs, int parentTypeIndex, Map<String, Object> parentValues)
+            throws SQLException {
+        for (int childTypeIndex : childTypeIndexes[parentTypeIndex]) {
+            int idFieldIndex = idFieldIndexes[childTypeIndex];
+            if (idFieldIndex < 0) {
+                continue; // nothing to do
+            }
+            // Check ID is not NULL, or ZERO
+            Object idFieldValue = readField(rs, childTypeIndex, idFieldIndex);
+            if (idFieldValue == null || isZero(idFieldValue)) {
+                continue; // nothing to do again
+            }
+
+            String parentFieldName = parentFieldNames[childTypeIndex];
+            Map<String, Object> childValues = null;
+            if (!manyInParent[childTypeIndex]) {
+                childValues = (Map<String, Object>) parentValues.get(parentFieldName);
+                if (childValues == null) {
+                    childValues = readObject(rs, childTypeIndex);
+                    parentValues.put(parentFieldName, childValues);
+                }
+            } else {
+                ChildValuesList childValuesList = (ChildValuesList) parentValues.get(parentFieldName);
+                if (childValuesList == null) { // First time
+                    childValuesList = new ChildValuesList();
+                    parentValues.put(parentFieldName, childValuesList);
+                } else {
+                    // Check if already in the list
+                    childValues = childValuesList.getById(idFieldValue);
+                }
+                // Add it only if not already there
+                if (childValues == null) {
+                    childValues = readObject(rs, childTypeIndex);
+                    childValuesList.add(idFieldValue, childValues);
+                }
+            }
+
+            // Process children
+            mergeChildren(rs, childTypeIndex, childValues);
+        }
+    }
+
+    /**
+     * Read all the values of one type from the current row
+     */
+    private Map<String, Object> readObject(ResultSet rs, int typeIndex) throws SQLException {
+        String[] typeFieldNames = fieldNames[typeIndex];
+        int[] typeColumnIndexes = columnIndexes[typeIndex];
+        SqlValueReader[] typeValueReaders = valueReaders[typeIndex];
+
+        Map<String, Object> values = new LinkedHashMap<String, Object>(mapCapacity(typeFieldNames.length));
+        for (int fieldIndex = 0; fieldIndex < typeFieldNames.length; ++fieldIndex) {
+            values.put(typeFieldNames[fieldIndex], typeValueReaders[fieldIndex].read(rs, typeColumnIndexes[fieldIndex]));
+        }
+        return values;
+    }
+
+    private Object readField(ResultSet rs, int typeIndex, int fieldIndex) throws SQLException {
+        return valueReaders[typeIndex][fieldIndex].read(rs, columnIndexes[typeIndex][fieldIndex]);
+    }
+
+    /**
+     * Same as value.toString().equals("0"), without building the string for integral values
+     */
+    private static boolean isZero(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            return ((Number) value).longValue() == 0;
+        }
+        return ZERO.equals(value.toString());
+    }
+
+    /**
+     * Initial capacity so that the map is not resized
+     */
+    private static int mapCapacity(int size) {
+        return (size * 4) / 3 + 1;
+    }
+
+    /**
+     * List of MANY children, indexed by ID so that finding a child does not scan the list. It is stored as is
+     * into the parent object and serialized as a plain list.
+     */
+    private static class ChildValuesList extends ArrayList<Map<String, Object>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient HashMap<Object, Map<String, Object>> idIndex =
+                new HashMap<Object, Map<String, Object>>();
+
+        Map<String, Object> getById(Object idValue) {
+            return idIndex.get(idValue);
+        }
+
+        void add(Object idValue, Map<String, Object> childValues) {
+            idIndex.put(idValue, childValues);
+            add(childValues);
+        }
+    }
+
+    /**
+     * One field of the query
+     */
+    public static class Column {
+        private final int columnIndex;
+        private final SqlValueReader valueReader;
+
+        Column(int columnIndex, SqlValueReader valueReader) {
+            this.columnIndex = columnIndex;
+            this.valueReader = valueReader;
+        }
+
+        public Object read(ResultSet rs) throws SQLException {
+            return valueReader.read(rs, columnIndex);
+        }
+    }
+}
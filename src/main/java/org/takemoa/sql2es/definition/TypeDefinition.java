@@ -4,10 +4,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.commons.lang.StringUtils;
 import org.takemoa.sql2es.sql.SelectBuilder;
 import org.takemoa.sql2es.sql.SortTypeEnum;
-import org.takemoa.sql2es.util.Conversions;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -23,6 +20,12 @@ public class TypeDefinition {
   idField: <field_name_from_field_list>
   # reference field - for sorting and detecting new values
   refField: <field_name_from_field_list>
+  # soft delete field - the domain objects whose value is true or not zero are deleted from ES instead of
+  # indexed; main domain/object only
+  deletedField: <field_name_from_field_list>
+  # Load this type with its own query per batch instead of joining it to the main query; MANY children of
+  # the root type only
+  separateQuery: true | false
   # Additional sort fields
   sortFields:
     <field_name_from_field_list>: ASC | DESC
@@ -60,6 +63,10 @@ public class TypeDefinition {
 	private LinkedHashMap<String, FieldDefinition> fieldsMap;
     @JsonProperty("updates")
     private LinkedHashMap<String, TypeUpdateDefinition> updatesMap;
+    @JsonProperty("separateQuery")
+    private boolean separateQuery = false;
+    @JsonProperty("deletedField")
+    private String deletedFieldKey = null;
 
 	// A list of children type definitions
 	private List<TypeDefinition> childTypes = null;
@@ -67,6 +74,9 @@ public class TypeDefinition {
 	// CONSTANTS
 	public final static String SQL_TYPE_SEP = "___";
 	public static final String TYPE_NAME_SEP = ".";
+	// Select item names for the reference range
+	public static final String REF_MIN = "min_ref_";
+	public static final String REF_MAX = "max_ref_";
 
 	public TypeDefinition() {
 	}
@@ -162,6 +172,22 @@ public class TypeDefinition {
         this.updatesMap = updatesMap;
     }
 
+    public boolean isSeparateQuery() {
+        return separateQuery;
+    }
+
+    public void setSeparateQuery(boolean separateQuery) {
+        this.separateQuery = separateQuery;
+    }
+
+    public String getDeletedFieldKey() {
+        return deletedFieldKey;
+    }
+
+    public void setDeletedFieldKey(String deletedFieldKey) {
+        this.deletedFieldKey = deletedFieldKey;
+    }
+
     private String selectItemPrefix = null;
 
 	/**
@@ -203,7 +229,7 @@ public class TypeDefinition {
                 FieldDefinition updateRefFieldDef = fieldsMap.get(entry.getValue().getRefField());
                 // TODO validate
                 assert (updateRefFieldDef != null);
-                entry.getValue().init(entry.getKey(), updateRefFieldDef);
+                entry.getValue().init(entry.getKey(), typeName, updateRefFieldDef);
             }
         }
 		
@@ -257,18 +283,7 @@ public class TypeDefinition {
 	
 	public void addToSelectBuilder(SelectBuilder selectBuilder) {
 		// 1. Add tables
-		if (tablesMap != null) {
-			for (Map.Entry<String, TableDefinition> entry: tablesMap.entrySet()) {
-				TableDefinition tableDefinition = entry.getValue();
-				// FROM/JOIN
-				if (tableDefinition.isJoined()) {
-					selectBuilder.join(tableDefinition.getTableName(), tableDefinition.getNickname(), tableDefinition.getJoinDef().getJoinString(),
-							tableDefinition.getJoinDef().getParentColumns(), tableDefinition.getJoinDef().getChildColumns());
-				} else {
-					selectBuilder.from(tableDefinition.getTableName(), tableDefinition.getNickname());
-				}
-			}
-		}
+		addTablesToSelectBuilder(selectBuilder);
 		
 		// 2. add select fields, and sort by
 		if (getFieldsMap() != null) {
@@ -292,6 +307,88 @@ public class TypeDefinition {
 		}
 	}
 
+	private void addTablesToSelectBuilder(SelectBuilder selectBuilder) {
+		if (tablesMap != null) {
+			for (Map.Entry<String, TableDefinition> entry: tablesMap.entrySet()) {
+				TableDefinition tableDefinition = entry.getValue();
+				// FROM/JOIN
+				if (tableDefinition.isJoined()) {
+					selectBuilder.join(tableDefinition.getTableName(), tableDefinition.getNickname(), tableDefinition.getJoinDef().getJoinString(),
+							tableDefinition.getJoinDef().getParentColumns(), tableDefinition.getJoinDef().getChildColumns());
+				} else {
+					selectBuilder.from(tableDefinition.getTableName(), tableDefinition.getNickname());
+				}
+			}
+		}
+	}
+
+    /**
+     * Add this type tables and its ID field only, e.g. to find the parent of separately queried children
+     * @param selectBuilder
+     */
+    public void addIdToSelectBuilder(SelectBuilder selectBuilder) {
+        addTablesToSelectBuilder(selectBuilder);
+        selectBuilder.select(fieldsMap.get(idFieldKey).getSqlExpression(), fieldAsSelectItem(idFieldKey));
+    }
+
+    /**
+     * Build a select of the ID, and soft delete field if any, of all the domain objects: this type tables and
+     * filters only, sorted by ID
+     * @param selectBuilder
+     */
+    public void addIdsToSelectBuilder(SelectBuilder selectBuilder) {
+        // Only root type can select the domain object IDs
+        assert (parentFieldName == null);
+
+        addIdToSelectBuilder(selectBuilder);
+        if (deletedFieldKey != null) {
+            selectBuilder.select(fieldsMap.get(deletedFieldKey).getSqlExpression(), fieldAsSelectItem(deletedFieldKey));
+        }
+        selectBuilder.where(whereFilters);
+        addIdSortFirst(selectBuilder);
+    }
+
+    /**
+     * Add filtering by a list of ID values: idField IN (:root_ids)
+     * @param selectBuilder
+     */
+    public void addIdInFilter(SelectBuilder selectBuilder) {
+        // Only root type can add id filter
+        assert (parentFieldName == null);
+
+        selectBuilder.where(fieldsMap.get(idFieldKey).getSqlExpression() + " IN (:" + SelectBuilder.P_ROOT_IDS + ")");
+    }
+
+    /**
+     * Build a select of the min and max reference values (as REF_MIN and REF_MAX), from this type tables only
+     * @param selectBuilder
+     */
+    public void addRefRangeToSelectBuilder(SelectBuilder selectBuilder) {
+        // Only root type has a reference field
+        assert (parentFieldName == null);
+        String refExpression = getRefFieldDef().getSqlExpression();
+
+        addTablesToSelectBuilder(selectBuilder);
+        selectBuilder.select("MIN(" + refExpression + ")", REF_MIN);
+        selectBuilder.select("MAX(" + refExpression + ")", REF_MAX);
+        selectBuilder.where(whereFilters);
+    }
+
+    /**
+     * Add filtering by a range of reference values
+     * refField >= :partition_from AND refField < :partition_to (or <= for the last range)
+     * @param selectBuilder
+     * @param includeTo whether the range upper limit is included
+     */
+    public void addRefRangeFilter(SelectBuilder selectBuilder, boolean includeTo) {
+        // Only root type can add ref filter
+        assert (parentFieldName == null);
+        String refExpression = getRefFieldDef().getSqlExpression();
+
+        selectBuilder.where(refExpression + " >= :" + SelectBuilder.P_PARTITION_FROM);
+        selectBuilder.where(refExpression + (includeTo ? " <= :" : " < :") + SelectBuilder.P_PARTITION_TO);
+    }
+
 	public FieldDefinition getRefFieldDef() {
 		if (StringUtils.isEmpty(refFieldKey)) {
 			return null;
@@ -320,19 +417,55 @@ public class TypeDefinition {
         }
     }
 
+    /**
+     * Add keyset filtering by reference and ID values, for a query sorted by refField, idField:
+     * refField > :last_ref_value OR (refField = :last_ref_value AND idField > :last_id_value)
+     * Only the ID is used if there is no reference field or it is the ID field itself.
+     * @param selectBuilder
+     */
+    public void addRefKeysetFilter(SelectBuilder selectBuilder) {
+        // Only root type can add ref filter
+        assert (parentFieldName == null);
+
+        List<String> keyExpressions = new ArrayList<String>(2);
+        List<String> keyParamNames = new ArrayList<String>(2);
+        if (StringUtils.isNotEmpty(refFieldKey) && !refFieldKey.equals(idFieldKey)) {
+            keyExpressions.add(fieldsMap.get(refFieldKey).getSqlExpression());
+            keyParamNames.add(SelectBuilder.P_REF_VALUE);
+        }
+        keyExpressions.add(fieldsMap.get(idFieldKey).getSqlExpression());
+        keyParamNames.add(SelectBuilder.P_ID_VALUE);
+
+        selectBuilder.whereKeysetAfter(keyExpressions, keyParamNames);
+    }
+
     public void addRefSort(SelectBuilder selectBuilder) {
         // Only root type can add ref filter
         assert (parentFieldName == null);
-        assert (refFieldKey != null);
 
-        selectBuilder.orderBy(fieldAsSelectItem(refFieldKey), SortTypeEnum.ASC);
+        if (StringUtils.isNotEmpty(refFieldKey)) {
+            selectBuilder.orderBy(fieldAsSelectItem(refFieldKey), SortTypeEnum.ASC);
+        }
+    }
+
+    /**
+     * Add sorting by the ID field, if not already sorted by it as reference field
+     * @param selectBuilder
+     */
+    public void addIdSort(SelectBuilder selectBuilder) {
+        // Only root type can add id sort
+        assert (parentFieldName == null);
+
+        if (!idFieldKey.equals(refFieldKey)) {
+            selectBuilder.orderBy(fieldAsSelectItem(idFieldKey), SortTypeEnum.ASC);
+        }
     }
 
     /**
      * Add filtering and sorting fields
      * refField <= :last_ref_value and refUpdateField >= :last_ref_update_value
      * Add additional where clauses
-     * Add sort by refUpdateField
+     * Add sort by the root id, so that the updated domain objects can be paged (see addIdKeysetFilter)
      */
     public void addUpdateFiltersAndSort(SelectBuilder selectBuilder,FieldDefinition refFieldDef, TypeUpdateDefinition
             typeUpdateDef, boolean nullRefUpdateValue) {
@@ -346,23 +479,27 @@ public class TypeDefinition {
                     .P_REF_UPDATE_VALUE);
         }
         selectBuilder.where(typeUpdateDef.getWhereFilters());
+    }
+
+    /**
+     * Sort by the ID first, so that the rows of a domain object are consecutive
+     */
+    public void addIdSortFirst(SelectBuilder selectBuilder) {
+        // Only root type can add id sort
+        assert (parentFieldName == null);
 
-        // Sort by
-        selectBuilder.orderByFirst(fieldAsSelectItem(typeUpdateDef.getRefField()), SortTypeEnum.ASC);
+        selectBuilder.orderByFirst(fieldAsSelectItem(idFieldKey), SortTypeEnum.ASC);
     }
 
-    public Map<String, Object> extractRow(ResultSet rs, int rowNum, TimeZone dbServerTimeZone) throws SQLException {
-        if (getFieldsMap() == null) {
-            return null;
-        }
+    /**
+     * Add filtering by ID: idField > :last_id_value
+     */
+    public void addIdKeysetFilter(SelectBuilder selectBuilder) {
+        // Only root type can add id filter
+        assert (parentFieldName == null);
 
-        Map<String, Object> typeRowValues = new LinkedHashMap<String, Object>();
-        for (FieldDefinition fieldDef: getFieldsMap().values()) {
-            String columnLabel = fieldAsSelectItem(fieldDef.getFieldName());
-            Object value = Conversions.sqlToESValue(rs, fieldDef, columnLabel, dbServerTimeZone);
-            typeRowValues.put(fieldDef.getFieldName(), value);
-        }
-        return typeRowValues;
+        selectBuilder.whereKeysetAfter(Collections.singletonList(fieldsMap.get(idFieldKey).getSqlExpression()),
+                Collections.singletonList(SelectBuilder.P_ID_VALUE));
     }
 
     public boolean hasUpdates() {
@@ -390,6 +527,8 @@ public class TypeDefinition {
                 ", tablesMap=" + tablesMap +
                 ", fieldsMap=" + fieldsMap +
                 ", updatesMap=" + updatesMap +
+                ", separateQuery=" + separateQuery +
+                ", deletedFieldKey='" + deletedFieldKey + '\'' +
                 ", childTypes=" + childTypes +
                 ", selectItemPrefix='" + selectItemPrefix + '\'' +
                 '}';
@@ -25,14 +25,17 @@ public class TypeUpdateDefinition {
     @JsonIgnore
     private String name = null;
     @JsonIgnore
+    private String typeName = null;
+    @JsonIgnore
     private FieldDefinition refFieldDef = null;
 
 
     public TypeUpdateDefinition() {
     }
 
-    public void init(String name, FieldDefinition refFieldDef) {
+    public void init(String name, String typeName, FieldDefinition refFieldDef) {
         this.name = name;
+        this.typeName = typeName;
         this.refFieldDef = refFieldDef;
     }
 
@@ -41,6 +44,13 @@ public class TypeUpdateDefinition {
         return name;
     }
 
+    /**
+     * @return name of the type holding the update reference field
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+
     public FieldDefinition getRefFieldDef() {
         return refFieldDef;
     }
@@ -1,61 +1,163 @@
 package org.takemoa.sql2es.es;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
+import org.springframework.util.StringUtils;
+import org.takemoa.sql2es.config.ConfigException;
+import org.takemoa.sql2es.config.ConfigManager;
 import org.takemoa.sql2es.config.Registry;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Keeps one long lived client per ES cluster, shared by all channels and runs. Clients are checked
+ * periodically in the background and re-created on failure; they are closed at JVM exit.
+ *
+ * <p>A client used for longer than one request (e.g. for a whole channel run) is acquired and released: a
+ * failed client is replaced right away for the next users, but closed only once its current users released
+ * it.</p>
+ *
  * @author Take Moa
  *
  */
 public class ESClientManager {
 
-	private static HashMap<String, Node> esNodeMap = new HashMap<String, Node>();
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final long HEALTH_CHECK_TIMEOUT_MILLIS = 10000;
+
+	// Current client per cluster
+	private static HashMap<String, ESClusterClient> esClientMap = new HashMap<String, ESClusterClient>();
+	// Acquired clients, current or replaced; guarded by esClientMap
+	private static IdentityHashMap<Client, ESClusterClient> acquiredClients =
+			new IdentityHashMap<Client, ESClusterClient>();
+
+	private static final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "es-health-check");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread("es-clients-shutdown") {
+			@Override
+			public void run() {
+				closeAll();
+			}
+		});
+	}
 	
 	/**
-	 * Retrieve a client for the input ES cluser
+	 * Retrieve a client for the input ES cluser, for one request
 	 * @param esClusterName
 	 * @return
 	 */
 	public static Client get(String esClusterName) {
-		synchronized (esNodeMap) {
-			Node node = esNodeMap.get(esClusterName);
-			if (node == null) {
-				node = createClientNode(esClusterName);
-				esNodeMap.put(esClusterName, node);
-			} else if (node.isClosed()) {
-				node.start();
+		synchronized (esClientMap) {
+			return getClusterClient(esClusterName).client;
+		}
+	}
+
+	/**
+	 * Retrieve a client for the input ES cluster, kept open until released
+	 */
+	public static Client acquire(String esClusterName) {
+		synchronized (esClientMap) {
+			ESClusterClient clusterClient = getClusterClient(esClusterName);
+			++clusterClient.users;
+			acquiredClients.put(clusterClient.client, clusterClient);
+			return clusterClient.client;
+		}
+	}
+
+	/**
+	 * Release an acquired client; closed if it was replaced and this was its last user
+	 */
+	public static void release(Client client) {
+		synchronized (esClientMap) {
+			ESClusterClient clusterClient = acquiredClients.get(client);
+			if (clusterClient == null) {
+				return;
+			}
+			if (--clusterClient.users <= 0) {
+				acquiredClients.remove(client);
+				if (clusterClient.replaced) {
+					clusterClient.close();
+				}
 			}
-			return node.client();
 		}
 	}
 	
 	public static void close(String esClusterName) {
-		synchronized (esNodeMap) {
-			Node node = esNodeMap.get(esClusterName);
-			if (node != null) {
-				node.close();
-				esNodeMap.remove(esClusterName);
+		synchronized (esClientMap) {
+			ESClusterClient clusterClient = esClientMap.remove(esClusterName);
+			if (clusterClient != null) {
+				retire(clusterClient);
 			}
 		}
 	}
 	
 	public static void closeAll() {
-		synchronized (esNodeMap) {
-			for (Node node: esNodeMap.values()) {
-				node.close();
+		synchronized (esClientMap) {
+			for (ESClusterClient clusterClient : esClientMap.values()) {
+				clusterClient.close();
+			}
+			esClientMap.clear();
+			for (ESClusterClient clusterClient : acquiredClients.values()) {
+				clusterClient.close();
 			}
-			esNodeMap.clear();;
+			acquiredClients.clear();
+		}
+	}
+
+	/**
+	 * The current client of a cluster, created or re-created if needed; must be called holding esClientMap
+	 */
+	private static ESClusterClient getClusterClient(String esClusterName) {
+		ESClusterClient clusterClient = esClientMap.get(esClusterName);
+		if (clusterClient != null && !clusterClient.isHealthy()) {
+			logger.warn("ES cluster '{}' client is not healthy, reconnecting", esClusterName);
+			esClientMap.remove(esClusterName);
+			retire(clusterClient);
+			clusterClient = null;
+		}
+		if (clusterClient == null) {
+			clusterClient = createClient(esClusterName);
+			esClientMap.put(esClusterName, clusterClient);
+		}
+		return clusterClient;
+	}
+
+	/**
+	 * Close a replaced client now if unused, or once released by its last user
+	 */
+	private static void retire(ESClusterClient clusterClient) {
+		clusterClient.replaced = true;
+		clusterClient.stopHealthCheck();
+		if (clusterClient.users <= 0) {
+			clusterClient.close();
 		}
 	}
 
-	private static Node createClientNode(String esClusterName) {
-		// TODO can we set a specific name???
+	private static ESClusterClient createClient(String esClusterName) {
+		ConfigManager configManager = Registry.getConfigManager();
 
         // Get cluster settings from config
         Map<String, String> esClusterSettings = Registry.getConfig().getEsClusterSettings(esClusterName);
@@ -63,12 +165,107 @@ public class ESClientManager {
         ImmutableSettings.Builder builder = ImmutableSettings.builder();
         builder.put("cluster.name", esClusterName);
         if (esClusterSettings != null) {
-            builder.put(esClusterSettings);
+            for (Map.Entry<String, String> entry : esClusterSettings.entrySet()) {
+                // Skip sql2es own settings
+                if (!entry.getKey().startsWith(ConfigManager.ES_SQL2ES_SETTINGS_PREFIX)) {
+                    builder.put(entry.getKey(), entry.getValue());
+                }
+            }
         }
 
+		long healthCheckMillis = configManager.getEsClusterHealthCheckSecs(esClusterName) * 1000L;
+		if (ConfigManager.ES_CLIENT_TRANSPORT.equals(configManager.getEsClusterClientType(esClusterName))) {
+			TransportClient transportClient = new TransportClient(builder);
+			for (String address : configManager.getEsClusterTransportAddresses(esClusterName)) {
+				transportClient.addTransportAddress(parseTransportAddress(esClusterName, address));
+			}
+			logger.info("Connected transport client to ES cluster '{}': {}", esClusterName,
+					transportClient.transportAddresses());
+			return new ESClusterClient(esClusterName, transportClient, null, healthCheckMillis);
+		}
+
         // And the node
         Node node = NodeBuilder.nodeBuilder().client(true).settings(builder).node();
+		logger.info("Started client node for ES cluster '{}'", esClusterName);
+
+		return new ESClusterClient(esClusterName, node.client(), node, healthCheckMillis);
+	}
+
+	private static InetSocketTransportAddress parseTransportAddress(String esClusterName, String address) {
+		String[] hostPort = StringUtils.split(address.trim(), ":");
+		try {
+			if (hostPort == null) {
+				return new InetSocketTransportAddress(address.trim(), 9300);
+			}
+			return new InetSocketTransportAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+		} catch (NumberFormatException e) {
+			throw new ConfigException("Invalid transport address " + address + " for ES cluster: " + esClusterName, e);
+		}
+	}
+
+	/**
+	 * Client of one ES cluster, with its node if it is a client node
+	 */
+	private static class ESClusterClient {
+		private final String esClusterName;
+		private final Client client;
+		private final Node node;
+		// Set by the background health check
+		private volatile boolean healthy = true;
+		private ScheduledFuture<?> healthCheck = null;
+		// Guarded by esClientMap
+		private int users = 0;
+		private boolean replaced = false;
+
+		/**
+		 * @param healthCheckMillis interval of the health checks, 0 means none
+		 */
+		ESClusterClient(String esClusterName, Client client, Node node, long healthCheckMillis) {
+			this.esClusterName = esClusterName;
+			this.client = client;
+			this.node = node;
+			if (healthCheckMillis > 0) {
+				healthCheck = healthChecker.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						checkHealth();
+					}
+				}, healthCheckMillis, healthCheckMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		boolean isHealthy() {
+			return healthy && (node == null || !node.isClosed());
+		}
+
+		private void checkHealth() {
+			try {
+				client.admin().cluster().prepareHealth().execute().actionGet(HEALTH_CHECK_TIMEOUT_MILLIS);
+			} catch (Exception e) {
+				logger.warn("ES cluster '{}' health check failed: {}", esClusterName, e.getMessage());
+				logger.debug("ES health check failed", e);
+				healthy = false;
+				stopHealthCheck();
+			}
+		}
 
-		return node;
+		void stopHealthCheck() {
+			if (healthCheck != null) {
+				healthCheck.cancel(false);
+			}
+		}
+
+		void close() {
+			stopHealthCheck();
+			try {
+				if (node != null) {
+					node.close();
+				} else {
+					client.close();
+				}
+			} catch (Exception e) {
+				logger.warn("Failed to close ES client", e);
+			}
+		}
 	}
 }
@@ -0,0 +1,203 @@
+package org.takemoa.sql2es.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The metrics of one channel, per stage: SQL fetch, domain object assembly, JSon serialization, bulk indexing
+ * and checkpoints. Counters and histograms accumulate over all the runs of the channel; gauges are read on
+ * demand.
+ *
+ * <p>Exposed as a JMX MBean (one attribute per counter and gauge, count/sum/mean/max per histogram) and in
+ * the Prometheus text format, see MetricsExporter.</p>
+ *
+ * @author Take Moa
+ */
+public class ChannelMetrics implements DynamicMBean {
+
+    // Latencies from 1 ms to about 4 mins
+    private static final double[] SECONDS_BOUNDS = Histogram.exponentialBounds(0.001, 2, 18);
+    // Sizes from 1 KB to 512 MB
+    private static final double[] BYTES_BOUNDS = Histogram.exponentialBounds(1024, 4, 10);
+    // Join fan-out from 1 to 4096 rows per domain object
+    private static final double[] FAN_OUT_BOUNDS = Histogram.exponentialBounds(1, 2, 13);
+
+    private final String channelName;
+    private final Map<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+    // Stages
+    public final Histogram sqlSeconds = add(new Histogram("sql_query_seconds",
+            "Database time of the SQL queries, rows transfer included, assembly excluded", SECONDS_BOUNDS));
+    public final Histogram assemblySeconds = add(new Histogram("assembly_seconds",
+            "Time to assemble the rows of a batch into domain objects", SECONDS_BOUNDS));
+    public final Histogram rowsPerObject = add(new Histogram("rows_per_object",
+            "Rows per domain object of a batch (join fan-out)", FAN_OUT_BOUNDS));
+    public final Histogram serializeSeconds = add(new Histogram("serialize_seconds",
+            "Time to serialize the documents of a batch", SECONDS_BOUNDS));
+    public final Histogram bulkSeconds = add(new Histogram("bulk_seconds",
+            "Latency of the ES bulk requests, retries counted separately", SECONDS_BOUNDS));
+    public final Histogram bulkBytes = add(new Histogram("bulk_bytes",
+            "Estimated size of the ES bulk requests", BYTES_BOUNDS));
+
+    public final Counter rows = add(new Counter("rows", "Rows fetched from the database"));
+    public final Counter domainObjects = add(new Counter("domain_objects", "Domain objects assembled"));
+    public final Counter documentsIndexed = add(new Counter("documents_indexed",
+            "Documents queued for indexing, inserted or updated"));
+    public final Counter documentsDeleted = add(new Counter("documents_deleted",
+            "Documents queued for deletion"));
+    public final Counter bulkRequests = add(new Counter("bulk_requests", "ES bulk requests, retries included"));
+    public final Counter bulkItemsRejected = add(new Counter("bulk_items_rejected",
+            "Bulk items rejected by an overloaded ES, sent again"));
+    public final Counter bulkItemsFailed = add(new Counter("bulk_items_failed",
+            "Bulk items refused by ES, dead lettered"));
+    public final Counter changeEventsSkipped = add(new Counter("change_events_skipped",
+            "Change events without root ID value, not indexed"));
+    public final Counter reconcileFailures = add(new Counter("reconcile_failures",
+            "ID reconciliations failed, e.g. on IDs sorted differently by the database and ES"));
+    public final Counter runs = add(new Counter("runs", "Runs of the channel"));
+
+    // Current or last run
+    private long runStartNanos = 0;
+    private long runEndNanos = 0;
+    private long runStartRows = 0;
+    private long runStartDocuments = 0;
+
+    public ChannelMetrics(String channelName) {
+        this.channelName = channelName;
+        add(new Gauge("run_rows_per_second", "Rows per second of the current or last run") {
+            @Override
+            public double getValue() {
+                return perRunSecond(rows.getCount() - runStartRows);
+            }
+        });
+        add(new Gauge("run_documents_per_second", "Documents per second of the current or last run") {
+            @Override
+            public double getValue() {
+                return perRunSecond(documentsIndexed.getCount() + documentsDeleted.getCount() - runStartDocuments);
+            }
+        });
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    /**
+     * Add a metric, its name must be unique
+     *
+     * @return the metric
+     */
+    public synchronized <T extends Metric> T add(T metric) {
+        if (metrics.containsKey(metric.getName())) {
+            throw new IllegalArgumentException("Duplicate metric " + metric.getName() + " of channel " + channelName);
+        }
+        metrics.put(metric.getName(), metric);
+        return metric;
+    }
+
+    public synchronized Collection<Metric> getMetrics() {
+        return new ArrayList<Metric>(metrics.values());
+    }
+
+    public synchronized void runStarted() {
+        runs.increment();
+        runStartNanos = System.nanoTime();
+        runEndNanos = 0;
+        runStartRows = rows.getCount();
+        runStartDocuments = documentsIndexed.getCount() + documentsDeleted.getCount();
+    }
+
+    public synchronized void runFinished() {
+        runEndNanos = System.nanoTime();
+    }
+
+    private synchronized double perRunSecond(long count) {
+        if (runStartNanos == 0) {
+            return 0;
+        }
+        long elapsedNanos = (runEndNanos != 0 ? runEndNanos : System.nanoTime()) - runStartNanos;
+        return elapsedNanos > 0 ? count * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * @return the current values, by JMX attribute name
+     */
+    public Map<String, Object> getAttributes() {
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        for (Metric metric : getMetrics()) {
+            metric.addAttributes(attributes);
+        }
+        return attributes;
+    }
+
+    /**
+     * @return the labels of the channel samples in the Prometheus text format
+     */
+    String getPrometheusLabels() {
+        return "channel=\"" + channelName.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Map<String, Object> attributes = getAttributes();
+        if (!attributes.containsKey(attribute)) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return attributes.get(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributeNames) {
+        Map<String, Object> attributes = getAttributes();
+        AttributeList attributeList = new AttributeList();
+        for (String attributeName : attributeNames) {
+            if (attributes.containsKey(attributeName)) {
+                attributeList.add(new Attribute(attributeName, attributes.get(attributeName)));
+            }
+        }
+        return attributeList;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Read only attribute: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("No operations: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributeInfos = new ArrayList<MBeanAttributeInfo>();
+        for (Metric metric : getMetrics()) {
+            Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+            metric.addAttributes(attributes);
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                attributeInfos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        metric.getHelp(), true, false, false));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics of channel " + channelName,
+                attributeInfos.toArray(new MBeanAttributeInfo[attributeInfos.size()]),
+                new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+}
@@ -0,0 +1,52 @@
+package org.takemoa.sql2es.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonic count, e.g. of rows or documents
+ *
+ * @author Take Moa
+ */
+public class Counter extends Metric {
+
+    private final AtomicLong count = new AtomicLong();
+
+    public Counter(String name, String help) {
+        super(name, help);
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        count.addAndGet(delta);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    void addAttributes(Map<String, Object> attributes) {
+        attributes.put(getName(), getCount());
+    }
+
+    @Override
+    void writePrometheus(Appendable out, String metricName, String labels) throws IOException {
+        out.append(metricName).append('{').append(labels).append("} ").append(Long.toString(getCount()))
+                .append('\n');
+    }
+
+    @Override
+    String getPrometheusName(String prefix) {
+        return super.getPrometheusName(prefix) + "_total";
+    }
+
+    @Override
+    String getPrometheusType() {
+        return "counter";
+    }
+}
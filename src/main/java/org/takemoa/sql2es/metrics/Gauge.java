@@ -0,0 +1,33 @@
+package org.takemoa.sql2es.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A value read when the metrics are, e.g. a queue depth
+ *
+ * @author Take Moa
+ */
+public abstract class Gauge extends Metric {
+
+    public Gauge(String name, String help) {
+        super(name, help);
+    }
+
+    public abstract double getValue();
+
+    @Override
+    void addAttributes(Map<String, Object> attributes) {
+        attributes.put(getName(), getValue());
+    }
+
+    @Override
+    void writePrometheus(Appendable out, String metricName, String labels) throws IOException {
+        out.append(metricName).append('{').append(labels).append("} ").append(formatValue(getValue())).append('\n');
+    }
+
+    @Override
+    String getPrometheusType() {
+        return "gauge";
+    }
+}
@@ -0,0 +1,110 @@
+package org.takemoa.sql2es.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Distribution of a value, e.g. a latency, over fixed buckets: count, sum, max and count per bucket.
+ *
+ * @author Take Moa
+ */
+public class Histogram extends Metric {
+
+    // Upper bounds (inclusive) of the buckets, ascending; one more bucket for the larger values
+    private final double[] bucketBounds;
+    private final long[] bucketCounts;
+    private long count = 0;
+    private double sum = 0;
+    private double max = 0;
+
+    public Histogram(String name, String help, double[] bucketBounds) {
+        super(name, help);
+        this.bucketBounds = bucketBounds.clone();
+        this.bucketCounts = new long[bucketBounds.length + 1];
+    }
+
+    /**
+     * Bucket bounds growing by a factor, e.g. 0.001, 0.002, 0.004 ... for latencies
+     */
+    public static double[] exponentialBounds(double start, double factor, int count) {
+        double[] bounds = new double[count];
+        double bound = start;
+        for (int i = 0; i < count; ++i) {
+            bounds[i] = bound;
+            bound *= factor;
+        }
+        return bounds;
+    }
+
+    public synchronized void record(double value) {
+        int bucketIndex = 0;
+        while (bucketIndex < bucketBounds.length && value > bucketBounds[bucketIndex]) {
+            ++bucketIndex;
+        }
+        ++bucketCounts[bucketIndex];
+        ++count;
+        sum += value;
+        if (count == 1 || value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Record a duration, in seconds
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1e9);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getSum() {
+        return sum;
+    }
+
+    public synchronized double getMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    public synchronized double getMax() {
+        return max;
+    }
+
+    @Override
+    synchronized void addAttributes(Map<String, Object> attributes) {
+        attributes.put(getName() + "_count", count);
+        attributes.put(getName() + "_sum", sum);
+        attributes.put(getName() + "_mean", getMean());
+        attributes.put(getName() + "_max", max);
+    }
+
+    @Override
+    void writePrometheus(Appendable out, String metricName, String labels) throws IOException {
+        long[] counts;
+        long totalCount;
+        double totalSum;
+        synchronized (this) {
+            counts = bucketCounts.clone();
+            totalCount = count;
+            totalSum = sum;
+        }
+        long cumulativeCount = 0;
+        for (int i = 0; i <= bucketBounds.length; ++i) {
+            cumulativeCount += counts[i];
+            String bound = i < bucketBounds.length ? formatValue(bucketBounds[i]) : "+Inf";
+            out.append(metricName).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                    .append(Long.toString(cumulativeCount)).append('\n');
+        }
+        out.append(metricName).append("_sum{").append(labels).append("} ").append(formatValue(totalSum))
+                .append('\n');
+        out.append(metricName).append("_count{").append(labels).append("} ").append(Long.toString(totalCount))
+                .append('\n');
+    }
+
+    @Override
+    String getPrometheusType() {
+        return "histogram";
+    }
+}
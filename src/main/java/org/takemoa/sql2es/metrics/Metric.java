@@ -0,0 +1,60 @@
+package org.takemoa.sql2es.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A named metric of a channel
+ *
+ * @author Take Moa
+ */
+public abstract class Metric {
+
+    private final String name;
+    private final String help;
+
+    protected Metric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Add the current values as JMX attributes, by attribute name
+     */
+    abstract void addAttributes(Map<String, Object> attributes);
+
+    /**
+     * Write the current values in the Prometheus text format
+     *
+     * @param metricName full metric name
+     * @param labels     labels of all the samples, e.g. <code>channel="employees"</code>
+     */
+    abstract void writePrometheus(Appendable out, String metricName, String labels) throws IOException;
+
+    /**
+     * @return the Prometheus name of the metric
+     */
+    String getPrometheusName(String prefix) {
+        return prefix + name;
+    }
+
+    /**
+     * @return the Prometheus metric type
+     */
+    abstract String getPrometheusType();
+
+    static String formatValue(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
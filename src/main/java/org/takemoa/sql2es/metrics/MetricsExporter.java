@@ -0,0 +1,216 @@
+package org.takemoa.sql2es.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.takemoa.sql2es.definition.MetricsDefinition;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the channel metrics as configured (see MetricsDefinition): JMX MBeans, a Prometheus text endpoint
+ * and/or a Prometheus text file written periodically.
+ *
+ * @author Take Moa
+ */
+public class MetricsExporter {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final String JMX_DOMAIN = "org.takemoa.sql2es";
+    public static final String PROMETHEUS_PREFIX = "sql2es_";
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsDefinition metricsDefinition;
+    private final List<ChannelMetrics> channelMetricsList;
+
+    private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+    private HttpServer httpServer = null;
+    private ScheduledExecutorService fileScheduler = null;
+
+    public MetricsExporter(MetricsDefinition metricsDefinition, List<ChannelMetrics> channelMetricsList) {
+        this.metricsDefinition = metricsDefinition;
+        this.channelMetricsList = new ArrayList<ChannelMetrics>(channelMetricsList);
+    }
+
+    /**
+     * Register the MBeans and start the Prometheus endpoint and file writer, if configured
+     */
+    public void start() {
+        if (metricsDefinition.isJmx()) {
+            registerMBeans();
+        }
+        if (metricsDefinition.getPrometheusPort() > 0) {
+            startHttpServer(metricsDefinition.getPrometheusPort());
+        }
+        if (metricsDefinition.getPrometheusFile() != null) {
+            final Path file = Paths.get(metricsDefinition.getPrometheusFile());
+            long intervalMillis = Math.max(1, metricsDefinition.getPrometheusFileIntervalSecs()) * 1000L;
+            fileScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "metrics-file-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            fileScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    writeFile(file);
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            logger.info("Writing metrics to {} every {} ms", file, intervalMillis);
+        }
+    }
+
+    /**
+     * Stop the endpoint and unregister the MBeans; the file, if any, is written a last time
+     */
+    public void stop() {
+        if (fileScheduler != null) {
+            fileScheduler.shutdownNow();
+            fileScheduler = null;
+            writeFile(Paths.get(metricsDefinition.getPrometheusFile()));
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registeredNames) {
+            try {
+                mBeanServer.unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.warn("Cannot unregister MBean {}: {}", objectName, e.getMessage());
+            }
+        }
+        registeredNames.clear();
+    }
+
+    /**
+     * Write the metrics of all the channels in the Prometheus text format, grouped by metric
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        Map<String, List<ChannelMetrics>> channelsByMetric = new LinkedHashMap<String, List<ChannelMetrics>>();
+        Map<String, Metric> metricsByName = new LinkedHashMap<String, Metric>();
+        for (ChannelMetrics channelMetrics : channelMetricsList) {
+            for (Metric metric : channelMetrics.getMetrics()) {
+                List<ChannelMetrics> channels = channelsByMetric.get(metric.getName());
+                if (channels == null) {
+                    channels = new ArrayList<ChannelMetrics>();
+                    channelsByMetric.put(metric.getName(), channels);
+                    metricsByName.put(metric.getName(), metric);
+                }
+                channels.add(channelMetrics);
+            }
+        }
+
+        for (Map.Entry<String, List<ChannelMetrics>> entry : channelsByMetric.entrySet()) {
+            Metric firstMetric = metricsByName.get(entry.getKey());
+            String metricName = firstMetric.getPrometheusName(PROMETHEUS_PREFIX);
+            out.append("# HELP ").append(metricName).append(' ').append(firstMetric.getHelp()).append('\n');
+            out.append("# TYPE ").append(metricName).append(' ').append(firstMetric.getPrometheusType()).append('\n');
+            for (ChannelMetrics channelMetrics : entry.getValue()) {
+                for (Metric metric : channelMetrics.getMetrics()) {
+                    if (metric.getName().equals(entry.getKey())) {
+                        metric.writePrometheus(out, metricName, channelMetrics.getPrometheusLabels());
+                    }
+                }
+            }
+        }
+    }
+
+    private void registerMBeans() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (ChannelMetrics channelMetrics : channelMetricsList) {
+            try {
+                ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=ChannelMetrics,channel="
+                        + ObjectName.quote(channelMetrics.getChannelName()));
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+                mBeanServer.registerMBean(channelMetrics, objectName);
+                registeredNames.add(objectName);
+            } catch (JMException e) {
+                logger.warn("Cannot register the metrics MBean of channel '{}': {}", channelMetrics.getChannelName(),
+                        e.getMessage());
+            }
+        }
+    }
+
+    private void startHttpServer(int port) {
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot start the metrics endpoint on port " + port, e);
+        }
+        httpServer.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    StringBuilder sb = new StringBuilder();
+                    writePrometheus(sb);
+                    byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", PROMETHEUS_CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream outputStream = exchange.getResponseBody();
+                    outputStream.write(body);
+                    outputStream.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+        httpServer.start();
+        logger.info("Metrics endpoint started: http://localhost:{}/metrics", port);
+    }
+
+    /**
+     * Write the file atomically, so that readers never see a partial file
+     */
+    private void writeFile(Path file) {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writePrometheus(writer);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Cannot write metrics file {}: {}", file, e.getMessage());
+        }
+    }
+}
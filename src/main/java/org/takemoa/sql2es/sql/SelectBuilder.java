@@ -14,6 +14,10 @@ public class SelectBuilder {
 	public static final String P_LIMIT = "limit";
 	public static final String P_REF_VALUE = "last_ref_value";
     public static final String P_REF_UPDATE_VALUE = "last_upd_ref_value";
+    public static final String P_ID_VALUE = "last_id_value";
+    public static final String P_PARTITION_FROM = "partition_from";
+    public static final String P_PARTITION_TO = "partition_to";
+    public static final String P_ROOT_IDS = "root_ids";
 
     // SQL templates to be used wen generating the SELECT statement
 	private SqlTemplates sqltemplates = null;
@@ -106,6 +110,35 @@ public class SelectBuilder {
         return this;
     }
 
+    /**
+     * Add a keyset condition, i.e. (key_1, ..., key_n) > (:param_1, ..., :param_n), expanded so that it does not
+     * require row value comparison support:
+     * (key_1 > :param_1 OR (key_1 = :param_1 AND key_2 > :param_2) OR ...)
+     * The query must be sorted ascending by the same keys.
+     * @param keyExpressions the key SQL expressions, in sort order
+     * @param paramNames the placeholder names holding the last key values
+     * @return
+     */
+    public SelectBuilder whereKeysetAfter(List<String> keyExpressions, List<String> paramNames) {
+        assert (keyExpressions.size() == paramNames.size());
+        assert (keyExpressions.size() > 0);
+        StringBuilder condition = new StringBuilder("(");
+        for (int i = 0; i < keyExpressions.size(); ++i) {
+            if (i > 0) {
+                condition.append(" OR (");
+                for (int j = 0; j < i; ++j) {
+                    condition.append(keyExpressions.get(j)).append(" = :").append(paramNames.get(j)).append(" AND ");
+                }
+            }
+            condition.append(keyExpressions.get(i)).append(" > :").append(paramNames.get(i));
+            if (i > 0) {
+                condition.append(")");
+            }
+        }
+        condition.append(")");
+        return where(condition.toString());
+    }
+
 	public SelectBuilder orderBy(String orderByField, SortTypeEnum sortType) {
 		if (orderByBuilder.length() > 0) {
 			orderByBuilder.append(SqlTemplates.NL).append(SqlTemplates.INDENT)
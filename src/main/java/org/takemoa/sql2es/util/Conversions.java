@@ -73,43 +73,114 @@ public class Conversions {
 	}
 
     /**
-     * Convert a value received from DB to the corresponding ES field value.
+     * Reader of DB values converted to the corresponding ES field values. The field type is resolved once,
+     * here, instead of for every value read.
      *
-     * @param rs
-     * @param fieldDef
-     * @param columnLabel
+     * @param fieldType
      * @param dbTimeZone
-     * @return The ES field value
-     * @throws SQLException
+     * @return The reader; DATETIME readers hold their own calendar and must be used by one thread only
      */
-    public static Object sqlToESValue(ResultSet rs, FieldDefinition fieldDef, String columnLabel, TimeZone dbTimeZone) throws SQLException {
-
-        switch (fieldDef.getFieldType()) {
+    public static SqlValueReader sqlValueReader(FieldType fieldType, TimeZone dbTimeZone) {
+        switch (fieldType) {
             case STRING:
-                return rs.getString(columnLabel);
+                return STRING_READER;
             case DATE:
-                return rs.getDate(columnLabel);
+                return DATE_READER;
             case DATETIME:
-                // TODO - get the timezone from configuration
                 if (dbTimeZone == null) {
-                    return rs.getTimestamp(columnLabel);
+                    return TIMESTAMP_READER;
                 }
-                return rs.getTimestamp(columnLabel, Calendar.getInstance(dbTimeZone));
+                final Calendar dbCalendar = Calendar.getInstance(dbTimeZone);
+                return new SqlValueReader() {
+                    @Override
+                    public Object read(ResultSet rs, int columnIndex) throws SQLException {
+                        return rs.getTimestamp(columnIndex, dbCalendar);
+                    }
+                };
             case FLOAT:
-                return rs.getFloat(columnLabel);
+                return FLOAT_READER;
             case DOUBLE:
-                return rs.getDouble(columnLabel);
+                return DOUBLE_READER;
             case INTEGER:
-                return rs.getInt(columnLabel);
+                return INTEGER_READER;
             case LONG:
-                return rs.getLong(columnLabel);
+                return LONG_READER;
             case SHORT:
-                return rs.getShort(columnLabel);
+                return SHORT_READER;
             case BOOLEAN:
-                return rs.getBoolean(columnLabel);
+                return BOOLEAN_READER;
+        }
+        return NULL_READER;
+    }
+
+    private static final SqlValueReader STRING_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getString(columnIndex);
+        }
+    };
+
+    private static final SqlValueReader DATE_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getDate(columnIndex);
+        }
+    };
+
+    private static final SqlValueReader TIMESTAMP_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getTimestamp(columnIndex);
+        }
+    };
+
+    private static final SqlValueReader FLOAT_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getFloat(columnIndex);
+        }
+    };
+
+    private static final SqlValueReader DOUBLE_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getDouble(columnIndex);
+        }
+    };
+
+    private static final SqlValueReader INTEGER_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getInt(columnIndex);
         }
-        return null;
+    };
+
+    private static final SqlValueReader LONG_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getLong(columnIndex);
+        }
+    };
 
+    private static final SqlValueReader SHORT_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getShort(columnIndex);
+        }
+    };
+
+    private static final SqlValueReader BOOLEAN_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getBoolean(columnIndex);
+        }
+    };
+
+    private static final SqlValueReader NULL_READER = new SqlValueReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) {
+            return null;
+        }
     };
 
     /**
@@ -0,0 +1,14 @@
+package org.takemoa.sql2es.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads one column of the current row, already converted to the value stored into ES.
+ *
+ * @author Take Moa
+ */
+public interface SqlValueReader {
+
+    Object read(ResultSet rs, int columnIndex) throws SQLException;
+}
@@ -0,0 +1,30 @@
+package org.takemoa.sql2es.cdc;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Version range of a bounded change tracking read
+ *
+ * @author Take Moa
+ */
+public class SqlServerChangeTrackingSourceTest extends TestCase {
+
+    public void testAllChangesRead() {
+        assertEquals(20, SqlServerChangeTrackingSource.getCompleteVersion(Arrays.asList(11L, 12L, 12L), 3, 20));
+        assertEquals(20, SqlServerChangeTrackingSource.getCompleteVersion(Collections.<Long>emptyList(), 3, 20));
+    }
+
+    public void testLastVersionCut() {
+        // Version 13 may have more changes than the one listed
+        assertEquals(12, SqlServerChangeTrackingSource.getCompleteVersion(Arrays.asList(11L, 12L, 12L, 13L), 3, 20));
+        assertEquals(11, SqlServerChangeTrackingSource.getCompleteVersion(Arrays.asList(11L, 12L, 12L, 12L), 3, 20));
+    }
+
+    public void testSingleVersionOverLimit() {
+        // One transaction is never split
+        assertEquals(11, SqlServerChangeTrackingSource.getCompleteVersion(Arrays.asList(11L, 11L, 11L, 11L), 3, 20));
+    }
+}
@@ -0,0 +1,164 @@
+package org.takemoa.sql2es.channel;
+
+import junit.framework.TestCase;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.AdminClient;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.support.AbstractClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checkpoints of the bulk indexer when the bulk requests complete out of order
+ *
+ * @author Take Moa
+ */
+public class BulkIndexerTest extends TestCase {
+
+    private PendingBulkClient client;
+    private List<Object> checkpoints;
+    private BulkIndexer bulkIndexer;
+
+    @Override
+    protected void setUp() {
+        client = new PendingBulkClient();
+        checkpoints = new ArrayList<Object>();
+        // One document per bulk request, all of them in flight at once
+        bulkIndexer = new BulkIndexer(client, "test", 1, 0, 0, 3, new BulkIndexer.Listener() {
+            @Override
+            public void onCheckpoint(Object checkpoint) {
+                checkpoints.add(checkpoint);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        bulkIndexer.close();
+    }
+
+    public void testCheckpointsInMarkingOrder() {
+        for (int i = 1; i <= 3; ++i) {
+            bulkIndexer.add(document(i));
+            bulkIndexer.markCheckpoint("c" + i);
+        }
+        assertEquals(3, client.listeners.size());
+        assertEquals(3, bulkIndexer.getInFlightRequests());
+
+        client.complete(1);
+        bulkIndexer.flush();
+        assertEquals(Arrays.<Object>asList(), checkpoints);
+        assertEquals(3, bulkIndexer.getPendingCheckpointCount());
+
+        client.complete(0);
+        bulkIndexer.flush();
+        assertEquals(Arrays.<Object>asList("c1", "c2"), checkpoints);
+
+        client.complete(2);
+        bulkIndexer.flushAndWait();
+        assertEquals(Arrays.<Object>asList("c1", "c2", "c3"), checkpoints);
+        assertEquals(0, bulkIndexer.getPendingCheckpointCount());
+        assertEquals(0, bulkIndexer.getInFlightRequests());
+    }
+
+    public void testCheckpointWithoutDocuments() {
+        bulkIndexer.markCheckpoint("c0");
+        assertEquals(Arrays.<Object>asList("c0"), checkpoints);
+
+        bulkIndexer.add(document(1));
+        bulkIndexer.markCheckpoint("c1");
+        // Nothing added since the previous checkpoint: waits for the same request
+        bulkIndexer.markCheckpoint("c2");
+        assertEquals(Arrays.<Object>asList("c0"), checkpoints);
+
+        client.complete(0);
+        bulkIndexer.flush();
+        assertEquals(Arrays.<Object>asList("c0", "c1", "c2"), checkpoints);
+    }
+
+    public void testNoCheckpointAfterFailure() {
+        bulkIndexer.add(document(1));
+        bulkIndexer.markCheckpoint("c1");
+        bulkIndexer.add(document(2));
+        bulkIndexer.markCheckpoint("c2");
+
+        client.complete(1);
+        client.listeners.get(0).onFailure(new ElasticsearchException("test failure"));
+        try {
+            bulkIndexer.flushAndWait();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("test failure", e.getMessage());
+        }
+        assertEquals(Arrays.<Object>asList(), checkpoints);
+    }
+
+    private static IndexRequest document(int id) {
+        return new IndexRequest("test_index", "test_type", String.valueOf(id)).source("{}");
+    }
+
+    /**
+     * Keeps the bulk requests in flight until the test completes them
+     */
+    private static class PendingBulkClient extends AbstractClient {
+
+        private final List<ActionListener<BulkResponse>> listeners = new ArrayList<ActionListener<BulkResponse>>();
+
+        void complete(int requestIndex) {
+            listeners.get(requestIndex).onResponse(new BulkResponse(new BulkItemResponse[0], 1));
+        }
+
+        @Override
+        public void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public <Request extends ActionRequest, Response extends ActionResponse,
+                RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder, Client>>
+        ActionFuture<Response> execute(Action<Request, Response, RequestBuilder, Client> action, Request request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <Request extends ActionRequest, Response extends ActionResponse,
+                RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder, Client>>
+        void execute(Action<Request, Response, RequestBuilder, Client> action, Request request,
+                     ActionListener<Response> listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AdminClient admin() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Settings settings() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ThreadPool threadPool() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
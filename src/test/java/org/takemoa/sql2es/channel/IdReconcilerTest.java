@@ -0,0 +1,95 @@
+package org.takemoa.sql2es.channel;
+
+import junit.framework.TestCase;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.internal.InternalSearchHit;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Merge of the database IDs with the ES documents of a channel
+ *
+ * @author Take Moa
+ */
+public class IdReconcilerTest extends TestCase {
+
+    public void testCompareIds() {
+        assertTrue(IdReconciler.compareIds(2, 10L) < 0);
+        assertEquals(0, IdReconciler.compareIds(7L, 7));
+        assertTrue(IdReconciler.compareIds(2.5, 2) > 0);
+        assertTrue(IdReconciler.compareIds("10", "2") < 0);
+        // Documents without ID field come last
+        assertTrue(IdReconciler.compareIds(null, 1) > 0);
+        assertTrue(IdReconciler.compareIds(1, null) < 0);
+        assertEquals(0, IdReconciler.compareIds(null, null));
+    }
+
+    public void testExtraEsIds() {
+        IdReconciler idReconciler = new IdReconciler(hits(1L, 2L, 3L, 4L, 5L));
+        idReconciler.nextDbId(2L);
+        idReconciler.nextDbId(4L);
+        assertEquals(Arrays.asList("1", "3", "5"), idReconciler.finish());
+        assertEquals(0, idReconciler.getMissingCount());
+    }
+
+    public void testMissingEsIds() {
+        IdReconciler idReconciler = new IdReconciler(hits(1L, 3L));
+        idReconciler.nextDbId(1L);
+        idReconciler.nextDbId(2L);
+        idReconciler.nextDbId(3L);
+        idReconciler.nextDbId(4L);
+        assertEquals(Collections.<String>emptyList(), idReconciler.finish());
+        assertEquals(2, idReconciler.getMissingCount());
+    }
+
+    public void testNoEsIds() {
+        IdReconciler idReconciler = new IdReconciler(hits());
+        idReconciler.nextDbId("a");
+        assertEquals(Collections.<String>emptyList(), idReconciler.finish());
+        assertEquals(1, idReconciler.getMissingCount());
+    }
+
+    public void testDocumentWithoutIdKept() {
+        IdReconciler idReconciler = new IdReconciler(hits("a", "b", null));
+        idReconciler.nextDbId("b");
+        assertEquals(Arrays.asList("a"), idReconciler.finish());
+    }
+
+    public void testDbIdsOutOfOrder() {
+        IdReconciler idReconciler = new IdReconciler(hits(1L, 2L, 3L));
+        idReconciler.nextDbId(2L);
+        try {
+            idReconciler.nextDbId(1L);
+            fail("Database IDs out of order accepted");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void testEsIdsOutOfOrder() {
+        IdReconciler idReconciler = new IdReconciler(hits(1L, 3L, 2L));
+        idReconciler.nextDbId(1L);
+        try {
+            idReconciler.nextDbId(4L);
+            fail("ES IDs out of order accepted");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Documents whose ID is the string value of their ID field, null meaning no ID field
+     */
+    private static SearchHit[] hits(Object... ids) {
+        SearchHit[] hits = new SearchHit[ids.length];
+        for (int i = 0; i < ids.length; ++i) {
+            InternalSearchHit hit = new InternalSearchHit(i, ids[i] != null ? ids[i].toString() : "noid" + i,
+                    new StringText("type"), null);
+            hit.sortValues(ids[i] != null ? new Object[]{ids[i]} : new Object[]{null});
+            hits[i] = hit;
+        }
+        return hits;
+    }
+}
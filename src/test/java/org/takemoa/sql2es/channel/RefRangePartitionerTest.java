@@ -0,0 +1,110 @@
+package org.takemoa.sql2es.channel;
+
+import junit.framework.TestCase;
+import org.takemoa.sql2es.definition.FieldType;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Split of the reference ranges of the partitioned initial loads
+ *
+ * @author Take Moa
+ */
+public class RefRangePartitionerTest extends TestCase {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    public void testCanPartition() {
+        assertTrue(RefRangePartitioner.canPartition(FieldType.LONG));
+        assertTrue(RefRangePartitioner.canPartition(FieldType.DOUBLE));
+        assertTrue(RefRangePartitioner.canPartition(FieldType.DATETIME));
+        assertFalse(RefRangePartitioner.canPartition(FieldType.STRING));
+        assertFalse(RefRangePartitioner.canPartition(FieldType.BOOLEAN));
+        assertFalse(RefRangePartitioner.canPartition(null));
+    }
+
+    public void testIntegerRange() {
+        assertEquals(Arrays.<Object>asList(1L, 5L, 9L, 10L),
+                RefRangePartitioner.split(1, 10, FieldType.INTEGER, 3));
+        assertEquals(Arrays.<Object>asList(0L, 25L, 50L, 75L, 99L),
+                RefRangePartitioner.split(0L, 99L, FieldType.LONG, 4));
+    }
+
+    public void testShortRange() {
+        assertEquals(Arrays.<Object>asList(0L, 2L, 3L),
+                RefRangePartitioner.split((short) 0, (short) 3, FieldType.SHORT, 2));
+    }
+
+    public void testFewerValuesThanPartitions() {
+        assertEquals(Arrays.<Object>asList(1L, 2L, 3L),
+                RefRangePartitioner.split(1L, 3L, FieldType.LONG, 8));
+        // A single value is a single partition, its upper limit included
+        assertEquals(Arrays.<Object>asList(5L, 5L),
+                RefRangePartitioner.split(5L, 5L, FieldType.LONG, 4));
+    }
+
+    public void testWidestLongRange() {
+        List<Object> boundaries = RefRangePartitioner.split(Long.MIN_VALUE, Long.MAX_VALUE, FieldType.LONG, 4);
+        assertEquals(5, boundaries.size());
+        assertIncreasing(boundaries);
+        assertEquals(Long.MIN_VALUE, boundaries.get(0));
+        assertEquals(Long.MAX_VALUE, boundaries.get(4));
+    }
+
+    public void testDoubleRange() {
+        assertEquals(Arrays.<Object>asList(0.0, 2.5, 5.0, 7.5, 10.0),
+                RefRangePartitioner.split(0.0, 10.0, FieldType.DOUBLE, 4));
+        assertEquals(Arrays.<Object>asList(1.5, 1.5),
+                RefRangePartitioner.split(1.5, 1.5, FieldType.DOUBLE, 4));
+        // Float values from the database
+        assertEquals(Arrays.<Object>asList(0.0, 0.5, 1.0),
+                RefRangePartitioner.split(0.0f, 1.0f, FieldType.FLOAT, 2));
+    }
+
+    public void testDateRangeInWholeDays() {
+        java.sql.Date min = new java.sql.Date(0);
+        java.sql.Date max = new java.sql.Date(10 * DAY_MILLIS);
+        List<Object> boundaries = RefRangePartitioner.split(min, max, FieldType.DATE, 3);
+        assertEquals(Arrays.<Object>asList(min, new java.sql.Date(3 * DAY_MILLIS), new java.sql.Date(6 * DAY_MILLIS),
+                max), boundaries);
+        assertTrue(boundaries.get(1) instanceof java.sql.Date);
+
+        // Timestamps returned for a DATE field
+        boundaries = RefRangePartitioner.split(new Timestamp(0), new Timestamp(10 * DAY_MILLIS), FieldType.DATE, 3);
+        for (Object boundary : boundaries) {
+            assertEquals(java.sql.Date.class, boundary.getClass());
+        }
+
+        // Never less than a day
+        assertEquals(Arrays.<Object>asList(min, new java.sql.Date(DAY_MILLIS), new java.sql.Date(2 * DAY_MILLIS)),
+                RefRangePartitioner.split(min, new java.sql.Date(2 * DAY_MILLIS), FieldType.DATE, 10));
+    }
+
+    public void testDatetimeRange() {
+        Timestamp min = new Timestamp(1000);
+        Timestamp max = new Timestamp(5000);
+        List<Object> boundaries = RefRangePartitioner.split(min, max, FieldType.DATETIME, 4);
+        assertEquals(Arrays.<Object>asList(min, new Timestamp(2000), new Timestamp(3000), new Timestamp(4000), max),
+                boundaries);
+        assertTrue(boundaries.get(1) instanceof Timestamp);
+    }
+
+    public void testStringRangeRejected() {
+        try {
+            RefRangePartitioner.split("a", "z", FieldType.STRING, 4);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertIncreasing(List<Object> boundaries) {
+        for (int i = 1; i < boundaries.size(); ++i) {
+            Comparable<Object> previous = (Comparable<Object>) boundaries.get(i - 1);
+            assertTrue(boundaries.toString(), previous.compareTo(boundaries.get(i)) < 0);
+        }
+    }
+}
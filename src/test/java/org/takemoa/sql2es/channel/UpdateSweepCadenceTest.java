@@ -0,0 +1,87 @@
+package org.takemoa.sql2es.channel;
+
+import junit.framework.TestCase;
+
+/**
+ * Update sweeps every N batches or M seconds
+ *
+ * @author Take Moa
+ */
+public class UpdateSweepCadenceTest extends TestCase {
+
+    public void testEveryBatch() {
+        UpdateSweepCadence cadence = new UpdateSweepCadence(1, 0, 0);
+        assertFalse(cadence.isDue(0));
+        cadence.batchHandled();
+        assertTrue(cadence.isDue(0));
+        cadence.swept(0);
+        assertFalse(cadence.isDue(1000000));
+    }
+
+    public void testEveryBatchesOnly() {
+        UpdateSweepCadence cadence = new UpdateSweepCadence(3, 0, 0);
+        cadence.batchHandled();
+        cadence.batchHandled();
+        assertFalse(cadence.isDue(1000000));
+        cadence.batchHandled();
+        assertTrue(cadence.isDue(0));
+    }
+
+    public void testIntervalOnly() {
+        UpdateSweepCadence cadence = new UpdateSweepCadence(0, 60, 1000);
+        for (int i = 0; i < 100; ++i) {
+            cadence.batchHandled();
+        }
+        assertFalse(cadence.isDue(60999));
+        assertTrue(cadence.isDue(61000));
+        cadence.swept(61000);
+        assertFalse(cadence.isDue(61000));
+        assertTrue(cadence.isDue(121000));
+    }
+
+    public void testBatchesOrInterval() {
+        UpdateSweepCadence cadence = new UpdateSweepCadence(10, 60, 0);
+        // A slow trickle of batches: the interval triggers
+        cadence.batchHandled();
+        assertFalse(cadence.isDue(59000));
+        assertTrue(cadence.isDue(60000));
+        cadence.swept(60000);
+
+        // A fast load: the batch count triggers
+        for (int i = 0; i < 9; ++i) {
+            cadence.batchHandled();
+            assertFalse(cadence.isDue(61000));
+        }
+        cadence.batchHandled();
+        assertTrue(cadence.isDue(61000));
+    }
+
+    public void testBothDisabled() {
+        UpdateSweepCadence cadence = new UpdateSweepCadence(0, 0, 0);
+        cadence.batchHandled();
+        assertFalse(cadence.isDue(Long.MAX_VALUE));
+    }
+
+    public void testIdleContinuousPassSweeps() {
+        // No new record: each pass is counted as a batch
+        UpdateSweepCadence cadence = new UpdateSweepCadence(1, 0, 0);
+        assertTrue(cadence.passFinished(0));
+        cadence.swept(0);
+        assertTrue(cadence.passFinished(0));
+
+        cadence = new UpdateSweepCadence(3, 0, 0);
+        assertFalse(cadence.passFinished(0));
+        assertFalse(cadence.passFinished(0));
+        assertTrue(cadence.passFinished(0));
+
+        cadence = new UpdateSweepCadence(0, 60, 0);
+        assertFalse(cadence.passFinished(59000));
+        assertTrue(cadence.passFinished(60000));
+
+        // No trigger: every pass, as the end of a run
+        cadence = new UpdateSweepCadence(0, 0, 0);
+        assertTrue(cadence.passFinished(0));
+        cadence.swept(0);
+        assertTrue(cadence.passFinished(0));
+    }
+}
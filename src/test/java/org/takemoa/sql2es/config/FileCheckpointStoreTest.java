@@ -0,0 +1,85 @@
+package org.takemoa.sql2es.config;
+
+import junit.framework.TestCase;
+import org.takemoa.sql2es.definition.DomainDefinition;
+import org.takemoa.sql2es.definition.FieldDefinition;
+import org.takemoa.sql2es.definition.FieldType;
+import org.takemoa.sql2es.definition.TypeDefinition;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+
+/**
+ * Checkpoint keyset, (reference, ID) of the last stored domain object, written and read back
+ *
+ * @author Take Moa
+ */
+public class FileCheckpointStoreTest extends TestCase {
+
+    private Path dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("checkpoints");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Path file = dir.resolve("channel.json");
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    public void testKeysetRoundTrip() {
+        DomainDefinition domainDefinition = domainDefinition();
+        FileCheckpointStore store = new FileCheckpointStore(dir.resolve("channel.json"), 0);
+        assertNull(store.load(domainDefinition));
+
+        ChannelConfigData configData = new ChannelConfigData("channel");
+        configData.setLastRefValue("updated", new Timestamp(1445000000123L));
+        configData.setLastIdValue("id", 12345678901L);
+        store.save(configData);
+        store.flush();
+
+        ChannelConfigData loaded = store.load(domainDefinition);
+        assertEquals(1445000000123L, ((java.util.Date) loaded.getLastRefValue()).getTime());
+        assertEquals(12345678901L, ((Number) loaded.getLastIdValue()).longValue());
+    }
+
+    public void testUnknownId() {
+        DomainDefinition domainDefinition = domainDefinition();
+        FileCheckpointStore store = new FileCheckpointStore(dir.resolve("channel.json"), 0);
+
+        ChannelConfigData configData = new ChannelConfigData("channel");
+        configData.setLastRefValue("updated", new Timestamp(1000));
+        configData.setLastIdValue("id", 7L);
+        configData.setLastIdValue("id", null);
+        store.save(configData);
+        store.flush();
+
+        ChannelConfigData loaded = store.load(domainDefinition);
+        assertNotNull(loaded.getLastRefValue());
+        assertNull(loaded.getLastIdValue());
+    }
+
+    private static DomainDefinition domainDefinition() {
+        LinkedHashMap<String, FieldDefinition> fieldsMap = new LinkedHashMap<String, FieldDefinition>();
+        fieldsMap.put("id", fieldDef(FieldType.LONG));
+        fieldsMap.put("updated", fieldDef(FieldType.DATETIME));
+        TypeDefinition typeDef = new TypeDefinition();
+        typeDef.setFieldsMap(fieldsMap);
+        typeDef.setIdFieldKey("id");
+        typeDef.setRefFieldKey("updated");
+        LinkedHashMap<String, TypeDefinition> typesMap = new LinkedHashMap<String, TypeDefinition>();
+        typesMap.put("item", typeDef);
+        return new DomainDefinition(typesMap);
+    }
+
+    private static FieldDefinition fieldDef(FieldType fieldType) {
+        FieldDefinition fieldDef = new FieldDefinition();
+        fieldDef.setFieldType(fieldType);
+        return fieldDef;
+    }
+}
@@ -0,0 +1,121 @@
+package org.takemoa.sql2es.definition;
+
+import junit.framework.TestCase;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JSon of the document writer compared to the ES map serialization
+ *
+ * @author Take Moa
+ */
+public class DocumentWriterTest extends TestCase {
+
+    private DocumentWriter documentWriter;
+
+    @Override
+    protected void setUp() {
+        TypeDefinition orderTypeDef = typeDef("order",
+                "id", FieldType.LONG,
+                "name", FieldType.STRING,
+                "created", FieldType.DATETIME,
+                "day", FieldType.DATE,
+                "amount", FieldType.DOUBLE,
+                "ratio", FieldType.FLOAT,
+                "quantity", FieldType.INTEGER,
+                "code", FieldType.SHORT,
+                "active", FieldType.BOOLEAN);
+        orderTypeDef.addChildTypeDef(typeDef("order.lines",
+                "id", FieldType.LONG,
+                "product", FieldType.STRING));
+        orderTypeDef.addChildTypeDef(typeDef("order.customer",
+                "id", FieldType.LONG,
+                "created", FieldType.DATETIME));
+        documentWriter = new DocumentWriter(orderTypeDef);
+    }
+
+    public void testFieldTypes() throws IOException {
+        Map<String, Object> order = new LinkedHashMap<String, Object>();
+        order.put("id", 12345678901L);
+        order.put("name", "caf\u00e9 \"quoted\"\n");
+        order.put("created", new Timestamp(1445000000123L));
+        order.put("day", new java.sql.Date(1444953600000L));
+        order.put("amount", 1234.5678);
+        order.put("ratio", 0.25f);
+        order.put("quantity", -7);
+        order.put("code", (short) 3);
+        order.put("active", true);
+        assertSameJson(order);
+    }
+
+    public void testMissingAndNullValues() throws IOException {
+        Map<String, Object> order = new LinkedHashMap<String, Object>();
+        order.put("id", 1L);
+        order.put("name", null);
+        order.put("created", null);
+        // Missing fields are not written at all
+        order.put("active", false);
+        assertSameJson(order);
+    }
+
+    public void testChildren() throws IOException {
+        Map<String, Object> order = new LinkedHashMap<String, Object>();
+        order.put("id", 1L);
+        order.put("lines", Arrays.<Object>asList(line(1L, "pen"), line(2L, null)));
+        Map<String, Object> customer = new LinkedHashMap<String, Object>();
+        customer.put("id", 9L);
+        customer.put("created", new Timestamp(0));
+        order.put("customer", customer);
+        assertSameJson(order);
+    }
+
+    public void testValuesNotInDefinitions() throws IOException {
+        Map<String, Object> order = new LinkedHashMap<String, Object>();
+        order.put("id", 1L);
+        order.put("lines", Arrays.<Object>asList(line(1L, "pen")));
+        Map<String, Object> extra = new LinkedHashMap<String, Object>();
+        extra.put("count", 2);
+        extra.put("when", new Timestamp(1445000000000L));
+        extra.put("tags", Arrays.<Object>asList("a", 1.5, null, false));
+        extra.put("nothing", null);
+        order.put("extra", extra);
+        order.put("version", 3L);
+        assertSameJson(order);
+    }
+
+    private void assertSameJson(Map<String, Object> domainObject) throws IOException {
+        String expected = XContentFactory.jsonBuilder().map(domainObject).string();
+        String actual = new String(documentWriter.write(domainObject, new ByteArrayOutputStream()), "UTF-8");
+        assertEquals(expected, actual);
+    }
+
+    private static Map<String, Object> line(Long id, String product) {
+        Map<String, Object> line = new LinkedHashMap<String, Object>();
+        line.put("id", id);
+        line.put("product", product);
+        return line;
+    }
+
+    /**
+     * @param fields field name and type pairs
+     */
+    private static TypeDefinition typeDef(String typeName, Object... fields) {
+        LinkedHashMap<String, FieldDefinition> fieldsMap = new LinkedHashMap<String, FieldDefinition>();
+        for (int i = 0; i < fields.length; i += 2) {
+            FieldDefinition fieldDef = new FieldDefinition();
+            fieldDef.setFieldType((FieldType) fields[i + 1]);
+            fieldsMap.put((String) fields[i], fieldDef);
+        }
+        TypeDefinition typeDef = new TypeDefinition();
+        typeDef.setFieldsMap(fieldsMap);
+        typeDef.setIdFieldKey("id");
+        typeDef.init(typeName);
+        return typeDef;
+    }
+}
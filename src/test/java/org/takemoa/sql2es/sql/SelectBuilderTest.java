@@ -0,0 +1,52 @@
+package org.takemoa.sql2es.sql;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Keyset paging condition of the select queries
+ *
+ * @author Take Moa
+ */
+public class SelectBuilderTest extends TestCase {
+
+    public void testSingleKey() {
+        String query = builder()
+                .whereKeysetAfter(Arrays.asList("t.id"), Arrays.asList("last_id"))
+                .buildSelectQuery();
+        assertTrue(query, query.contains("WHERE (t.id > :last_id)"));
+    }
+
+    public void testTwoKeys() {
+        String query = builder()
+                .whereKeysetAfter(Arrays.asList("t.updated", "t.id"), Arrays.asList("last_updated", "last_id"))
+                .buildSelectQuery();
+        assertTrue(query, query.contains(
+                "WHERE (t.updated > :last_updated OR (t.updated = :last_updated AND t.id > :last_id))"));
+    }
+
+    public void testThreeKeys() {
+        String query = builder()
+                .whereKeysetAfter(Arrays.asList("a", "b", "c"), Arrays.asList("pa", "pb", "pc"))
+                .buildSelectQuery();
+        assertTrue(query, query.contains("WHERE (a > :pa"
+                + " OR (a = :pa AND b > :pb)"
+                + " OR (a = :pa AND b = :pb AND c > :pc))"));
+    }
+
+    public void testAndedWithOtherConditions() {
+        String query = builder()
+                .where("t.deleted = 0")
+                .whereKeysetAfter(Arrays.asList("t.id"), Arrays.asList("last_id"))
+                .buildSelectQuery();
+        assertTrue(query, query.contains("WHERE t.deleted = 0" + SqlTemplates.NL + SqlTemplates.INDENT
+                + "AND (t.id > :last_id)"));
+    }
+
+    private static SelectBuilder builder() {
+        return new SelectBuilder(SqlTemplates.DEFAULT)
+                .select("t.id", "id")
+                .from("my_table", "t");
+    }
+}